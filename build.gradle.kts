@@ -4,6 +4,7 @@ plugins {
     application
     id("org.openjfx.javafxplugin") version "0.0.14"
     id("org.beryx.runtime") version "1.12.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 application {
@@ -52,6 +53,7 @@ dependencies {
     implementation("com.google.http-client:google-http-client:1.43.3")
     implementation("com.google.http-client:google-http-client-gson:1.43.3")
     implementation("com.google.http-client:google-http-client-jackson2:1.43.3")
+    implementation("com.google.http-client:google-http-client-apache-v2:1.43.3")
     
     // SLF4J Logging
     implementation("org.slf4j:slf4j-api:2.0.7")
@@ -62,6 +64,13 @@ dependencies {
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.10.2")
 }
 
+jmh {
+    // Benchmarks live in src/jmh/java; run with ./gradlew jmh
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+}
+
 runtime {
     options.set(listOf("--strip-debug", "--compress", "2", "--no-header-files", "--no-man-pages"))
 
@@ -70,6 +79,7 @@ runtime {
             "java.base",
             "java.desktop",
             "java.logging",
+            "java.naming",
             "java.net.http",
             "java.xml",
             "jdk.crypto.ec",
@@ -0,0 +1,73 @@
+package com.ibrasoft.jdriveclonr.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two download execution modes on a batch of small-file transfers.
+ * <p>
+ * Each transfer is modelled as {@code latencyMillis} of blocking, which is how a small download spends nearly all
+ * its time. Both modes run at most {@code concurrency} transfers at once, so only the execution model differs: the
+ * fixed pool has that many threads, like the thread slider, while the virtual-thread mode starts one thread per file
+ * and caps them with a quota-style semaphore of the same size (16 is the media quota's own cap).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DownloadExecutorBenchmark {
+
+    @Param({"4", "16"})
+    public int concurrency;
+
+    @Param({"1000"})
+    public int files;
+
+    @Param({"5"})
+    public int latencyMillis;
+
+    @Benchmark
+    public void fixedThreadPool() throws InterruptedException {
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            runTransfers(executor, new Semaphore(concurrency, true));
+        }
+    }
+
+    @Benchmark
+    public void virtualThreads() throws InterruptedException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            runTransfers(executor, new Semaphore(concurrency, true));
+        }
+    }
+
+    private void runTransfers(ExecutorService executor, Semaphore quotaSlots) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(files);
+        for (int i = 0; i < files; i++) {
+            executor.execute(() -> {
+                try {
+                    quotaSlots.acquire();
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } finally {
+                        quotaSlots.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
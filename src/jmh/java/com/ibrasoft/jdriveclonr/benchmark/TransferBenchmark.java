@@ -0,0 +1,87 @@
+package com.ibrasoft.jdriveclonr.benchmark;
+
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
+import com.ibrasoft.jdriveclonr.utils.Transfers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares how a response body reaches disk: the old path, {@link InputStream#transferTo} into an unbuffered
+ * {@link FileOutputStream}, against {@link Transfers#copy} into a {@link DiskWriter} stream backed by pooled direct
+ * buffers.
+ * <p>
+ * Each invocation writes {@code files} files of {@code fileSize} bytes, so small sizes show the per-file cost and large
+ * ones the per-byte cost. Run with {@code -prof gc} to compare allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransferBenchmark {
+
+    @Param({"65536", "16777216"})
+    public int fileSize;
+
+    @Param({"64"})
+    public int files;
+
+    private byte[] body;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void createBody() throws IOException {
+        body = new byte[fileSize];
+        new Random(1).nextBytes(body);
+        directory = Files.createTempDirectory("transfer-benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long transferToFileOutputStream() throws IOException {
+        long total = 0;
+        for (int i = 0; i < files; i++) {
+            try (InputStream in = new ByteArrayInputStream(body);
+                 OutputStream out = new FileOutputStream(directory.resolve("plain-" + i).toFile())) {
+                total += in.transferTo(out);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long pooledTransferToDiskWriter() throws IOException {
+        long total = 0;
+        for (int i = 0; i < files; i++) {
+            try (InputStream in = new ByteArrayInputStream(body);
+                 OutputStream out = DiskWriter.shared().open(directory.resolve("pooled-" + i))) {
+                total += Transfers.copy(in, out);
+            }
+        }
+        return total;
+    }
+}
@@ -2,37 +2,64 @@ package com.ibrasoft.jdriveclonr.export;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
-import com.google.common.util.concurrent.RateLimiter;
 import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
 import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
+import com.ibrasoft.jdriveclonr.service.AdaptiveRateLimiter;
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
+import com.ibrasoft.jdriveclonr.service.QuotaClass;
+import com.ibrasoft.jdriveclonr.service.QuotaLimiters;
+import com.ibrasoft.jdriveclonr.service.GoogleBatcher;
+import com.ibrasoft.jdriveclonr.service.HttpClientPool;
+import com.ibrasoft.jdriveclonr.service.PartialDownload;
+import com.ibrasoft.jdriveclonr.service.RetryPolicy;
+import com.ibrasoft.jdriveclonr.service.SegmentedDownload;
 import com.ibrasoft.jdriveclonr.utils.FileUtils;
-import com.ibrasoft.jdriveclonr.utils.ProgressTrackingOutputStream;
+import com.ibrasoft.jdriveclonr.utils.Transfers;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class DefaultExporter implements IDocumentExporter {
+
+    /**
+     * The reason Drive gives when a Workspace file is too large for {@code files.export}.
+     */
+    private static final String EXPORT_SIZE_LIMIT_REASON = "exportSizeLimitExceeded";
+    /**
+     * An access token this close to expiring is refreshed before it is sent, so a long download does not start with it.
+     */
+    private static final long TOKEN_REFRESH_MARGIN_SECONDS = 60;
     
     private Drive driveService;
     private Credential credential;
-    private RateLimiter rateLimiter;
+    private QuotaLimiters quotaLimiters;
+    private GoogleBatcher batcher;
+    private DiskWriter diskWriter = DiskWriter.shared();
+    private HttpClientPool httpClientPool = HttpClientPool.shared();
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.ON_COMPLETE;
+    /**
+     * Whether a download that fails is left in its part file for the next run to resume. Off when every run writes
+     * to a new folder, where nothing would ever pick it up.
+     */
+    private boolean keepPartialDownloads = true;
 
     @Override
     public boolean supports(DriveItem d, ExportFormat format) {
@@ -40,83 +67,121 @@ public class DefaultExporter implements IDocumentExporter {
         return true;
     }
 
-    public String fetchExportLinksFromFileId(String fileId, ExportFormat mime) throws IOException {
+    @Override
+    public String getOutputName(DriveItem d, ExportFormat mime) {
+        if (mime == ExportFormat.DEFAULT) {
+            // Don't add file ID suffix for default export since those are guaranteed to be unique
+            return FileUtils.sanitizeFilename(d.getName());
+        }
+        return FileUtils.sanitizeFilename(d.getName() + " - " + d.getId().substring(0, 8)) + mime.getExtension();
+    }
+
+    public String fetchExportLinksFromFileId(String fileId, ExportFormat mime) throws IOException, InterruptedException {
         if (driveService == null) {
             throw new IllegalStateException("Drive service not initialized");
         }
-        File file = driveService.files().get(fileId)
-                .setFields("exportLinks")
-                .execute();
+        Drive.Files.Get request = driveService.files().get(fileId)
+                .setFields("exportLinks");
+        // The batcher takes the quota slot and permit itself, around the batch the request is sent in
+        File file = batcher == null ? limited(QuotaClass.DRIVE_METADATA, request::execute)
+                : quotaLimiters != null ? quotaLimiters.retry(QuotaClass.DRIVE_METADATA, () -> batcher.execute(request))
+                : batcher.execute(request);
         Map<String, String> exportLinks = file.getExportLinks();
         return exportLinks.get(mime.getMimeType());
     }
 
-    public void downloadFromExportLinkInto(String token,
-                                          String link,
-                                          OutputStream target,
+    /**
+     * Downloads an export link (or a binary file's direct URL) into {@code output}. A failed transfer is retried as a
+     * whole, starting the output over and sending a current access token each time.
+     */
+    public void downloadFromExportLinkInto(String link,
+                                          Output output,
                                           ProgressCallback pc,
-                                          String fileName) throws IOException, InterruptedException {
-        if (rateLimiter != null) {
-            rateLimiter.acquire();
-        }
-        
+                                          String fileName,
+                                          QuotaClass quota) throws IOException, InterruptedException {
         pc.updateProgress(0.0, 1.0, "Starting download: " + fileName);
-        
-        HttpClient client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .connectTimeout(Duration.ofSeconds(15))
-                .build();
-
-        HttpRequest request = HttpRequest.newBuilder(URI.create(link))
-                .header("Authorization", "Bearer " + token)
-                .GET()
-                .build();
-
-        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-
-        if (response.statusCode() != 200) {
-            try (InputStream errStream = response.body()) {
-                String err = new String(errStream.readAllBytes(), StandardCharsets.UTF_8);
-                throw new IOException("Failed to download: HTTP " + response.statusCode() + " – " + err);
+
+        limited(quota, () -> {
+            OutputStream target = output.begin();
+            HttpResponse<InputStream> response = open(httpClientPool, credential, link);
+
+            pc.updateProgress(0.1, 1.0, "Downloading: " + fileName);
+
+            // Get content length for progress tracking
+            long contentLength = response.headers().firstValueAsLong("content-length").orElse(-1);
+            try (InputStream in = response.body()) {
+                if (contentLength > 0) {
+                    // Track progress if we know the size
+                    long[] bytesWritten = {0};
+                    Transfers.copy(in, target, (bytes) -> {
+                        bytesWritten[0] += bytes;
+                        double progress = 0.1 + (0.8 * bytesWritten[0] / (double) contentLength);
+                        long percent = bytesWritten[0] * 100 / contentLength;
+                        pc.updateProgress(progress, 1.0, "Downloading: " + fileName + " (" + percent + "%)");
+                    });
+                } else {
+                    // Fallback without progress tracking
+                    Transfers.copy(in, target);
+                }
             }
+            return null;
+        });
+
+        pc.updateProgress(1.0, 1.0, "Downloaded: " + fileName);
+    }
+
+    /**
+     * Where a download that may be retried writes. It is only touched once the attempt holds its quota slot.
+     */
+    @FunctionalInterface
+    public interface Output {
+        /**
+         * @return The stream to write to, emptied of anything an earlier attempt wrote
+         */
+        OutputStream begin() throws IOException;
+    }
+
+    /**
+     * An {@link Output} for a file that is opened by the first attempt, rather than while that attempt waits for its
+     * quota slot, and emptied by every later one. Closing it hands the file to the {@link DiskWriter}, which gives it
+     * its modified time once written.
+     */
+    private final class FileOutput implements Output, AutoCloseable {
+        private final Path path;
+        private final FileTime modifiedTime;
+        private DiskWriter.WriterStream stream;
+
+        FileOutput(Path path, FileTime modifiedTime) {
+            this.path = path;
+            this.modifiedTime = modifiedTime;
         }
 
-        pc.updateProgress(0.1, 1.0, "Downloading: " + fileName);
-        
-        // Get content length for progress tracking
-        long contentLength = response.headers().firstValueAsLong("content-length").orElse(-1);
-          try (InputStream in = response.body()) {
-            if (contentLength > 0) {
-                // Use progress tracking output stream if we know the size
-                long[] bytesWritten = {0};
-                try (ProgressTrackingOutputStream progressOut = new ProgressTrackingOutputStream(target, 
-                        (bytes) -> {
-                            bytesWritten[0] += bytes;
-                            double progress = 0.1 + (0.8 * bytesWritten[0] / (double) contentLength);
-                            long percent = bytesWritten[0] * 100 / contentLength;
-                            pc.updateProgress(progress, 1.0, "Downloading: " + fileName + " (" + percent + "%)");
-                        })) {
-                    in.transferTo(progressOut);
-                }
+        @Override
+        public OutputStream begin() throws IOException {
+            if (stream == null) {
+                stream = diskWriter.open(path);
+                stream.setLastModifiedTime(modifiedTime);
             } else {
-                // Fallback without progress tracking
-                in.transferTo(target);
+                stream.truncate();
             }
+            return stream;
         }
-        
-        pc.updateProgress(1.0, 1.0, "Downloaded: " + fileName);
-    }    @Override
+
+        @Override
+        public void close() throws IOException {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    @Override
     public void exportDocument(DriveItem d, String filePath, ExportFormat mime, ProgressCallback pc) throws IOException, InterruptedException {
         if (driveService == null || credential == null) {
             throw new IllegalStateException("DefaultExporter not properly initialized with dependencies");
         }
         String fileID = d.getId();
-        String sanitizedName = FileUtils.sanitizeFilename(d.getName() + " - " + fileID.substring(0, 8));
-        if (mime == ExportFormat.DEFAULT) {
-            // Don't add file ID suffix for default export since those are guaranteed to be unique
-            sanitizedName = FileUtils.sanitizeFilename(d.getName());
-        }
-        String fileName = sanitizedName + mime.getExtension();
+        String fileName = getOutputName(d, mime);
         
         // Ensure proper path separator - filePath should end with separator
         String normalizedPath = filePath;
@@ -127,41 +192,14 @@ public class DefaultExporter implements IDocumentExporter {
         
         pc.updateProgress(0.0, 1.0, "Preparing to download: " + fileName);
         
-        try (FileOutputStream target = new FileOutputStream(fullPath)) {
+        try {
             if (mime != ExportFormat.DEFAULT) {
-                pc.updateProgress(0.1, 1.0, "Exporting: " + fileName);
-                try {
-                    // Try direct export first
-                    driveService.files().export(fileID, mime.getMimeType())
-                            .executeMediaAndDownloadTo(target);
-                    pc.updateProgress(1.0, 1.0, "Exported: " + fileName);
-                } catch (IOException e) {
-                    // File too big for direct export, use export links trick
-                    pc.updateProgress(0.2, 1.0, "File too large for direct export, using alternative method: " + fileName);
-                    String downloadLink = fetchExportLinksFromFileId(fileID, mime);
-                    downloadFromExportLinkInto(credential.getAccessToken(), downloadLink, target, pc, fileName);
-                }
+                exportInto(Path.of(fullPath), fileID, fileName, mime, d.getModifiedTime(), pc);
             } else {
-                // Note: We don't need to worry about binary files colliding because Google Drive doesn't allow duplicate file names for binary files
-                pc.updateProgress(0.1, 1.0, "Downloading binary file: " + fileName);
-                try {
-                    // Try direct download
-                    driveService.files().get(fileID)
-                            .setSupportsAllDrives(true)
-                            .executeMediaAndDownloadTo(target);
-                    pc.updateProgress(1.0, 1.0, "Downloaded: " + fileName);
-                } catch (com.google.api.client.http.HttpResponseException e) {
-                    // Handle "schrodinger's file" scenario with binary URL
-                    pc.updateProgress(0.2, 1.0, "Access denied, trying alternative download method: " + fileName);
-                    String downloadLink = d.getBinaryURL();
-                    if (downloadLink != null) {
-                        downloadFromExportLinkInto(credential.getAccessToken(), downloadLink, target, pc, fileName);
-                    } else {
-                        throw new IOException("Unable to download file: " + e.getMessage());
-                    }
-                }
+                downloadBinaryInto(Path.of(fullPath), d, fileName, pc);
+                // Only once committed: the part file has its real name by then
+                FileUtils.setLastModifiedFromDateTime(fullPath, d.getModifiedTime());
             }
-            FileUtils.setLastModifiedFromDateTime(fullPath, d.getModifiedTime());
         } catch (GoogleJsonResponseException e) {
             System.err.println("Unable to download file: " + e.getDetails());
             pc.updateProgress(0.0, 1.0, "Failed to download: " + fileName + " - " + e.getMessage());
@@ -169,31 +207,188 @@ public class DefaultExporter implements IDocumentExporter {
         }
     }
 
-    public static void downloadFromExportLinkInto(String token,
+    private void exportInto(Path path, String fileID, String fileName, ExportFormat mime, DateTime modifiedTime, ProgressCallback pc) throws IOException, InterruptedException {
+        pc.updateProgress(0.1, 1.0, "Exporting: " + fileName);
+        try (FileOutput target = new FileOutput(path, FileUtils.toFileTime(modifiedTime))) {
+            try {
+                // Try direct export first
+                limited(QuotaClass.DRIVE_EXPORT, () -> {
+                    driveService.files().export(fileID, mime.getMimeType())
+                            .executeMediaAndDownloadTo(target.begin());
+                    return null;
+                });
+                pc.updateProgress(1.0, 1.0, "Exported: " + fileName);
+            } catch (GoogleJsonResponseException e) {
+                if (!isExportSizeLimitExceeded(e)) {
+                    throw e;
+                }
+                // File too big for direct export, use export links trick
+                pc.updateProgress(0.2, 1.0, "File too large for direct export, using alternative method: " + fileName);
+                String downloadLink = fetchExportLinksFromFileId(fileID, mime);
+                downloadFromExportLinkInto(downloadLink, target, pc, fileName, QuotaClass.DRIVE_EXPORT);
+            }
+        }
+    }
+
+    /**
+     * Downloads a binary file through a {@link PartialDownload}: retries, and later clones into the same folder,
+     * continue with a Range request from where the previous attempt stopped instead of starting over.
+     */
+    private void downloadBinaryInto(Path path, DriveItem d, String fileName, ProgressCallback pc) throws IOException, InterruptedException {
+        // Note: We don't need to worry about binary files colliding because Google Drive doesn't allow duplicate file names for binary files
+        if (SegmentedDownload.isWorthSegmenting(d.getSize())) {
+            try {
+                downloadSegmentedInto(path, d, fileName, pc);
+                return;
+            } catch (HttpResponseException e) {
+                if (RetryPolicy.classify(e) != RetryPolicy.Failure.PERMANENT) {
+                    throw e;
+                }
+                // Ranges refused; a single stream has its own fallbacks for files that cannot be fetched directly
+                pc.updateProgress(0.1, 1.0, "Segmented download refused, using a single stream: " + fileName);
+            }
+        }
+        try (PartialDownload part = PartialDownload.open(diskWriter, path, d.getMd5Checksum(), d.getModifiedTimeMillis(), d.getSize(), fsyncPolicy)) {
+            try {
+                downloadInto(part, d, fileName, pc);
+                part.commit();
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                if (!isWorthResuming(e)) {
+                    part.discard();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void downloadInto(PartialDownload part, DriveItem d, String fileName, ProgressCallback pc) throws IOException, InterruptedException {
+        if (part.getResumedFrom() > 0 && d.getSize() > 0) {
+            pc.updateProgress(0.1, 1.0, "Resuming binary file at " + (part.getResumedFrom() * 100 / d.getSize()) + "%: " + fileName);
+        } else {
+            pc.updateProgress(0.1, 1.0, "Downloading binary file: " + fileName);
+        }
+        try {
+            // Try direct download
+            limited(QuotaClass.DRIVE_MEDIA, () -> {
+                long offset = part.checkpoint();
+                if (!part.isComplete()) {
+                    Drive.Files.Get request = driveService.files().get(d.getId())
+                            .setSupportsAllDrives(true);
+                    request.getMediaHttpDownloader().setBytesDownloaded(offset);
+                    request.executeMediaAndDownloadTo(part);
+                }
+                return null;
+            });
+            pc.updateProgress(1.0, 1.0, "Downloaded: " + fileName);
+        } catch (HttpResponseException e) {
+            // Handle "schrodinger's file" scenario with binary URL; outages and rate limits were already retried
+            if (RetryPolicy.classify(e) != RetryPolicy.Failure.PERMANENT) {
+                throw e;
+            }
+            pc.updateProgress(0.2, 1.0, "Access denied, trying alternative download method: " + fileName);
+            String downloadLink = d.getBinaryURL();
+            if (downloadLink != null) {
+                downloadFromExportLinkInto(downloadLink, () -> {
+                    part.restart();
+                    return part;
+                }, pc, fileName, QuotaClass.DRIVE_MEDIA);
+            } else {
+                throw new IOException("Unable to download file: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Whether what a failed download wrote should be kept for a later attempt: not when the next run writes to a new
+     * folder, and not when Drive refused the file for good (e.g. 403 or 404), which the next attempt would run into
+     * again. A cancelled download or a network failure is kept.
+     */
+    private boolean isWorthResuming(Exception e) {
+        if (!keepPartialDownloads) {
+            return false;
+        }
+        Throwable refusal = e instanceof HttpResponseException ? e : e.getCause();
+        return !(refusal instanceof HttpResponseException http && RetryPolicy.classify(http) == RetryPolicy.Failure.PERMANENT);
+    }
+
+    /**
+     * Downloads a large binary file as a {@link SegmentedDownload}, each segment over its own connection and under
+     * its own quota slot. A retried segment asks only for the bytes it is still missing.
+     */
+    private void downloadSegmentedInto(Path path, DriveItem d, String fileName, ProgressCallback pc) throws IOException, InterruptedException {
+        long size = d.getSize();
+        try (SegmentedDownload download = SegmentedDownload.open(path, d.getMd5Checksum(), d.getModifiedTimeMillis(), size, fsyncPolicy)) {
+            pc.updateProgress(0.1, 1.0, (download.getResumedFrom() > 0 ? "Resuming" : "Downloading") + " binary file in segments: " + fileName);
+            AtomicLong written = new AtomicLong(download.getResumedFrom());
+            try {
+                download.download(segment -> limited(QuotaClass.DRIVE_MEDIA, () -> {
+                    if (!segment.isComplete()) {
+                        Drive.Files.Get request = driveService.files().get(d.getId())
+                                .setSupportsAllDrives(true);
+                        request.getMediaHttpDownloader().setContentRange(segment.getFirstByte(), segment.getLastByte());
+                        request.executeMediaAndDownloadTo(segment);
+                    }
+                    return null;
+                }), bytes -> {
+                    long done = written.addAndGet(bytes);
+                    pc.updateProgress(0.1 + 0.8 * done / (double) size, 1.0, "Downloading: " + fileName + " (" + done * 100 / size + "%)");
+                });
+                download.commit();
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                if (!isWorthResuming(e)) {
+                    download.discard();
+                }
+                throw e;
+            }
+            pc.updateProgress(1.0, 1.0, "Downloaded: " + fileName);
+        }
+    }
+
+    public static void downloadFromExportLinkInto(Credential credential,
                                                   String link,
                                                   OutputStream target) throws IOException, InterruptedException {
         // Fallback implementation without progress tracking and rate limiting
-        HttpClient client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .connectTimeout(Duration.ofSeconds(15))
-                .build();
-
-        HttpRequest request = HttpRequest.newBuilder(URI.create(link))
-                .header("Authorization", "Bearer " + token)
-                .GET()
-                .build();
-
-        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-
-        if (response.statusCode() != 200) {
-            try (InputStream errStream = response.body()) {
-                String err = new String(errStream.readAllBytes(), StandardCharsets.UTF_8);
-                throw new IOException("Failed to download: HTTP " + response.statusCode() + " – " + err);
+        HttpResponse<InputStream> response = open(HttpClientPool.shared(), credential, link);
+
+        try (InputStream in = response.body()) {
+            Transfers.copy(in, target);
+        }
+    }
+
+    /**
+     * Opens a link with a current access token. The token is refreshed when it is about to expire, and once more if
+     * the link still answers 401, e.g. after a long run of retries.
+     */
+    private static HttpResponse<InputStream> open(HttpClientPool pool, Credential credential, String link) throws IOException, InterruptedException {
+        try {
+            return pool.open(link, currentAccessToken(credential, false));
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED) {
+                throw e;
             }
+            return pool.open(link, currentAccessToken(credential, true));
         }
+    }
 
-        try (InputStream in = response.body()) {
-            in.transferTo(target);
+    private static String currentAccessToken(Credential credential, boolean rejected) throws IOException {
+        synchronized (credential) {
+            Long expiresIn = credential.getExpiresInSeconds();
+            if (rejected || credential.getAccessToken() == null
+                    || (expiresIn != null && expiresIn <= TOKEN_REFRESH_MARGIN_SECONDS)) {
+                credential.refreshToken();
+            }
+            return credential.getAccessToken();
         }
     }
+
+    private static boolean isExportSizeLimitExceeded(GoogleJsonResponseException e) {
+        return e.getStatusCode() == 403 && AdaptiveRateLimiter.errorReasons(e).contains(EXPORT_SIZE_LIMIT_REASON);
+    }
+
+    /**
+     * Runs a call under the limits of its quota class, if limits were provided. Failures worth retrying are retried.
+     */
+    private <T> T limited(QuotaClass quota, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        return quotaLimiters != null ? quotaLimiters.execute(quota, call) : call.execute();
+    }
 }
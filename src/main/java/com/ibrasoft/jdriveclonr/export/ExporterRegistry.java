@@ -1,8 +1,11 @@
 package com.ibrasoft.jdriveclonr.export;
 
 import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
 import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
 import com.ibrasoft.jdriveclonr.service.GoogleServiceFactory;
+import com.ibrasoft.jdriveclonr.service.HttpClientPool;
 import lombok.AllArgsConstructor;
 
 import java.util.ArrayList;
@@ -14,15 +17,20 @@ public class ExporterRegistry {
     private final List<IDocumentExporter> exporters;
 
 
-    public static ExporterRegistry create(GoogleServiceFactory.GoogleServices services) {
+    /**
+     * @param keepPartialDownloads Whether unfinished downloads are kept for the next run to resume
+     */
+    public static ExporterRegistry create(GoogleServiceFactory.GoogleServices services, FsyncPolicy fsyncPolicy, boolean keepPartialDownloads) {
         List<IDocumentExporter> exporters = new ArrayList<>();
+        DiskWriter diskWriter = DiskWriter.shared();
+        HttpClientPool httpClientPool = HttpClientPool.shared();
 
         // Add specialized exporters with dependency injection
-        exporters.add(new GoogleSheetsExporter(services.getSheetsService(), services.getCredential(), services.getRateLimiter()));
-        exporters.add(new GoogleSlidesExporter(services.getSlidesService(), services.getCredential(), services.getRateLimiter()));
+        exporters.add(new GoogleSheetsExporter(services.getSheetsService(), services.getCredential(), services.getQuotaLimiters(), services.getSheetsBatcher(), diskWriter));
+        exporters.add(new GoogleSlidesExporter(services.getSlidesService(), services.getCredential(), services.getQuotaLimiters(), diskWriter, httpClientPool));
 
         // Add default exporter with dependency injection
-        exporters.add(new DefaultExporter(services.getDriveService(), services.getCredential(), services.getRateLimiter()));
+        exporters.add(new DefaultExporter(services.getDriveService(), services.getCredential(), services.getQuotaLimiters(), services.getDriveBatcher(), diskWriter, httpClientPool, fsyncPolicy, keepPartialDownloads));
 
         return new ExporterRegistry(exporters);
     }
@@ -34,4 +42,11 @@ public class ExporterRegistry {
         }
         return exporters.stream().filter(e -> e.supports(item, fmt)).findFirst().orElse(null);
     }
+
+    /**
+     * Returns the name the matching exporter will write the item under.
+     */
+    public String getOutputName(DriveItem item, ExportFormat fmt) {
+        return find(item, fmt).getOutputName(item, fmt);
+    }
 }
@@ -0,0 +1,69 @@
+package com.ibrasoft.jdriveclonr.export;
+
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An export written as a folder of files, e.g. one per sheet or slide. The files go into a staging folder next to
+ * the target, which is swapped in once all of them are written. Re-exporting a changed item in a mirror or
+ * incremental run thus replaces its last copy, and a failed export leaves that copy as it was.
+ */
+final class FolderExport implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FolderExport.class);
+
+    static final String STAGING_SUFFIX = ".partial";
+
+    private final Path target;
+    private final Path staging;
+    private boolean committed;
+
+    FolderExport(Path target) throws IOException {
+        this.target = target;
+        this.staging = target.resolveSibling(target.getFileName() + STAGING_SUFFIX);
+        // Left behind by an export that was interrupted
+        FileUtils.deleteRecursively(staging);
+        Files.createDirectory(staging);
+    }
+
+    /**
+     * @return The folder to write the export's files into
+     */
+    Path staging() {
+        return staging;
+    }
+
+    /**
+     * Waits for the files this thread wrote to reach the disk, then puts the staging folder in place of the target.
+     */
+    void commit() throws IOException {
+        DiskWriter.awaitClosed();
+        FileUtils.replaceDirectory(staging, target);
+        committed = true;
+    }
+
+    /**
+     * Throws away the staging folder unless the export was committed.
+     */
+    @Override
+    public void close() {
+        if (committed) {
+            return;
+        }
+        try {
+            DiskWriter.awaitClosed();
+        } catch (IOException e) {
+            // The export already failed; its files are thrown away regardless
+        }
+        try {
+            FileUtils.deleteRecursively(staging);
+        } catch (IOException e) {
+            logger.warn("Could not delete the unfinished export {}: {}", staging, e.getMessage());
+        }
+    }
+}
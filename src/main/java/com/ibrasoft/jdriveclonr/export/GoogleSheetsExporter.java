@@ -4,26 +4,34 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.Sheet;
 import com.google.api.services.sheets.v4.model.Spreadsheet;
-import com.google.common.util.concurrent.RateLimiter;
 import com.ibrasoft.jdriveclonr.model.DriveItem;
 import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
 import com.ibrasoft.jdriveclonr.model.mime.GoogleMime;
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
+import com.ibrasoft.jdriveclonr.service.QuotaClass;
+import com.ibrasoft.jdriveclonr.service.QuotaLimiters;
+import com.ibrasoft.jdriveclonr.service.GoogleBatcher;
 import com.ibrasoft.jdriveclonr.utils.FileUtils;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.function.Supplier;
 
 @Data
 @AllArgsConstructor
 public class GoogleSheetsExporter implements IDocumentExporter {
 
-    private final Sheets sheetsService;
+    private final Supplier<Sheets> sheetsService;
     private final Credential credential;
     final GoogleMime SUPPORTED_MIME = GoogleMime.SHEETS;
-    private RateLimiter rateLimiter;
+    private QuotaLimiters quotaLimiters;
+    private Supplier<GoogleBatcher> batcher;
+    private DiskWriter diskWriter;
 
     @Override
     public void exportDocument(DriveItem d, String filePath, ExportFormat format, ProgressCallback pc) throws IOException, InterruptedException {
@@ -33,42 +41,54 @@ public class GoogleSheetsExporter implements IDocumentExporter {
 
         // add file id at the end to avoid conflicts with other files
         // recall that google drive allows duplicate file names for google workspace documents
-        File dest = new File(filePath, FileUtils.sanitizeFilename(d.getName() + " - " + d.getId().substring(0, 8)));
+        File dest = new File(filePath, getOutputName(d, format));
 
-        if (!dest.mkdir()) {
-            throw new IOException("Failed to create directory: " + filePath + d.getName());
-        }
-
-        Spreadsheet sheet = sheetsService.spreadsheets().get(d.getId())
-                .setFields("sheets.properties.title,sheets.properties.sheetId")
-                .execute();
+        // Staged and swapped in, so a changed sheet replaces the folder its last export left
+        try (FolderExport export = new FolderExport(dest.toPath())) {
+            Sheets.Spreadsheets.Get request = sheetsService.get().spreadsheets().get(d.getId())
+                    .setFields("sheets.properties.title,sheets.properties.sheetId");
+            // The batcher takes the quota slot and permit itself, around the batch the request is sent in
+            Spreadsheet sheet = batcher != null
+                    ? quotaLimiters.retry(QuotaClass.SHEETS, () -> batcher.get().execute(request))
+                    : quotaLimiters.execute(QuotaClass.SHEETS, request::execute);
+            List<Sheet> sheets = sheet.getSheets() == null ? List.of() : sheet.getSheets();
+            FileTime modifiedTime = FileUtils.toFileTime(d.getModifiedTime());
 
-        for (int i = 0; i < sheet.getSheets().size(); i++) {
-            rateLimiter.acquire();
-            Sheet s = sheet.getSheets().get(i);
-            String sheetName = s.getProperties().getTitle();
-            sheetName = FileUtils.sanitizeFilename(sheetName);
-            Integer gid = s.getProperties().getSheetId();
-            pc.updateProgress((i / (1.0 * sheet.getSheets().size())), 1.0, "Exporting sheet: " + sheetName);
+            for (int i = 0; i < sheets.size(); i++) {
+                Sheet s = sheets.get(i);
+                String sheetName = s.getProperties().getTitle();
+                sheetName = FileUtils.sanitizeFilename(sheetName);
+                Integer gid = s.getProperties().getSheetId();
+                pc.updateProgress((i / (1.0 * sheets.size())), 1.0, "Exporting sheet: " + sheetName);
 
-            String exportUrl = String.format(
-                    "https://docs.google.com/spreadsheets/d/%s/gviz/tq?tqx=out:%s&gid=%s",
-                    d.getId(), format.getShortMime(), gid
-            );
-            File outFile = new File(dest, sheetName + format.getExtension());
-            try (FileOutputStream output = new FileOutputStream(outFile)) {
-                DefaultExporter.downloadFromExportLinkInto(
-                        credential.getAccessToken(),
-                        exportUrl,
-                        output
+                String exportUrl = String.format(
+                        "https://docs.google.com/spreadsheets/d/%s/gviz/tq?tqx=out:%s&gid=%s",
+                        d.getId(), format.getShortMime(), gid
                 );
+                Path outFile = export.staging().resolve(sheetName + format.getExtension());
+                quotaLimiters.execute(QuotaClass.SHEETS, () -> {
+                    try (DiskWriter.WriterStream output = diskWriter.open(outFile)) {
+                        output.setLastModifiedTime(modifiedTime);
+                        DefaultExporter.downloadFromExportLinkInto(
+                                credential,
+                                exportUrl,
+                                output
+                        );
+                    }
+                    return null;
+                });
+                pc.updateProgress(((i + 1) / (1.0 * sheets.size())), 1.0, "Exporting sheet: " + sheetName);
             }
-            FileUtils.setLastModifiedFromDateTime(outFile, d.getModifiedTime());
-            pc.updateProgress(((i + 1) / (1.0 * sheet.getSheets().size())), 1.0, "Exporting sheet: " + sheetName);
+            export.commit();
         }
     }
 
 
+    @Override
+    public String getOutputName(DriveItem d, ExportFormat format) {
+        return FileUtils.sanitizeFilename(d.getName() + " - " + d.getId().substring(0, 8));
+    }
+
     @Override
     public boolean supports(DriveItem d, ExportFormat format) {
         return d.getMimeType().equals(this.SUPPORTED_MIME.getMimeType());
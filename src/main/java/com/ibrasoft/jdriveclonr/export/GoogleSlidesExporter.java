@@ -5,81 +5,92 @@ import com.google.api.services.slides.v1.Slides;
 import com.google.api.services.slides.v1.model.Page;
 import com.google.api.services.slides.v1.model.Presentation;
 import com.google.api.services.slides.v1.model.Thumbnail;
-import com.google.common.util.concurrent.RateLimiter;
 import com.ibrasoft.jdriveclonr.model.DriveItem;
 import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
 import com.ibrasoft.jdriveclonr.model.mime.GoogleMime;
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
+import com.ibrasoft.jdriveclonr.service.HttpClientPool;
+import com.ibrasoft.jdriveclonr.service.QuotaClass;
+import com.ibrasoft.jdriveclonr.service.QuotaLimiters;
 import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import com.ibrasoft.jdriveclonr.utils.Transfers;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Supplier;
 
 @Data
 @AllArgsConstructor
 public class GoogleSlidesExporter implements IDocumentExporter {
 
-    private final Slides slidesService;
+    private final Supplier<Slides> slidesService;
     private final Credential credential;
-    private RateLimiter rateLimiter;
+    private QuotaLimiters quotaLimiters;
+    private DiskWriter diskWriter;
+    private HttpClientPool httpClientPool;
     final GoogleMime SUPPORTED_MIME = GoogleMime.SLIDES;
 
 
     @Override
     public void exportDocument(DriveItem d, String filePath, ExportFormat format, ProgressCallback pc) throws IOException {
         // A) Create a folder with the current drive item name
-        String sanitizedName = FileUtils.sanitizeFilename(d.getName() + " - " + d.getId().substring(0, 8));
+        String sanitizedName = getOutputName(d, format);
         File dest = new File(filePath, sanitizedName);
 
-        if (!dest.mkdir()) {
-            throw new IOException("Failed to create directory: " + filePath + File.separator + sanitizedName);
-        }
-        try {
-            Presentation presentation = slidesService
+        // Staged and swapped in, so a changed deck replaces the folder its last export left
+        try (FolderExport export = new FolderExport(dest.toPath())) {
+            FileTime modifiedTime = FileUtils.toFileTime(d.getModifiedTime());
+            Presentation presentation = quotaLimiters.execute(QuotaClass.SLIDES, () -> slidesService.get()
                     .presentations()
                     .get(d.getId())
                     .setFields("slides(objectId,pageElements)")
-                    .execute();
+                    .execute());
 
             List<Page> slides = presentation.getSlides();
 
             for (int i = 0; i < slides.size(); i++) {
-                rateLimiter.acquire();
                 Page slide = slides.get(i);
                 String pageId = slide.getObjectId();
                 pc.updateProgress((i / (1.0 * slides.size())), 1.0, "Exporting slide: " + slide.getPageElements().getFirst().getObjectId());
                 // Use Google Slides API to generate a PNG thumbnail
-                Thumbnail thumbnail = slidesService
+                Thumbnail thumbnail = quotaLimiters.execute(QuotaClass.SLIDES, () -> slidesService.get()
                         .presentations()
                         .pages()
                         .getThumbnail(d.getId(), pageId)
                         .setThumbnailPropertiesMimeType(format.getShortMime().toUpperCase(Locale.ROOT))
                         .setThumbnailPropertiesThumbnailSize("LARGE")
-                        .execute();
+                        .execute());
 
                 String contentUrl = thumbnail.getContentUrl();
 
                 String slideName = String.format("Slide %02d", i + 1);
-                File outFile = new File(dest, slideName + ".png");
-                try (InputStream in = URI.create(contentUrl).toURL().openStream();
-                     FileOutputStream output = new FileOutputStream(outFile)) {
-                    in.transferTo(output);
+                Path outFile = export.staging().resolve(slideName + ".png");
+                try (InputStream in = httpClientPool.open(contentUrl, null).body();
+                     DiskWriter.WriterStream output = diskWriter.open(outFile)) {
+                    output.setLastModifiedTime(modifiedTime);
+                    Transfers.copy(in, output);
                 }
-                FileUtils.setLastModifiedFromDateTime(outFile, d.getModifiedTime());
                 pc.updateProgress(((i + 1) / (1.0 * slides.size())), 1.0, "Exporting slide: " + slide.getPageElements().getFirst().getObjectId());
             }
+            export.commit();
         } catch (Exception e) {
             throw new IOException("Failed to export slides: " + e.getMessage(), e);
         }
     }
 
 
+    @Override
+    public String getOutputName(DriveItem d, ExportFormat format) {
+        return FileUtils.sanitizeFilename(d.getName() + " - " + d.getId().substring(0, 8));
+    }
+
     @Override
     public boolean supports(DriveItem d, ExportFormat format) {
         return d.getMimeType().equals(this.SUPPORTED_MIME.getMimeType());
@@ -26,6 +26,15 @@ public interface IDocumentExporter {
      */
     boolean supports(DriveItem d, ExportFormat format);
 
+    /**
+     * Returns the name of the file (or folder) this exporter writes for the given item, relative to the
+     * directory passed to {@link #exportDocument}.
+     * @param d the DriveItem being exported
+     * @param format the ExportFormat it is exported in
+     * @return The sanitized output name, including any extension
+     */
+    String getOutputName(DriveItem d, ExportFormat format);
+
     @FunctionalInterface
     interface ProgressCallback {
         void updateProgress(double workDone, double totalWork, String message);
@@ -6,6 +6,7 @@ import lombok.Data;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,7 +15,16 @@ public class ConfigModel {
     private static final Logger logger = LoggerFactory.getLogger(ConfigModel.class);
     private Path destinationDirectory;
     private final Map<String, ExportFormat> exportFormats;
-    private int threadCount = 4; // Default thread count
+    private int threadCount = 4; // Default thread count; the most downloads at once when auto-tuning
+    private boolean autoTuneConcurrency = true; // Adjust concurrency to throughput and rate limits while running
+    private int discoveryThreadCount = 4; // Folders listed in parallel during download discovery
+    private boolean flatListing = true; // List the whole Drive once instead of once per folder
+    private boolean deduplicateFiles = true; // Download identical content once and hard-link the other copies
+    private SyncMode syncMode = SyncMode.SNAPSHOT;
+    private boolean mirrorDeletes = false; // In mirror mode, delete local files that are gone from Drive
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.DISCOVERY_ORDER;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.ON_COMPLETE;
 
     public ConfigModel() {
         logger.info("Initializing ConfigModel");
@@ -34,6 +44,17 @@ public class ConfigModel {
         return exportFormats.getOrDefault(googleMimeType, ExportFormat.DEFAULT);
     }
 
+    /**
+     * @return The configured export formats in a stable textual form, so a clone can tell whether they changed
+     * since it was last written
+     */
+    public String describeExportFormats() {
+        return exportFormats.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue().name())
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
     public String getUiValueForType(String googleMimeType) {
         ExportFormat format = exportFormats.get(googleMimeType);
         return format != null ? format.getUiLabel() : null;
@@ -3,10 +3,15 @@ package com.ibrasoft.jdriveclonr.model;
 import com.ibrasoft.jdriveclonr.App;
 import com.ibrasoft.jdriveclonr.export.ExporterRegistry;
 import com.ibrasoft.jdriveclonr.export.IDocumentExporter;
+import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
+import com.ibrasoft.jdriveclonr.service.DiskWriter;
 import javafx.concurrent.Task;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 @AllArgsConstructor
 @Data
 public class DriveDownloadTask extends Task<Void> {
@@ -19,11 +24,30 @@ public class DriveDownloadTask extends Task<Void> {
     protected Void call() throws Exception {
         IDocumentExporter exporter = this.exporterRegistry.find(driveItem, App.getConfigModel().getExportFormat(driveItem.getMimeType()));
 
-        exporter.exportDocument(driveItem, destinationPath,
-                App.getConfigModel().getExportFormat(driveItem.getMimeType()), (workDone, totalWork, message) -> {
-                    updateProgress(workDone, totalWork);
-                    updateMessage(message);
-                });
+        try {
+            exporter.exportDocument(driveItem, destinationPath,
+                    App.getConfigModel().getExportFormat(driveItem.getMimeType()), (workDone, totalWork, message) -> {
+                        updateProgress(workDone, totalWork);
+                        updateMessage(message);
+                    });
+        } catch (Exception e) {
+            try {
+                DiskWriter.awaitClosed();
+            } catch (IOException writeFailure) {
+                e.addSuppressed(writeFailure);
+            }
+            throw e;
+        }
+        // The files the exporter closed may still be on their way to the disk; the download is done once they are
+        DiskWriter.awaitClosed();
         return null;
     }
+
+    /**
+     * @return The file or folder this task will write, as named by the exporter that will handle it
+     */
+    public Path getOutputPath() {
+        ExportFormat format = App.getConfigModel().getExportFormat(driveItem.getMimeType());
+        return Path.of(destinationPath, exporterRegistry.getOutputName(driveItem, format));
+    }
 }
@@ -5,55 +5,119 @@ import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.scene.control.CheckBoxTreeItem;
 import javafx.scene.control.TreeItem;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-@AllArgsConstructor
+/**
+ * A node of the Drive tree shown in the UI and walked by the downloader.
+ * <p>
+ * Trees can run to millions of nodes, so a node keeps only what it needs: the MIME type is interned (there are
+ * only a few dozen distinct values), the modified time is a primitive, files share one immutable empty child
+ * list, and a folder's rolled-up modified time is computed once instead of on every call.
+ */
 @Data
 public class DriveItem {
-    private static final Logger logger = LoggerFactory.getLogger(DriveItem.class);
+    private static final long NO_TIME = -1;
+    private static final long NOT_ROLLED_UP = Long.MIN_VALUE;
 
     private String id;
     private String name;
     private String mimeType;
     private long size;
-    private DateTime modifiedTime;
+    private long modifiedTime;
     private boolean shared;
     private List<DriveItem> children;
     private Supplier<List<DriveItem>> next;
     private String binaryURL = null;
+    /**
+     * Drive's checksum of a binary file's content; null for folders and Google Docs, Sheets and Slides.
+     */
+    private String md5Checksum;
+    /**
+     * Drive's version number, which goes up with every change to the file; 0 if unknown.
+     */
+    private long version;
+    /**
+     * The first of the item's parents on Drive, which a folder with several parents is cloned under; null if unknown.
+     */
+    private String primaryParentId;
+    /**
+     * Set on a folder in the selection handed to the downloader when only some of its children were selected, so its
+     * children are not a complete listing of the folder.
+     */
+    private boolean partiallySelected;
+    /**
+     * The latest modified time among the children of a folder without its own, once every child's is final.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient long rolledUpModifiedTime = NOT_ROLLED_UP;
+
+    public DriveItem(String id, String name, String mimeType, long size, DateTime modifiedTime, boolean shared, List<DriveItem> children, Supplier<List<DriveItem>> next, String binaryURL) {
+        this.id = id;
+        this.name = name;
+        this.mimeType = mimeType == null ? null : mimeType.intern();
+        this.size = size;
+        this.modifiedTime = modifiedTime == null ? NO_TIME : modifiedTime.getValue();
+        this.shared = shared;
+        this.children = children;
+        this.next = next;
+        this.binaryURL = binaryURL;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType == null ? null : mimeType.intern();
+    }
 
-    public DriveItem() {
-        logger.info("DriveItem instance created");
+    public void setModifiedTime(DateTime modifiedTime) {
+        this.modifiedTime = modifiedTime == null ? NO_TIME : modifiedTime.getValue();
     }
 
     public DateTime getModifiedTime() {
-        if (this.modifiedTime != null) {
+        long millis = getModifiedTimeMillis();
+        return millis == NO_TIME ? null : new DateTime(millis);
+    }
+
+    /**
+     * @return The modified time in epoch milliseconds, falling back to the latest among the loaded children;
+     * -1 if there is none
+     */
+    public long getModifiedTimeMillis() {
+        if (this.modifiedTime != NO_TIME) {
             return this.modifiedTime;
         }
+        if (this.rolledUpModifiedTime != NOT_ROLLED_UP) {
+            return this.rolledUpModifiedTime;
+        }
         // Find the latest date among children if available
-        if (this.isLoaded()) {
-            return children.stream()
-                    .map(DriveItem::getModifiedTime)
-                    .filter(Objects::nonNull)
-                    .max(Comparator.comparingLong(DateTime::getValue))
-                    .orElse(null);
+        if (!this.isLoaded()) {
+            return NO_TIME;
+        }
+        long latest = NO_TIME;
+        boolean settled = true;
+        for (DriveItem child : children) {
+            latest = Math.max(latest, child.getModifiedTimeMillis());
+            settled &= child.modifiedTime != NO_TIME || child.rolledUpModifiedTime != NOT_ROLLED_UP;
+        }
+        // Only cache once no child can still change its answer by loading its own children
+        if (settled) {
+            this.rolledUpModifiedTime = latest;
         }
-        return null; // No modified time available
+        return latest;
     }
 
     public void setChildren(List<DriveItem> children) {
         // sort children based on type and name
         children = children.stream().sorted(Comparator.comparing(DriveItem::isFolder).reversed().thenComparing(DriveItem::getName)).collect(Collectors.toList());
         this.children = children;
+        this.rolledUpModifiedTime = NOT_ROLLED_UP;
     }
 
     public boolean isFolder() {
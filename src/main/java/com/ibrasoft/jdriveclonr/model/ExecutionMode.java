@@ -0,0 +1,18 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import lombok.Getter;
+
+/**
+ * How file transfers are scheduled onto threads.
+ */
+@Getter
+public enum ExecutionMode {
+    PLATFORM_THREADS("Fixed pool of download threads"),
+    VIRTUAL_THREADS("One virtual thread per file, limited by Google quotas");
+
+    private final String uiLabel;
+
+    ExecutionMode(String uiLabel) {
+        this.uiLabel = uiLabel;
+    }
+}
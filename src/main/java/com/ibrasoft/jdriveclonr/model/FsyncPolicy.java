@@ -0,0 +1,19 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import lombok.Getter;
+
+/**
+ * When downloaded data is forced to disk, trading speed for what survives a crash or power loss.
+ */
+@Getter
+public enum FsyncPolicy {
+    NEVER("Never (fastest, left to the OS)"),
+    ON_COMPLETE("When each file completes"),
+    EVERY_CHECKPOINT("Also while downloading large files (safest)");
+
+    private final String uiLabel;
+
+    FsyncPolicy(String uiLabel) {
+        this.uiLabel = uiLabel;
+    }
+}
@@ -0,0 +1,20 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import lombok.Getter;
+
+/**
+ * The order in which discovered files are downloaded.
+ */
+@Getter
+public enum SchedulingPolicy {
+    DISCOVERY_ORDER("In the order they are found"),
+    SMALL_FILES_FIRST("Small files first"),
+    LARGEST_FIRST_INTERLEAVED("Largest file alongside small ones"),
+    FAIR_SHARE("Take turns between the selected folders");
+
+    private final String uiLabel;
+
+    SchedulingPolicy(String uiLabel) {
+        this.uiLabel = uiLabel;
+    }
+}
@@ -0,0 +1,240 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of what a clone wrote to disk: which Drive item ended up at which path, and the Changes API cursor the
+ * clone is current as of. It is stored inside the clone so a later incremental run knows where to apply changes.
+ * <p>
+ * Paths are kept relative to the clone root, so a clone folder can be moved or renamed without invalidating it.
+ * Each file also records the checksum, size and version it was downloaded at, so a mirror run can tell whether the
+ * copy on disk is still current without downloading it again. Entries are keyed by Drive ID in a hash map, so that
+ * check stays a constant-time lookup however many millions of items the clone holds.
+ */
+public class SyncManifest {
+    private static final String DIRECTORY = ".driveclonr";
+    private static final String FILE_NAME = "manifest.bin";
+    private static final int MAGIC = 0x44434D46; // "DCMF"
+    private static final int FORMAT_VERSION = 3;
+    private static final int FORMAT_VERSION_WITHOUT_EXPORT_FORMATS = 2;
+    private static final int FORMAT_VERSION_WITHOUT_CONTENT = 1;
+
+    @Getter
+    private final Path root;
+    @Getter
+    @Setter
+    private volatile String startPageToken;
+    /**
+     * The export formats the clone's Google files were written in, as given by
+     * {@link ConfigModel#describeExportFormats()}. Null if the clone predates recording them.
+     */
+    @Getter
+    @Setter
+    private volatile String exportFormats;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public SyncManifest(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Loads the manifest stored in a previous clone.
+     *
+     * @param root The clone root the manifest was saved under
+     * @return The manifest, or null if the folder has never been cloned into
+     * @throws IOException If the manifest exists but cannot be read
+     */
+    public static SyncManifest load(Path root) throws IOException {
+        Path file = root.resolve(DIRECTORY).resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        SyncManifest manifest = new SyncManifest(root);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < FORMAT_VERSION_WITHOUT_CONTENT || version > FORMAT_VERSION) {
+                throw new IOException("Unrecognised clone manifest: " + file);
+            }
+            manifest.startPageToken = emptyToNull(in.readUTF());
+            if (version >= FORMAT_VERSION) {
+                manifest.exportFormats = emptyToNull(in.readUTF());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), emptyToNull(in.readUTF()), in.readUTF(),
+                        in.readBoolean(), in.readBoolean(), in.readLong(), in.readBoolean());
+                if (version >= FORMAT_VERSION_WITHOUT_EXPORT_FORMATS) {
+                    entry = entry.withContent(emptyToNull(in.readUTF()), in.readLong(), in.readLong());
+                }
+                manifest.entries.put(entry.id(), entry);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest next to the clone. The file is replaced atomically, so an interrupted save leaves the
+     * previous manifest intact.
+     *
+     * @throws IOException If the manifest cannot be written
+     */
+    public void save() throws IOException {
+        Path directory = root.resolve(DIRECTORY);
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(FILE_NAME + ".tmp");
+
+        List<Entry> snapshot = List.copyOf(entries.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(nullToEmpty(startPageToken));
+            out.writeUTF(nullToEmpty(exportFormats));
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.id());
+                out.writeUTF(nullToEmpty(entry.parentId()));
+                out.writeUTF(entry.path());
+                out.writeBoolean(entry.folder());
+                out.writeBoolean(entry.trashed());
+                out.writeLong(entry.modifiedTime());
+                out.writeBoolean(entry.complete());
+                out.writeUTF(nullToEmpty(entry.md5Checksum()));
+                out.writeLong(entry.size());
+                out.writeLong(entry.version());
+            }
+        }
+        Files.move(temp, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Entry get(String id) {
+        return id == null ? null : entries.get(id);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.id(), entry);
+    }
+
+    public void remove(String id) {
+        entries.remove(id);
+    }
+
+    public void markComplete(String id) {
+        entries.computeIfPresent(id, (k, entry) -> entry.withComplete(true));
+    }
+
+    public Collection<Entry> entries() {
+        return List.copyOf(entries.values());
+    }
+
+    public Path resolve(Entry entry) {
+        return root.resolve(entry.path());
+    }
+
+    public String relativize(Path path) {
+        return root.relativize(path).toString();
+    }
+
+    /**
+     * Drops the entry at {@code path} and everything below it, e.g. after a folder was deleted locally.
+     */
+    public void removeUnder(String path) {
+        Path prefix = Path.of(path);
+        entries.values().removeIf(entry -> Path.of(entry.path()).startsWith(prefix));
+    }
+
+    /**
+     * Rewrites every entry below {@code oldPath} to live below {@code newPath} instead, after a folder was moved.
+     */
+    public void rebase(String oldPath, String newPath) {
+        Path oldPrefix = Path.of(oldPath);
+        Path newPrefix = Path.of(newPath);
+        entries.replaceAll((id, entry) -> {
+            Path current = Path.of(entry.path());
+            if (!current.startsWith(oldPrefix)) {
+                return entry;
+            }
+            return entry.withLocation(entry.parentId(), newPrefix.resolve(oldPrefix.relativize(current)).toString());
+        });
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * One cloned item.
+     *
+     * @param id           The Drive file ID
+     * @param parentId     The Drive ID of the folder it was cloned under, or null for virtual roots
+     * @param path         Where the item was written, relative to the clone root
+     * @param folder       Whether the item is a folder
+     * @param trashed      Whether the item was cloned from the trash
+     * @param modifiedTime The item's modified time when it was cloned, in epoch millis (0 if unknown)
+     * @param complete     Whether the item finished downloading
+     * @param md5Checksum  Drive's checksum of the content that was downloaded, or null if Drive gives none
+     * @param size         The item's size on Drive when it was cloned, in bytes (0 if unknown)
+     * @param version      Drive's version number for the item when it was cloned (0 if unknown)
+     */
+    public record Entry(String id, String parentId, String path, boolean folder, boolean trashed,
+                        long modifiedTime, boolean complete, String md5Checksum, long size, long version) {
+
+        /**
+         * An entry that records no content details, e.g. for a folder.
+         */
+        public Entry(String id, String parentId, String path, boolean folder, boolean trashed,
+                     long modifiedTime, boolean complete) {
+            this(id, parentId, path, folder, trashed, modifiedTime, complete, null, 0, 0);
+        }
+
+        public Entry withComplete(boolean complete) {
+            return new Entry(id, parentId, path, folder, trashed, modifiedTime, complete, md5Checksum, size, version);
+        }
+
+        public Entry withLocation(String parentId, String path) {
+            return new Entry(id, parentId, path, folder, trashed, modifiedTime, complete, md5Checksum, size, version);
+        }
+
+        public Entry withContent(String md5Checksum, long size, long version) {
+            return new Entry(id, parentId, path, folder, trashed, modifiedTime, complete, md5Checksum, size, version);
+        }
+
+        /**
+         * Checks whether this entry was downloaded from the same content Drive now reports. Binary files are compared
+         * by checksum and size; Google Docs, Sheets and Slides have neither, so their version (or, for entries
+         * written before versions were recorded, their modified time) decides.
+         *
+         * @return true if a complete download of this entry needs no refresh
+         */
+        public boolean hasSameContent(String md5Checksum, long size, long version, long modifiedTime) {
+            if (!complete) {
+                return false;
+            }
+            if (md5Checksum != null || this.md5Checksum != null) {
+                return md5Checksum != null && md5Checksum.equals(this.md5Checksum) && size == this.size;
+            }
+            if (version > 0 && this.version > 0) {
+                return version == this.version;
+            }
+            return modifiedTime == this.modifiedTime;
+        }
+    }
+}
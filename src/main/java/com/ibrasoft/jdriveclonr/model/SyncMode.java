@@ -0,0 +1,24 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import lombok.Getter;
+
+@Getter
+public enum SyncMode {
+    SNAPSHOT("New timestamped folder every run"),
+    LINKED_SNAPSHOT("New timestamped folder, hard-linking unchanged files from the last one"),
+    INCREMENTAL("Update the previous clone with changes only"),
+    MIRROR("Keep one folder in step with Drive, skipping unchanged files");
+
+    private final String uiLabel;
+
+    SyncMode(String uiLabel) {
+        this.uiLabel = uiLabel;
+    }
+
+    /**
+     * @return Whether every run writes into the same folder, so a download left unfinished can be resumed by the next
+     */
+    public boolean reusesFolder() {
+        return this == INCREMENTAL || this == MIRROR;
+    }
+}
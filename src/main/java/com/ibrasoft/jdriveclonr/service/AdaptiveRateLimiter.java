@@ -0,0 +1,224 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A request rate limiter that finds the quota ceiling by itself, using additive-increase/multiplicative-decrease.
+ * <p>
+ * Every successful call nudges the rate up, so it grows by about {@code increasePerSecond} for each second of
+ * successful traffic. A rate-limit response (429, or 403 with {@code userRateLimitExceeded}/{@code rateLimitExceeded})
+ * multiplies the rate by {@code decreaseFactor}. Calls already in flight when the rate is cut usually get throttled
+ * too, so further cuts are ignored for {@code COOLDOWN_NANOS} after each one.
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    private static final Set<String> RATE_LIMIT_REASONS = Set.of("userRateLimitExceeded", "rateLimitExceeded");
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimiter limiter;
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSecond;
+    private final double decreaseFactor;
+    private final LongSupplier nanoClock;
+    private final AtomicLong throttledCalls = new AtomicLong();
+
+    private double rate;
+    private long lastDecreaseNanos;
+    private boolean decreasedBefore;
+
+    /**
+     * @param initialRate       The starting rate, in permits per second
+     * @param minRate           The rate never drops below this
+     * @param maxRate           The rate never grows above this
+     * @param increasePerSecond How much the rate grows per second of successful calls
+     * @param decreaseFactor    What the rate is multiplied by when throttled, between 0 and 1
+     */
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double increasePerSecond, double decreaseFactor) {
+        this(initialRate, minRate, maxRate, increasePerSecond, decreaseFactor, System::nanoTime);
+    }
+
+    AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double increasePerSecond, double decreaseFactor, LongSupplier nanoClock) {
+        if (minRate <= 0 || minRate > maxRate || decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Invalid rate limiter settings");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        this.nanoClock = nanoClock;
+        this.rate = clamp(initialRate);
+        this.limiter = RateLimiter.create(rate);
+    }
+
+    /**
+     * A Google API call, or a download that goes through one.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Waits for a permit, runs the call and feeds its outcome back into the rate.
+     *
+     * @param call The call to run
+     * @return The call's result
+     * @throws IOException          If the call fails; rate-limit failures are rethrown after lowering the rate
+     * @throws InterruptedException If interrupted while running the call
+     */
+    public <T> T execute(Call<T> call) throws IOException, InterruptedException {
+        return execute(1, call);
+    }
+
+    /**
+     * Waits for several permits, e.g. one per part of a batch request, then runs the call like {@link #execute(Call)}.
+     *
+     * @param permits How many API calls the call makes
+     * @param call    The call to run
+     * @return The call's result
+     * @throws IOException          If the call fails; rate-limit failures are rethrown after lowering the rate
+     * @throws InterruptedException If interrupted while running the call
+     */
+    public <T> T execute(int permits, Call<T> call) throws IOException, InterruptedException {
+        acquire(permits);
+        try {
+            T result = call.execute();
+            onSuccess();
+            return result;
+        } catch (IOException e) {
+            recordFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks until a permit is available at the current rate.
+     */
+    public void acquire() {
+        limiter.acquire();
+    }
+
+    /**
+     * Blocks until the given number of permits is available at the current rate.
+     */
+    public void acquire(int permits) {
+        limiter.acquire(permits);
+    }
+
+    /**
+     * Records a failed call that did not go through {@link #execute}, e.g. one part of a batch request, lowering the
+     * rate if it was rate limited.
+     */
+    public void recordFailure(IOException e) {
+        if (isRateLimited(e)) {
+            throttledCalls.incrementAndGet();
+            onThrottled();
+        }
+    }
+
+    /**
+     * Records a call that went through, raising the rate by {@code increasePerSecond / rate}.
+     */
+    public synchronized void onSuccess() {
+        if (rate < maxRate) {
+            setRate(rate + increasePerSecond / rate);
+        }
+    }
+
+    /**
+     * Records a call that was rejected for exceeding the quota, cutting the rate unless it was cut moments ago.
+     */
+    public synchronized void onThrottled() {
+        long now = nanoClock.getAsLong();
+        if (decreasedBefore && now - lastDecreaseNanos < COOLDOWN_NANOS) {
+            return;
+        }
+        decreasedBefore = true;
+        lastDecreaseNanos = now;
+        double previous = rate;
+        setRate(rate * decreaseFactor);
+        logger.info("Rate limited by Google, slowing down from {} to {} requests/s", String.format("%.2f", previous), String.format("%.2f", rate));
+    }
+
+    /**
+     * @return How many calls have been rate limited so far
+     */
+    public long getThrottledCalls() {
+        return throttledCalls.get();
+    }
+
+    /**
+     * @return The current rate, in permits per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void setRate(double newRate) {
+        rate = clamp(newRate);
+        limiter.setRate(rate);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minRate, Math.min(maxRate, value));
+    }
+
+    /**
+     * Checks whether a failure is Google telling us to slow down, as opposed to any other error.
+     *
+     * @param e The failure of a Google API call or download
+     * @return true for HTTP 429 and for 403 responses whose reason is a rate limit
+     */
+    public static boolean isRateLimited(IOException e) {
+        if (!(e instanceof HttpResponseException response)) {
+            return false;
+        }
+        if (response.getStatusCode() == 429) {
+            return true;
+        }
+        return response.getStatusCode() == 403 && errorReasons(response).stream().anyMatch(RATE_LIMIT_REASONS::contains);
+    }
+
+    /**
+     * Reads the reasons Google gives for an error response. API calls carry them parsed; media downloads and export
+     * links only have the raw JSON body, which is parsed here.
+     *
+     * @param e An error response from Google
+     * @return The reasons, e.g. {@code rateLimitExceeded}; empty if there are none or the body is not a Google error
+     */
+    public static List<String> errorReasons(HttpResponseException e) {
+        GoogleJsonError details = e instanceof GoogleJsonResponseException json ? json.getDetails() : parseError(e.getContent());
+        if (details == null || details.getErrors() == null) {
+            return List.of();
+        }
+        return details.getErrors().stream().map(GoogleJsonError.ErrorInfo::getReason).filter(Objects::nonNull).toList();
+    }
+
+    private static GoogleJsonError parseError(String content) {
+        if (content == null || !content.stripLeading().startsWith("{")) {
+            return null;
+        }
+        try {
+            return GsonFactory.getDefaultInstance().fromString(content, GoogleJsonErrorContainer.class).getError();
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
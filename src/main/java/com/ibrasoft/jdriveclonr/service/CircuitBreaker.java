@@ -0,0 +1,167 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops all callers of one endpoint for a while once most of its recent calls have failed, so a degraded API is
+ * not hammered by every worker at once.
+ * <p>
+ * The breaker watches the outcome of the last {@code WINDOW_SIZE} calls. When at least half of them failed it
+ * <em>opens</em>: callers wait in {@link #acquirePermission()} for {@code openNanos}. It then lets a single trial call
+ * through; if that succeeds the breaker closes again, otherwise it stays open for another period.
+ * <p>
+ * Unlike a classic breaker, an open one makes callers wait rather than fail, because a clone would rather be slow
+ * than skip files.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+    private static final double FAILURE_THRESHOLD = 0.5;
+    private static final long HALF_OPEN_POLL_MILLIS = 200;
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private final boolean[] failures = new boolean[WINDOW_SIZE];
+    private int recorded;
+    private int next;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, long openTime, TimeUnit unit) {
+        this(name, unit.toNanos(openTime), System::nanoTime);
+    }
+
+    CircuitBreaker(String name, long openNanos, LongSupplier nanoClock) {
+        this.name = name;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Waits until the breaker lets a call through: immediately when closed, after the open period when open, and
+     * once the pending trial call has finished when half-open.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquirePermission() throws InterruptedException {
+        while (true) {
+            long waitMillis = tryAcquire();
+            if (waitMillis <= 0) {
+                return;
+            }
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * @return 0 if the call may proceed, otherwise how long to wait before asking again
+     */
+    synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED -> {
+                return 0;
+            }
+            case OPEN -> {
+                long remaining = openUntil - nanoClock.getAsLong();
+                if (remaining > 0) {
+                    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return 0;
+            }
+            default -> {
+                if (trialInFlight) {
+                    return HALF_OPEN_POLL_MILLIS;
+                }
+                trialInFlight = true;
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Records a call the endpoint answered properly. Errors that are the caller's fault (e.g. 404) count as well:
+     * the endpoint itself is healthy.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            logger.info("Circuit for {} closed again", name);
+            reset();
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * Records a call that failed because of the endpoint (server errors, throttling, timeouts).
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        record(true);
+        if (recorded >= MIN_CALLS && failureCount >= FAILURE_THRESHOLD * recorded) {
+            logger.warn("{} of the last {} calls to {} failed, pausing calls to it", failureCount, recorded, name);
+            open();
+        }
+    }
+
+    /**
+     * Records a call that ended without an answer from the endpoint (interrupted, or a bug on our side), so a
+     * half-open breaker lets another trial through instead of waiting for this one forever.
+     */
+    public synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failed) {
+        if (recorded == WINDOW_SIZE) {
+            if (failures[next]) failureCount--;
+        } else {
+            recorded++;
+        }
+        failures[next] = failed;
+        if (failed) failureCount++;
+        next = (next + 1) % WINDOW_SIZE;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = nanoClock.getAsLong() + openNanos;
+        trialInFlight = false;
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        trialInFlight = false;
+        recorded = 0;
+        next = 0;
+        failureCount = 0;
+        Arrays.fill(failures, false);
+    }
+}
@@ -0,0 +1,236 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many downloads run at once and, when started, keeps adjusting that limit to get the most work done.
+ * <p>
+ * Every {@code TICK_SECONDS} the tuner scores the last interval by its goodput: bytes transferred per second, with
+ * each file that finished successfully also counted as {@code FILE_OVERHEAD_BYTES} so a run of small files is not
+ * mistaken for a slow one. Bytes are read from a running total as they are written, so large files still in flight
+ * count, and so do Sheets and Slides exports, which are folders of files. Failed downloads earn nothing but are
+ * recorded too, so an interval in which everything failed scores as the slump it is.
+ * <p>
+ * It then hill-climbs: if the score improved it moves the limit further in the same direction, otherwise it turns
+ * around. Each step is an eighth of the current limit, but at least {@code 1/32} of the cap, so a large cap (the
+ * in-flight bound for virtual threads) is explored in a handful of intervals. Any rate-limit response during the
+ * interval overrides this and cuts the limit by a quarter.
+ * <p>
+ * The limit stays between 1 and the cap (the thread slider, or the in-flight bound for virtual threads). Waiting is
+ * done on a {@link ReentrantLock} rather than a monitor, so virtual threads do not pin their carrier while they wait.
+ */
+public class ConcurrencyTuner {
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyTuner.class);
+
+    private static final long TICK_SECONDS = 5;
+    private static final long FILE_OVERHEAD_BYTES = 256 * 1024;
+    private static final double TOLERANCE = 0.05;
+    private static final double THROTTLED_DECREASE = 0.75;
+
+    private final int maxLimit;
+    private final LongSupplier throttledCalls;
+    private final LongSupplier transferredBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private int limit;
+    private int inFlight;
+
+    // Measurements for the current interval, guarded by lock
+    private long files;
+    private long finished;
+    private long latencyNanos;
+
+    // Hill-climbing state, only touched by adjust()
+    private long lastThrottled;
+    private long lastTransferred;
+    private double lastScore = -1;
+    private int direction = 1;
+    private volatile long meanLatencyMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param initialLimit     The limit to start from
+     * @param maxLimit         The limit never grows above this
+     * @param throttledCalls   The running total of rate-limited calls, e.g. {@link QuotaLimiters#getThrottledCalls()}
+     * @param transferredBytes The running total of bytes downloaded, e.g. {@link DiskWriter#getWritten()}
+     */
+    public ConcurrencyTuner(int initialLimit, int maxLimit, LongSupplier throttledCalls, LongSupplier transferredBytes) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("maxLimit must be at least 1");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(1, Math.min(maxLimit, initialLimit));
+        this.throttledCalls = throttledCalls;
+        this.transferredBytes = transferredBytes;
+        this.lastThrottled = throttledCalls.getAsLong();
+        this.lastTransferred = transferredBytes.getAsLong();
+    }
+
+    /**
+     * @return Where auto-tuning starts for a cap: half of it, so it can climb or back off from there
+     */
+    public static int startingLimit(int maxLimit) {
+        return Math.max(2, maxLimit / 2);
+    }
+
+    /**
+     * Starts adjusting the limit in the background. Without this the limit stays where it started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConcurrencyTuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastTick = {System.nanoTime()};
+        scheduler.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            adjust((now - lastTick[0]) / 1e9);
+            lastTick[0] = now;
+        }, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Waits until fewer than the current limit of downloads are running, then takes a slot.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                slotFreed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a finished download, whether it succeeded or not.
+     *
+     * @param elapsedNanos How long it took
+     * @param succeeded    Whether it succeeded; only successful downloads count towards the score
+     */
+    public void record(long elapsedNanos, boolean succeeded) {
+        lock.lock();
+        try {
+            if (succeeded) {
+                files++;
+            }
+            finished++;
+            latencyNanos += elapsedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Scores the interval that just ended and moves the limit one step.
+     *
+     * @param seconds How long the interval was
+     */
+    void adjust(double seconds) {
+        long intervalFiles;
+        long intervalFinished;
+        long intervalLatency;
+        int current;
+        lock.lock();
+        try {
+            intervalFiles = files;
+            intervalFinished = finished;
+            intervalLatency = latencyNanos;
+            files = finished = latencyNanos = 0;
+            current = limit;
+        } finally {
+            lock.unlock();
+        }
+        long throttled = throttledCalls.getAsLong();
+        long intervalThrottled = throttled - lastThrottled;
+        lastThrottled = throttled;
+        long transferred = transferredBytes.getAsLong();
+        long intervalBytes = transferred - lastTransferred;
+        lastTransferred = transferred;
+
+        int next;
+        if (intervalThrottled > 0) {
+            // Over quota: back off and start climbing afresh from the new limit
+            next = (int) (current * THROTTLED_DECREASE);
+            direction = 1;
+            lastScore = -1;
+        } else if ((intervalFinished == 0 && intervalBytes == 0) || seconds <= 0) {
+            // Nothing happened, so nothing to learn from (idle, or every download waiting on something)
+            return;
+        } else {
+            double score = (intervalBytes + intervalFiles * FILE_OVERHEAD_BYTES) / seconds;
+            if (lastScore >= 0 && score < lastScore * (1 + TOLERANCE)) {
+                direction = -direction;
+            }
+            lastScore = score;
+            if (intervalFinished > 0) {
+                meanLatencyMillis = TimeUnit.NANOSECONDS.toMillis(intervalLatency / intervalFinished);
+            }
+            next = current + direction * Math.max(1, Math.max(current / 8, maxLimit / 32));
+        }
+        next = Math.max(1, Math.min(maxLimit, next));
+        if (next != current) {
+            logger.debug("Concurrency {} -> {} ({} files, {} bytes, {} throttled, {} ms mean latency)",
+                    current, next, intervalFiles, intervalBytes, intervalThrottled, meanLatencyMillis);
+            setLimit(next);
+        }
+    }
+
+    private void setLimit(int newLimit) {
+        lock.lock();
+        try {
+            limit = newLimit;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+}
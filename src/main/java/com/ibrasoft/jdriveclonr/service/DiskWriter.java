@@ -0,0 +1,444 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.utils.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The disk side of a download: data written to a {@link WriterStream} is buffered in chunks and written out by
+ * writer threads, so a download thread can go back to the network while a slow disk catches up. Chunks are pooled
+ * direct buffers, so neither the copy into them nor the channel write allocates.
+ * <p>
+ * Each target filesystem (as told apart by its {@link FileStore}) gets its own writer threads: {@code LOCAL_WRITERS}
+ * for local disks, where more concurrent writers mostly add seeking, and {@code NETWORK_WRITERS} for network shares,
+ * which are latency bound. At most {@code maxBuffered} bytes wait to be written across all files; beyond that,
+ * download threads block in {@code write} until the disks catch up, which keeps memory bounded.
+ * <p>
+ * Closing a stream hands the rest of the file to its writer thread and returns straight away, so a download thread
+ * can move on (e.g. to the next tab of a spreadsheet) while the disk finishes. Whoever runs the download calls
+ * {@link #awaitClosed()} once it is done, which waits for every file the thread closed and reports any write that
+ * failed. The filesystem of each directory is looked up once, not for every file written to it.
+ */
+public class DiskWriter {
+    private static final Logger logger = LoggerFactory.getLogger(DiskWriter.class);
+
+    private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_BUFFERED = 64L * 1024 * 1024;
+    private static final int LOCAL_WRITERS = 2;
+    private static final int NETWORK_WRITERS = 4;
+    private static final Set<String> NETWORK_FILESYSTEMS = Set.of(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afpfs", "webdav", "davfs", "fuse.sshfs", "sshfs", "9p");
+
+    private static final DiskWriter SHARED = new DiskWriter(DEFAULT_MAX_BUFFERED, DEFAULT_CHUNK_SIZE);
+
+    private final long maxBuffered;
+    private final BufferPool chunks;
+    private final Map<Object, ExecutorService> writers = new ConcurrentHashMap<>();
+    private final Map<Path, ExecutorService> writersByDirectory = new ConcurrentHashMap<>();
+    /**
+     * Streams closed by each thread whose last writes may still be queued; see {@link #awaitClosed()}.
+     */
+    private static final ThreadLocal<List<WriterStream>> CLOSED_BY_THREAD = ThreadLocal.withInitial(ArrayList::new);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long buffered;
+    private final AtomicLong written = new AtomicLong();
+
+    DiskWriter(long maxBuffered, int chunkSize) {
+        this.maxBuffered = maxBuffered;
+        // Enough direct chunks to fill the whole budget are kept for reuse; beyond it writers block anyway
+        this.chunks = new BufferPool(chunkSize, (int) Math.max(1, maxBuffered / chunkSize), true);
+    }
+
+    /**
+     * @return The writer shared by all downloads, so the buffer budget and per-filesystem limits are global
+     */
+    public static DiskWriter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates (or truncates) a file and returns a stream whose writes reach it through the writer threads.
+     *
+     * @param target The file to write
+     * @return The stream; closing it hands off the remaining writes, see {@link #awaitClosed()}
+     * @throws IOException If the file cannot be opened
+     */
+    public WriterStream open(Path target) throws IOException {
+        return open(target, 0);
+    }
+
+    /**
+     * Opens a file to continue writing at {@code offset}, discarding anything after it, e.g. to resume a download.
+     *
+     * @param target The file to write, created if missing
+     * @param offset How many of its bytes to keep
+     * @return The stream; closing it hands off the remaining writes, see {@link #awaitClosed()}
+     * @throws IOException If the file cannot be opened
+     */
+    public WriterStream open(Path target, long offset) throws IOException {
+        supersede(target);
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(offset);
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new WriterStream(target, channel, writerFor(target));
+    }
+
+    /**
+     * Waits until every stream the current thread closed since the last call is written and closed.
+     *
+     * @throws IOException The first write that failed, with any others suppressed
+     */
+    public static void awaitClosed() throws IOException {
+        List<WriterStream> closed = CLOSED_BY_THREAD.get();
+        CLOSED_BY_THREAD.remove();
+        IOException failure = null;
+        for (WriterStream stream : closed) {
+            try {
+                stream.await();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for an earlier stream to the same file that this thread closed, e.g. in a failed attempt that is now
+     * retried, so none of its queued writes land in the new one. Its failure no longer matters.
+     */
+    private static void supersede(Path target) {
+        List<WriterStream> closed = CLOSED_BY_THREAD.get();
+        for (Iterator<WriterStream> it = closed.iterator(); it.hasNext(); ) {
+            WriterStream previous = it.next();
+            if (previous.target.equals(target)) {
+                it.remove();
+                try {
+                    previous.await();
+                } catch (IOException e) {
+                    logger.debug("Earlier write to {} failed before it was retried: {}", target, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The bytes written to disk so far, across all files
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return The bytes currently waiting to be written
+     */
+    public long getBuffered() {
+        lock.lock();
+        try {
+            return buffered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ExecutorService writerFor(Path target) {
+        return writersByDirectory.computeIfAbsent(target.toAbsolutePath().getParent(), this::writerForDirectory);
+    }
+
+    private ExecutorService writerForDirectory(Path directory) {
+        FileStore store;
+        try {
+            store = Files.getFileStore(directory);
+        } catch (IOException e) {
+            // Unknown filesystem, treat it like a local disk
+            return writers.computeIfAbsent("unknown", key -> newWriterPool("unknown", LOCAL_WRITERS));
+        }
+        return writers.computeIfAbsent(store, key -> {
+            boolean network = NETWORK_FILESYSTEMS.contains(store.type().toLowerCase(Locale.ROOT));
+            int threads = network ? NETWORK_WRITERS : LOCAL_WRITERS;
+            logger.info("Writing to {} ({}) with {} writer threads", store.name(), store.type(), threads);
+            return newWriterPool(store.name(), threads);
+        });
+    }
+
+    private static ExecutorService newWriterPool(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "DiskWriter-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Blocks until {@code bytes} more fit in the buffer budget. A chunk larger than the whole budget is let through
+     * once nothing else is buffered.
+     */
+    private void reserve(long bytes) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (buffered > 0 && buffered + bytes > maxBuffered) {
+                released.await();
+            }
+            buffered += bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the disk to catch up");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            buffered -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A file being written by the writer threads. Chunks of one file are written strictly in order; chunks of
+     * different files on the same filesystem share its writer threads.
+     * <p>
+     * Not thread-safe, like {@link java.io.FileOutputStream}: one download writes to it at a time.
+     */
+    public class WriterStream extends OutputStream {
+        private final Path target;
+        private final FileChannel channel;
+        private final ExecutorService writer;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private volatile IOException failure;
+        private ByteBuffer buffer;
+        private FileTime lastModified;
+        private boolean closed;
+
+        private WriterStream(Path target, FileChannel channel, ExecutorService writer) {
+            this.target = target;
+            this.channel = channel;
+            this.writer = writer;
+        }
+
+        /**
+         * Sets the file's modified time once its last write has landed. Setting it directly after closing would not
+         * work, since the writes still queued would update it again.
+         */
+        public void setLastModifiedTime(FileTime time) {
+            lastModified = time;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (buffer == null) {
+                buffer = chunks.acquire();
+            }
+            buffer.put((byte) b);
+            if (!buffer.hasRemaining()) {
+                submit();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = chunks.acquire();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                if (!buffer.hasRemaining()) {
+                    submit();
+                }
+            }
+        }
+
+        /**
+         * Hands whatever is buffered to the writer threads without waiting for it to be written.
+         */
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            if (buffer != null && buffer.position() > 0) {
+                submit();
+            }
+        }
+
+        /**
+         * Waits for everything written so far, then empties the file, so a retried download can start over.
+         */
+        public void truncate() throws IOException {
+            flush();
+            await();
+            channel.truncate(0);
+            channel.position(0);
+        }
+
+        /**
+         * Waits for everything written so far to reach the file.
+         *
+         * @param force Whether to also force it to the storage device, so it survives a crash or power loss
+         * @return The length of the file
+         */
+        public long checkpoint(boolean force) throws IOException {
+            flush();
+            await();
+            if (force) {
+                channel.force(false);
+            }
+            return channel.position();
+        }
+
+        /**
+         * Hands the rest of the file to its writer thread and returns without waiting for it; the thread's next
+         * {@link #awaitClosed()} does. Failures seen so far are thrown straight away.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                finish();
+                CLOSED_BY_THREAD.get().add(this);
+            }
+        }
+
+        /**
+         * Closes the stream and waits for the file to be written and closed, for callers that go on to use the file
+         * (e.g. to check or rename it).
+         */
+        public void closeAndAwait() throws IOException {
+            if (!closed) {
+                finish();
+            }
+            await();
+        }
+
+        private void finish() throws IOException {
+            closed = true;
+            try {
+                if (buffer != null && buffer.position() > 0 && failure == null) {
+                    submit();
+                }
+            } finally {
+                if (buffer != null) {
+                    chunks.release(buffer);
+                    buffer = null;
+                }
+                FileTime modified = lastModified;
+                tail = tail.handleAsync((ignored, error) -> {
+                    try {
+                        if (failure == null && modified != null) {
+                            Files.setLastModifiedTime(target, modified);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } finally {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    }
+                    return null;
+                }, writer);
+            }
+        }
+
+        private void submit() throws IOException {
+            ByteBuffer chunk = buffer.flip();
+            int size = chunk.remaining();
+            buffer = null;
+            try {
+                reserve(size);
+            } catch (InterruptedIOException e) {
+                chunks.release(chunk);
+                throw e;
+            }
+            tail = tail.handleAsync((ignored, error) -> {
+                try {
+                    if (failure == null) {
+                        while (chunk.hasRemaining()) {
+                            channel.write(chunk);
+                        }
+                        written.addAndGet(size);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    release(size);
+                    chunks.release(chunk);
+                }
+                return null;
+            }, writer);
+            throwIfFailed();
+        }
+
+        private void await() throws IOException {
+            try {
+                tail.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the disk to catch up");
+            } catch (ExecutionException e) {
+                throw new IOException("Disk write failed", e.getCause());
+            }
+            throwIfFailed();
+        }
+
+        private void throwIfFailed() throws IOException {
+            if (failure != null) {
+                throw new IOException("Disk write failed: " + failure.getMessage(), failure);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+}
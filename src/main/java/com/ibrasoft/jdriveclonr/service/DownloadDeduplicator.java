@@ -0,0 +1,333 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Downloads each distinct piece of content once. The same file can turn up at several paths during one clone: an item
+ * with more than one parent is listed under each of them, and binary files are often copied between folders or
+ * shared by several people. The first occurrence is downloaded as usual; every later one waits for it and is then
+ * hard-linked to it (or copied, where the filesystem cannot link).
+ * <p>
+ * Occurrences are matched by Drive ID, and binary files also by checksum and size. Google Docs, Sheets and Slides
+ * have no checksum, so only their extra parents are deduplicated. If a download fails, the copies that were waiting
+ * for it under other IDs are handed back to be downloaded on their own.
+ */
+public class DownloadDeduplicator {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadDeduplicator.class);
+
+    /**
+     * Downloads a file the usual way, for copies whose shared download failed.
+     */
+    @FunctionalInterface
+    public interface Fallback {
+        void download(DriveItem file, Path directory, String parentId, boolean trashed);
+    }
+
+    private final SyncManifest manifest;
+    private final Fallback fallback;
+    private final Map<String, Group> byId = new ConcurrentHashMap<>();
+    private final Map<String, Group> byChecksum = new ConcurrentHashMap<>();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger notPlaced = new AtomicInteger();
+
+    public DownloadDeduplicator(SyncManifest manifest, Fallback fallback) {
+        this.manifest = manifest;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Claims a file's ID for this occurrence, or, if another path already claimed it (an item with several parents),
+     * queues this path to be linked to that one. The manifest keeps one path per ID, so extra parents are not recorded.
+     *
+     * @param file   The file on Drive
+     * @param target Where this occurrence belongs
+     * @return true if the file was seen before and this occurrence is taken care of
+     */
+    public boolean followById(DriveItem file, Path target) {
+        Group existing = byId.putIfAbsent(file.getId(), new Group(file.getSize()));
+        if (existing == null) {
+            return false;
+        }
+        existing.follow(new Follower(file, target, null, false, false));
+        return true;
+    }
+
+    /**
+     * Offers a claimed binary file's content for later copies to link to, whether it ends up downloaded or reused
+     * (e.g. left in place by a mirror run). Content that another file already offers is left with that file.
+     *
+     * @param file The file on Drive, whose ID was claimed with {@link #followById}
+     */
+    public void registerChecksum(DriveItem file) {
+        Group own = byId.get(file.getId());
+        if (file.getMd5Checksum() != null && own != null) {
+            byChecksum.putIfAbsent(file.getMd5Checksum(), own);
+        }
+    }
+
+    /**
+     * Checks whether a binary file with the same content is already being downloaded under another ID, and if so,
+     * queues this file to be linked to it instead and records it in the manifest like a download.
+     *
+     * @param file     The file on Drive, whose ID was claimed with {@link #followById}
+     * @param target   Where the file belongs
+     * @param parentId The Drive ID of the folder it belongs to, or null under a virtual root
+     * @param trashed  Whether the file is in the trash
+     * @return true if the content is already covered and the download can be skipped
+     */
+    public boolean followByChecksum(DriveItem file, Path target, String parentId, boolean trashed) {
+        String md5 = file.getMd5Checksum();
+        Group own = byId.get(file.getId());
+        if (md5 == null || own == null) {
+            return false;
+        }
+        Group existing = byChecksum.putIfAbsent(md5, own);
+        if (existing == null || existing == own || existing.size != file.getSize() || existing.isFailed()) {
+            return false;
+        }
+        // Later parents of this file link to the same content, including any that were already queued
+        byId.put(file.getId(), existing);
+        own.forwardTo(existing);
+        manifest.put(new SyncManifest.Entry(file.getId(), parentId, manifest.relativize(target), false, trashed,
+                Math.max(0, file.getModifiedTimeMillis()), false, md5, file.getSize(), file.getVersion()));
+        existing.follow(new Follower(file, target, parentId, trashed, true));
+        return true;
+    }
+
+    /**
+     * Reports that a claimed file's content is in place, whether downloaded or reused, and links every occurrence
+     * waiting for it.
+     */
+    public void resolved(DriveItem file, Path output) {
+        Group group = byId.get(file.getId());
+        if (group != null) {
+            group.resolve(output);
+        }
+    }
+
+    /**
+     * Reports that a claimed file could not be downloaded. Copies waiting for it under other IDs are handed to the
+     * {@link Fallback}, and later copies of the same content are downloaded on their own. Extra parents of the failed
+     * file itself are given up on (and retried by the next incremental or mirror run).
+     */
+    public void failed(DriveItem file) {
+        Group group = byId.get(file.getId());
+        if (group != null) {
+            group.fail();
+        }
+    }
+
+    /**
+     * @return How many occurrences were placed without a download
+     */
+    public int getDeduplicated() {
+        return linked.get() + copied.get();
+    }
+
+    /**
+     * @return How many occurrences could not be placed, because their download failed or linking failed
+     */
+    public int getNotPlaced() {
+        return notPlaced.get();
+    }
+
+    /**
+     * @return e.g. {@code "15 duplicates linked, 2 copied"}
+     */
+    public String describe() {
+        String summary = linked.get() + " duplicates linked, " + copied.get() + " copied";
+        return notPlaced.get() > 0 ? summary + ", " + notPlaced.get() + " not placed" : summary;
+    }
+
+    private void place(Path source, Follower follower) {
+        Path target = follower.target();
+        try {
+            if (!source.equals(target)) {
+                Files.createDirectories(target.getParent());
+                if (Files.isDirectory(source)) {
+                    // e.g. a spreadsheet exported as one file per sheet
+                    placeTree(source, target);
+                } else {
+                    replaceWithLink(source, target);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not place '{}' at {}: {}", follower.file().getName(), target, e.getMessage());
+            notPlaced.incrementAndGet();
+            return;
+        }
+        if (follower.recorded()) {
+            manifest.markComplete(follower.file().getId());
+        }
+    }
+
+    private void placeTree(Path source, Path target) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(source)) {
+            paths = walk.toList();
+        }
+        for (Path path : paths) {
+            Path destination = target.resolve(source.relativize(path).toString());
+            if (Files.isDirectory(path)) {
+                Files.createDirectories(destination);
+            } else {
+                replaceWithLink(path, destination);
+            }
+        }
+    }
+
+    /**
+     * Links {@code target} to {@code source}. Whatever was at the target before is an older copy of the same item
+     * (e.g. from the last mirror run), so it is replaced.
+     */
+    private void replaceWithLink(Path source, Path target) throws IOException {
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) {
+                linked.incrementAndGet();
+                return;
+            }
+            Files.delete(target);
+        }
+        if (FileUtils.linkOrCopy(source, target)) {
+            linked.incrementAndGet();
+        } else {
+            copied.incrementAndGet();
+        }
+    }
+
+    private void abandon(Follower follower) {
+        logger.warn("Could not place '{}' at {}: its download failed", follower.file().getName(), follower.target());
+        notPlaced.incrementAndGet();
+    }
+
+    /**
+     * One occurrence waiting for content downloaded elsewhere.
+     *
+     * @param recorded Whether the occurrence is a copy under its own ID, with its own manifest entry to be marked
+     *                 complete once placed
+     */
+    private record Follower(DriveItem file, Path target, String parentId, boolean trashed, boolean recorded) {
+    }
+
+    /**
+     * The occurrences sharing one download. Followers queue until the download is resolved, after which new ones are
+     * placed straight away. A group whose file turned out to duplicate another's content forwards to that group.
+     */
+    private final class Group {
+        private final long size;
+        private Path source;
+        private boolean failed;
+        private List<Follower> waiting;
+        private Group forward;
+
+        Group(long size) {
+            this.size = size;
+        }
+
+        synchronized boolean isFailed() {
+            return failed;
+        }
+
+        void follow(Follower follower) {
+            Path ready;
+            Group target;
+            synchronized (this) {
+                target = forward;
+                if (target == null && source == null && !failed) {
+                    if (waiting == null) {
+                        waiting = new ArrayList<>(1);
+                    }
+                    waiting.add(follower);
+                    return;
+                }
+                ready = source;
+            }
+            if (target != null) {
+                target.follow(follower);
+            } else if (ready != null) {
+                place(ready, follower);
+            } else {
+                // A copy's ID is given a group of its own when this one fails; followers that raced with that go there
+                Group own = byId.get(follower.file().getId());
+                if (own != null && own != this) {
+                    own.follow(follower);
+                } else {
+                    abandon(follower);
+                }
+            }
+        }
+
+        void forwardTo(Group target) {
+            List<Follower> moved;
+            synchronized (this) {
+                forward = target;
+                moved = waiting;
+                waiting = null;
+            }
+            if (moved != null) {
+                moved.forEach(target::follow);
+            }
+        }
+
+        void resolve(Path output) {
+            List<Follower> ready;
+            synchronized (this) {
+                source = output;
+                ready = waiting;
+                waiting = null;
+            }
+            if (ready != null) {
+                for (Follower follower : ready) {
+                    place(output, follower);
+                }
+            }
+        }
+
+        void fail() {
+            List<Follower> abandoned;
+            synchronized (this) {
+                failed = true;
+                abandoned = waiting;
+                waiting = null;
+                // Copies get groups of their own first, so nothing that follows their IDs from now on lands here
+                if (abandoned != null) {
+                    for (Follower follower : abandoned) {
+                        if (follower.recorded()) {
+                            byId.put(follower.file().getId(), new Group(follower.file().getSize()));
+                        }
+                    }
+                }
+            }
+            if (abandoned == null) {
+                return;
+            }
+            // Extra parents queued under a copy's ID wait for that copy's own download
+            for (Follower follower : abandoned) {
+                if (!follower.recorded()) {
+                    follow(follower);
+                }
+            }
+            for (Follower follower : abandoned) {
+                if (follower.recorded()) {
+                    logger.info("Downloading '{}' itself, the copy it duplicates failed", follower.file().getName());
+                    fallback.download(follower.file(), follower.target().getParent(), follower.parentId(), follower.trashed());
+                }
+            }
+        }
+    }
+}
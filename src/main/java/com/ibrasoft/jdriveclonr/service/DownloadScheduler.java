@@ -0,0 +1,284 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.SchedulingPolicy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Holds downloads that have been discovered but not started, and decides which one starts next according to a
+ * {@link SchedulingPolicy}:
+ * <ul>
+ *     <li>{@code DISCOVERY_ORDER}: first in, first out.</li>
+ *     <li>{@code SMALL_FILES_FIRST}: smallest size first, so the file count climbs quickly.</li>
+ *     <li>{@code LARGEST_FIRST_INTERLEAVED}: alternates between the largest and the smallest waiting file, so big
+ *     files start early without holding up everything else.</li>
+ *     <li>{@code FAIR_SHARE}: takes turns between groups (the folders at the top of the selection), first in, first
+ *     out within each, so one huge folder cannot starve the others.</li>
+ * </ul>
+ * Whatever the policy, downloads the user bumped go first, most recently bumped first. Sizes are the ones known at
+ * discovery; Google Docs, Sheets and Slides report none and count as small.
+ *
+ * @param <T> The download type; items are told apart by identity
+ */
+public class DownloadScheduler<T> {
+
+    /**
+     * A waiting download. Compared by identity, since the items' own equals may be deep or costly.
+     */
+    private static final class Entry<T> {
+        private final T item;
+        private final long size;
+        private final String group;
+        private final long sequence;
+
+        Entry(T item, long size, String group, long sequence) {
+            this.item = item;
+            this.size = size;
+            this.group = group;
+            this.sequence = sequence;
+        }
+
+        T item() {
+            return item;
+        }
+
+        long size() {
+            return size;
+        }
+
+        String group() {
+            return group;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+    }
+
+    private final SchedulingPolicy policy;
+    private final Deque<Entry<T>> bumped = new ArrayDeque<>();
+    private final PendingQueue<T> queue;
+    private final Map<T, Entry<T>> entries = new IdentityHashMap<>();
+    private long nextSequence;
+
+    public DownloadScheduler(SchedulingPolicy policy) {
+        this.policy = policy;
+        this.queue = switch (policy) {
+            case DISCOVERY_ORDER -> new OrderedQueue<>(Comparator.<Entry<T>>comparingLong(Entry::sequence));
+            case SMALL_FILES_FIRST -> new OrderedQueue<>(bySize());
+            case LARGEST_FIRST_INTERLEAVED -> new InterleavedQueue<>();
+            case FAIR_SHARE -> new FairShareQueue<>();
+        };
+    }
+
+    public SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param item  The download
+     * @param size  Its size in bytes, or 0 if unknown
+     * @param group What it is shared fairly with, e.g. the top-level folder it was found in
+     */
+    public synchronized void add(T item, long size, String group) {
+        Entry<T> entry = new Entry<>(item, Math.max(0, size), group == null ? "" : group, nextSequence++);
+        entries.put(item, entry);
+        queue.add(entry);
+    }
+
+    /**
+     * @return The download to start next, or null if none are waiting
+     */
+    public synchronized T poll() {
+        Entry<T> entry = bumped.isEmpty() ? queue.poll() : bumped.poll();
+        if (entry == null) {
+            return null;
+        }
+        entries.remove(entry.item());
+        return entry.item();
+    }
+
+    /**
+     * Moves a waiting download to the front.
+     *
+     * @return false if it is not waiting (already started, or never added)
+     */
+    public synchronized boolean bump(T item) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            return false;
+        }
+        if (!bumped.remove(entry)) {
+            queue.remove(entry);
+        }
+        bumped.addFirst(entry);
+        return true;
+    }
+
+    public synchronized boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        if (!bumped.remove(entry)) {
+            queue.remove(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Looks ahead without copying the queue, so the cost depends on {@code max} (and, for {@code FAIR_SHARE}, the
+     * number of groups) rather than on how many downloads are waiting.
+     *
+     * @param max How many to return at most
+     * @return The downloads that would start next, in order
+     */
+    public synchronized List<T> peek(int max) {
+        List<T> next = new ArrayList<>(Math.min(max, entries.size()));
+        Iterator<Entry<T>> bumpedFirst = bumped.iterator();
+        while (next.size() < max && bumpedFirst.hasNext()) {
+            next.add(bumpedFirst.next().item());
+        }
+        if (next.size() < max) {
+            queue.peek(max, next);
+        }
+        return next;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static <T> Comparator<Entry<T>> bySize() {
+        return Comparator.<Entry<T>>comparingLong(Entry::size).thenComparingLong(Entry::sequence);
+    }
+
+    private interface PendingQueue<T> {
+        void add(Entry<T> entry);
+
+        Entry<T> poll();
+
+        void remove(Entry<T> entry);
+
+        /**
+         * Adds the items that {@link #poll()} would return next to {@code next}, until it holds {@code max}.
+         */
+        void peek(int max, List<T> next);
+    }
+
+    private static class OrderedQueue<T> implements PendingQueue<T> {
+        // Every order ends with the sequence, so no two entries compare equal
+        private final TreeSet<Entry<T>> entries;
+
+        OrderedQueue(Comparator<Entry<T>> order) {
+            this.entries = new TreeSet<>(order);
+        }
+
+        public void add(Entry<T> entry) {
+            entries.add(entry);
+        }
+
+        public Entry<T> poll() {
+            return entries.pollFirst();
+        }
+
+        public void remove(Entry<T> entry) {
+            entries.remove(entry);
+        }
+
+        public void peek(int max, List<T> next) {
+            Iterator<Entry<T>> inOrder = entries.iterator();
+            while (next.size() < max && inOrder.hasNext()) {
+                next.add(inOrder.next().item());
+            }
+        }
+    }
+
+    private static class InterleavedQueue<T> implements PendingQueue<T> {
+        private final TreeSet<Entry<T>> entries;
+        private boolean largestNext = true;
+
+        InterleavedQueue() {
+            this.entries = new TreeSet<>(bySize());
+        }
+
+        public void add(Entry<T> entry) {
+            entries.add(entry);
+        }
+
+        public Entry<T> poll() {
+            Entry<T> entry = largestNext ? entries.pollLast() : entries.pollFirst();
+            largestNext = !largestNext;
+            return entry;
+        }
+
+        public void remove(Entry<T> entry) {
+            entries.remove(entry);
+        }
+
+        public void peek(int max, List<T> next) {
+            Iterator<Entry<T>> largest = entries.descendingIterator();
+            Iterator<Entry<T>> smallest = entries.iterator();
+            boolean fromLargest = largestNext;
+            // The two ends meet once every entry has been taken from one or the other
+            for (int taken = 0; taken < entries.size() && next.size() < max; taken++) {
+                next.add((fromLargest ? largest : smallest).next().item());
+                fromLargest = !fromLargest;
+            }
+        }
+    }
+
+    private static class FairShareQueue<T> implements PendingQueue<T> {
+        // Groups in turn order; a group that had its turn moves to the back
+        private final LinkedHashMap<String, ArrayDeque<Entry<T>>> groups = new LinkedHashMap<>();
+
+        public void add(Entry<T> entry) {
+            groups.computeIfAbsent(entry.group(), group -> new ArrayDeque<>()).add(entry);
+        }
+
+        public Entry<T> poll() {
+            Iterator<Map.Entry<String, ArrayDeque<Entry<T>>>> turns = groups.entrySet().iterator();
+            if (!turns.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, ArrayDeque<Entry<T>>> turn = turns.next();
+            turns.remove();
+            Entry<T> entry = turn.getValue().poll();
+            if (!turn.getValue().isEmpty()) {
+                groups.put(turn.getKey(), turn.getValue());
+            }
+            return entry;
+        }
+
+        public void remove(Entry<T> entry) {
+            ArrayDeque<Entry<T>> entries = groups.get(entry.group());
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                groups.remove(entry.group());
+            }
+        }
+
+        public void peek(int max, List<T> next) {
+            List<Iterator<Entry<T>>> turns = new ArrayList<>(groups.size());
+            groups.values().forEach(entries -> turns.add(entries.iterator()));
+            while (next.size() < max && !turns.isEmpty()) {
+                Iterator<Iterator<Entry<T>>> round = turns.iterator();
+                while (next.size() < max && round.hasNext()) {
+                    Iterator<Entry<T>> group = round.next();
+                    next.add(group.next().item());
+                    if (!group.hasNext()) {
+                        round.remove();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.ibrasoft.jdriveclonr.service;
 
+import com.google.api.client.util.DateTime;
 import com.ibrasoft.jdriveclonr.App;
 import com.ibrasoft.jdriveclonr.export.ExporterRegistry;
+import com.ibrasoft.jdriveclonr.model.ConfigModel;
 import com.ibrasoft.jdriveclonr.model.DriveDownloadTask;
 import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.ExecutionMode;
+import com.ibrasoft.jdriveclonr.model.SchedulingPolicy;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.model.SyncMode;
+import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
 import com.ibrasoft.jdriveclonr.utils.FileUtils;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -12,32 +19,74 @@ import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Multithreaded download service that discovers and downloads files concurrently,
  * with dynamic progress tracking and support for cancel/shutdown.
+ * <p>
+ * Discovery and downloading form a pipeline with a bounded number of downloads in flight: once that many are
+ * running or queued, discovery waits for one to finish. Together with counters in place of per-file futures, this
+ * keeps memory flat however many files are selected.
+ * <p>
+ * Downloads run either on a fixed pool of {@code threadCount} platform threads or, in
+ * {@link ExecutionMode#VIRTUAL_THREADS}, on a virtual thread each. Transfers spend nearly all their time blocked on
+ * HTTP, so in that mode hundreds can be in flight cheaply, and the per-class limits in {@link QuotaLimiters} decide
+ * how many actually talk to Google at once.
+ * <p>
+ * Within that, a {@link ConcurrencyTuner} decides how many downloads run at once. With auto-tuning on it adjusts this
+ * to the measured throughput and rate limits, treating the thread count as a cap.
+ * <p>
+ * Which waiting download starts next is up to the {@link DownloadScheduler}: a worker only picks its download once
+ * it has a slot, so the scheduling policy and any "bump priority" requests see everything that is waiting.
  */
 @Data
 @EqualsAndHashCode(callSuper = false)
 public class DownloadService extends Service<Void> {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
+    private static final int QUEUED_DOWNLOADS_PER_THREAD = 32;
+    private static final int VIRTUAL_DOWNLOADS_IN_FLIGHT = 512;
+    /**
+     * How many downloads may wait when the scheduling policy reorders them; a larger window gives it more to choose from.
+     */
+    private static final int SCHEDULING_WINDOW = 4096;
+    private static final int RECENT_TASKS_SHOWN = 200;
 
     private final ExecutorService executorService;
+    private final Semaphore downloadSlots;
+    private final ConcurrencyTuner concurrencyTuner;
+    private final DownloadScheduler<DriveDownloadTask> scheduler;
+    private final ForkJoinPool discoveryPool;
     private final ObservableList<Task<?>> downloadTasks = FXCollections.observableArrayList();
     private final ObservableList<Task<?>> completedTasks = FXCollections.observableArrayList();
     private final ObservableList<Task<?>> failedTasks = FXCollections.observableArrayList();
+    private final AtomicInteger discoveredCount = new AtomicInteger(0);
+    private final AtomicInteger completedCount = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
     private DriveItem rootItem;
     private ExporterRegistry exporterRegistry;
+    private QuotaLimiters quotaLimiters;
 
     public DownloadService(DriveItem rootItem) {
         this.rootItem = rootItem;
@@ -47,15 +96,42 @@ public class DownloadService extends Service<Void> {
             return thread;
         };
 
-        this.executorService = Executors.newFixedThreadPool(App.getConfigModel().getThreadCount() > 0 ? App.getConfigModel().getThreadCount() : 4, daemonThreadFactory);
+        int threadCount = App.getConfigModel().getThreadCount() > 0 ? App.getConfigModel().getThreadCount() : 4;
+        boolean virtualThreads = App.getConfigModel().getExecutionMode() == ExecutionMode.VIRTUAL_THREADS;
+        SchedulingPolicy policy = App.getConfigModel().getSchedulingPolicy();
+        int inFlight = virtualThreads ? VIRTUAL_DOWNLOADS_IN_FLIGHT : threadCount * (QUEUED_DOWNLOADS_PER_THREAD + 1);
+        if (policy != SchedulingPolicy.DISCOVERY_ORDER) {
+            inFlight = Math.max(inFlight, SCHEDULING_WINDOW);
+        }
+        this.executorService = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Download-", 0).factory())
+                : Executors.newFixedThreadPool(threadCount, daemonThreadFactory);
+        this.downloadSlots = new Semaphore(inFlight);
+        this.scheduler = new DownloadScheduler<>(policy);
+        this.discoveryPool = new ForkJoinPool(App.getConfigModel().getDiscoveryThreadCount() > 0 ? App.getConfigModel().getDiscoveryThreadCount() : 4, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
 
         // Initialize services and exporter registry
         try {
-            GoogleServiceFactory.GoogleServices services = GoogleServiceFactory.createServices();
-            this.exporterRegistry = ExporterRegistry.create(services);
+            GoogleServiceFactory.GoogleServices services = GoogleServiceFactory.getServices();
+            this.exporterRegistry = ExporterRegistry.create(services, App.getConfigModel().getFsyncPolicy(),
+                    App.getConfigModel().getSyncMode().reusesFolder());
+            this.quotaLimiters = services.getQuotaLimiters();
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize services for download", e);
         }
+
+        // Auto-tuning starts low and climbs; a fixed setting runs at the cap from the start
+        int maxConcurrent = virtualThreads ? VIRTUAL_DOWNLOADS_IN_FLIGHT : threadCount;
+        int initialConcurrent = App.getConfigModel().isAutoTuneConcurrency()
+                ? ConcurrencyTuner.startingLimit(maxConcurrent)
+                : maxConcurrent;
+        // Everything downloaded goes through the disk writer, except large files fetched in segments
+        this.concurrencyTuner = new ConcurrencyTuner(initialConcurrent, maxConcurrent, quotaLimiters::getThrottledCalls,
+                () -> DiskWriter.shared().getWritten() + SegmentedDownload.getTotalWritten());
     }
 
     @Override
@@ -66,149 +142,628 @@ public class DownloadService extends Service<Void> {
     @Override
     public boolean cancel() {
         super.cancel();
+        concurrencyTuner.stop();
         executorService.shutdownNow();
+        discoveryPool.shutdownNow();
 //        throw new RuntimeException("Download cancelled by user");
         return false;
     }
 
-    private class DriveDownloadCoordinatorTask extends Task<Void> {
-        private final List<Future<?>> submittedTasks = new ArrayList<>();
-        private final AtomicInteger totalTasksDiscovered = new AtomicInteger(0);
-        private final AtomicInteger totalTasksCompleted = new AtomicInteger(0);
+    private class DriveDownloadCoordinatorTask extends Task<Void> implements IncrementalSync.Actions {
+        private static final String TRASH_ROOT_ID = "trash-root";
+        private static final String SHARED_DRIVES_ROOT_ID = "virtual-shared-root";
+
+        /**
+         * One party per download that has been submitted but not finished, plus the coordinator itself.
+         * The queue bound keeps the party count well below the phaser's limit.
+         */
+        private final Phaser pendingDownloads = new Phaser(1);
         private volatile boolean discoveryComplete = false;
+        private SyncManifest manifest;
+        /**
+         * Set in {@link SyncMode#MIRROR} only, to skip files whose local copy is current.
+         */
+        private MirrorSync mirror;
+        /**
+         * Set in {@link SyncMode#LINKED_SNAPSHOT} only, when there is an earlier snapshot to reuse files from.
+         */
+        private SnapshotLinker linker;
+        private DownloadDeduplicator deduplicator;
+        /**
+         * Folders already walked this run. A folder with several parents is cloned once, under Drive's first parent.
+         */
+        private final Set<String> visitedFolders = ConcurrentHashMap.newKeySet();
+        /**
+         * Folders reached through a parent other than their first, keyed by ID. Each is walked after the rest of
+         * discovery if its first parent was not, at the occurrence with the smallest path.
+         */
+        private final Map<String, FolderDiscoveryAction> deferredFolders = new ConcurrentHashMap<>();
+        private final Set<String> prefetchedDriveIds = ConcurrentHashMap.newKeySet();
+        /**
+         * Set in {@link SyncMode#INCREMENTAL} only: files submitted this run, so a change is not downloaded again after
+         * discovering a new folder already queued it.
+         */
+        private Set<String> submittedIds;
+        /**
+         * Problems that did not stop the run but leave the clone worse off, shown with the final status.
+         */
+        private final List<String> warnings = new ArrayList<>();
+        private String rootFolderId;
+        private Path cloneRoot;
+        private Path schedulingRoot;
 
         @Override
         protected Void call() throws Exception {
             Platform.runLater(downloadTasks::clear);
-            // folder name with current date + time
-            String destFolderName = "DriveClonr - " + FileUtils.getCurrentDateTimeFormatted();
-            App.getConfigModel().setDestinationDirectory(new File(App.getConfigModel().getDestinationDirectory().toFile(), destFolderName).toPath());
+            discoveredCount.set(0);
+            completedCount.set(0);
+            failedCount.set(0);
+            ConfigModel config = App.getConfigModel();
+            if (config.isAutoTuneConcurrency()) {
+                concurrencyTuner.start();
+            }
+            // Connect to the download hosts while discovery is still listing folders
+            HttpClientPool.shared().warmUp();
+            DriveAPIService driveAPI = App.getDriveService();
+            SyncMode syncMode = config.getSyncMode();
+            boolean incremental = syncMode == SyncMode.INCREMENTAL;
+
+            // folder name with current date + time, or a fixed folder that incremental and mirror runs update in place
+            String destFolderName = switch (syncMode) {
+                case SNAPSHOT, LINKED_SNAPSHOT -> SnapshotLinker.SNAPSHOT_PREFIX + FileUtils.getCurrentDateTimeFormatted();
+                case INCREMENTAL -> "DriveClonr";
+                case MIRROR -> "DriveClonr Mirror";
+            };
+            config.setDestinationDirectory(new File(config.getDestinationDirectory().toFile(), destFolderName).toPath());
+            cloneRoot = config.getDestinationDirectory();
+            schedulingRoot = schedulingRoot(rootItem, cloneRoot);
             updateMessage("Starting download discovery and processing...");
 
             // Start discovery and downloading concurrently
             try {
-                recurseAndAddTasks(rootItem, App.getConfigModel().getDestinationDirectory());
+                SyncManifest previous = incremental || syncMode == SyncMode.MIRROR ? SyncManifest.load(cloneRoot) : null;
+                String nextPageToken;
+                if (incremental && previous != null && previous.getStartPageToken() != null) {
+                    manifest = previous;
+                    submittedIds = ConcurrentHashMap.newKeySet();
+                    deduplicator = config.isDeduplicateFiles() ? new DownloadDeduplicator(manifest, this::downloadAlone) : null;
+                    updateMessage("Applying changes since the last clone...");
+                    nextPageToken = new IncrementalSync(driveAPI, manifest, this).apply();
+                } else {
+                    // A mirror walks everything again, but compares each file with what the last run recorded
+                    manifest = syncMode == SyncMode.MIRROR && previous != null ? previous : new SyncManifest(cloneRoot);
+                    mirror = syncMode == SyncMode.MIRROR ? new MirrorSync(manifest) : null;
+                    linker = syncMode == SyncMode.LINKED_SNAPSHOT ? SnapshotLinker.forLatest(manifest) : null;
+                    deduplicator = config.isDeduplicateFiles() ? new DownloadDeduplicator(manifest, this::downloadAlone) : null;
+                    // Taken before listing, so anything that changes mid-clone is picked up by the next incremental run
+                    nextPageToken = fetchOptional(driveAPI::fetchStartPageToken, "change token");
+                    rootFolderId = fetchOptional(driveAPI::fetchRootFolderId, "My Drive root ID");
+                    if (mirror != null && previous != null && previous.getStartPageToken() != null) {
+                        skipUnchangedFolders(driveAPI, previous, config.describeExportFormats());
+                    }
+                    recurseAndAddTasks(rootItem, cloneRoot);
+                }
+                walkDeferredFolders();
                 discoveryComplete = true;
-                
+
                 updateMessage("Discovery complete. Waiting for remaining downloads...");
+                awaitDownloads();
 
-                // Wait for all submitted tasks to complete
-                for (Future<?> future : submittedTasks) {
-                    if (isCancelled()) {
-                        future.cancel(true);
-                        break;
-                    }
+                if (mirror != null && config.isMirrorDeletes() && !isCancelled()) {
+                    // Scoped to the folders listed in full this run, so failed listings and deselected folders are kept
+                    updateMessage("Removing files deleted from Drive...");
+                    logger.info("Removed {} items deleted from Drive", mirror.deleteRemoved());
+                }
+
+                if (!isCancelled()) {
+                    manifest.setStartPageToken(nextPageToken);
+                    manifest.setExportFormats(config.describeExportFormats());
                     try {
-                        future.get(); // Wait for this task to complete
-                    } catch (Exception e) {
-                        // Task failed, but we continue waiting for others
-                        System.err.println("Download task failed: " + e.getMessage());
+                        manifest.save();
+                    } catch (IOException e) {
+                        warn("the clone manifest could not be saved", e);
                     }
                 }
 
-                int completed = totalTasksCompleted.get();
-                int discovered = totalTasksDiscovered.get();
-                
+                int completed = completedCount.get() + failedCount.get();
+                int discovered = discoveredCount.get();
+                String unchanged = mirror != null ? ", " + mirror.getUnchanged() + " unchanged"
+                        : linker != null ? ", " + linker.describe() : "";
+                if (deduplicator != null && (deduplicator.getDeduplicated() > 0 || deduplicator.getNotPlaced() > 0)) {
+                    unchanged += ", " + deduplicator.describe();
+                }
+
                 if (discovered == 0) {
-                    updateMessage("No files found to download");
+                    boolean upToDate = (incremental && previous != null) || (mirror != null && mirror.getUnchanged() > 0)
+                            || (linker != null && linker.getReused() > 0);
+                    updateMessage((upToDate ? "Clone is already up to date" + unchanged : "No files found to download") + describeWarnings());
                 } else {
-                    updateMessage("Download complete: " + completed + "/" + discovered + " files processed");
+                    updateMessage("Download complete: " + completed + "/" + discovered + " files processed" + unchanged + describeWarnings());
                 }
 
             } catch (Exception e) {
                 updateMessage("Download process encountered an error: " + e.getMessage());
                 throw e;
+            } finally {
+                concurrencyTuner.stop();
+                // Drives whose walk never finished, e.g. after a cancel or a failed listing, are still held
+                for (String driveId : prefetchedDriveIds) {
+                    App.getDriveService().releaseSharedDrive(driveId);
+                }
+                prefetchedDriveIds.clear();
+                logger.info("Export and thumbnail downloads: {}", HttpClientPool.shared().describe());
             }
 
             return null;
         }
 
-        public void recurseAndAddTasks(DriveItem root, Path currPath) throws IOException {
+        private void awaitDownloads() {
+            // Wait for every submitted download to arrive; failures are reported through each task's onFailed handler
+            try {
+                pendingDownloads.awaitAdvanceInterruptibly(pendingDownloads.arrive());
+            } catch (InterruptedException e) {
+                // Cancelled while waiting
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Lets the mirror skip folders in which nothing changed since its last run, if that run's change feed can still
+         * be read. Otherwise every folder is walked. A Google file has to be exported again when its export format
+         * changed, which the change feed knows nothing about, so nothing is skipped after the formats changed.
+         */
+        private void skipUnchangedFolders(DriveAPIService driveAPI, SyncManifest previous, String exportFormats) {
+            if (!exportFormats.equals(previous.getExportFormats())) {
+                logger.info("Export formats changed since the last mirror run, every folder will be checked");
+                return;
+            }
+            try {
+                mirror.useChanges(driveAPI.fetchChangesSince(previous.getStartPageToken()).changes(), driveAPI.getIndex());
+            } catch (IOException e) {
+                logger.warn("Could not read the changes since the last mirror run, every folder will be checked: {}", e.getMessage());
+            }
+        }
+
+        private String fetchOptional(Callable<String> fetch, String what) {
+            try {
+                return fetch.call();
+            } catch (Exception e) {
+                warn("the " + what + " could not be fetched, so the next incremental run does a full clone", e);
+                return null;
+            }
+        }
+
+        private void warn(String problem, Exception cause) {
+            logger.warn("Continuing, but {}: {}", problem, cause.getMessage());
+            warnings.add(problem);
+        }
+
+        private String describeWarnings() {
+            return warnings.isEmpty() ? "" : " (warning: " + String.join("; ", warnings) + ")";
+        }
+
+        /**
+         * Expands {@code root} on the discovery pool. Sibling folders are listed in parallel by the pool's workers,
+         * and every file is handed to the download executor the moment its folder has been listed.
+         */
+        public void recurseAndAddTasks(DriveItem root, Path currPath) {
             if (isCancelled()) {
                 return;
             }
 
             if (root.isFolder()) {
-                if (!root.isLoaded()) {
+                prefetchSharedDrives(root);
+                discoveryPool.invoke(new FolderDiscoveryAction(root, currPath, null, false, true));
+            } else {
+                submitDownload(root, currPath, null, false);
+            }
+        }
+
+        /**
+         * Walks the folders that were only reached through a parent other than their first. Each round can defer
+         * further folders, so this repeats until nothing is left.
+         */
+        private void walkDeferredFolders() {
+            while (!deferredFolders.isEmpty() && !isCancelled()) {
+                List<FolderDiscoveryAction> pending = new ArrayList<>();
+                for (String folderId : List.copyOf(deferredFolders.keySet())) {
+                    FolderDiscoveryAction occurrence = deferredFolders.remove(folderId);
+                    if (!visitedFolders.contains(folderId)) {
+                        pending.add(occurrence.chosen());
+                    }
+                }
+                discoveryPool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(pending);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Starts the flat listings of every selected shared drive up front, so they run concurrently with the walk
+         * of My Drive instead of one drive at a time as discovery reaches them.
+         */
+        private void prefetchSharedDrives(DriveItem root) {
+            DriveItem sharedDrives = SHARED_DRIVES_ROOT_ID.equals(root.getId()) ? root : root.getChildren().stream()
+                    .filter(child -> SHARED_DRIVES_ROOT_ID.equals(child.getId()))
+                    .findFirst()
+                    .orElse(null);
+            if (sharedDrives == null) {
+                return;
+            }
+            try {
+                sharedDrives.loadChildren();
+            } catch (Exception e) {
+                // Discovery loads them again and reports the failure
+                return;
+            }
+            for (DriveItem drive : sharedDrives.getChildren()) {
+                prefetchedDriveIds.add(drive.getId());
+            }
+            App.getDriveService().prefetchSharedDrives(prefetchedDriveIds);
+        }
+
+        @Override
+        public Path outputPathFor(DriveItem file, Path directory) {
+            ExportFormat format = App.getConfigModel().getExportFormat(file.getMimeType());
+            return directory.resolve(exporterRegistry.getOutputName(file, format));
+        }
+
+        @Override
+        public void download(DriveItem file, Path directory, String parentId, boolean trashed) {
+            submitDownload(file, directory, parentId, trashed);
+        }
+
+        @Override
+        public void discover(DriveItem folder, Path directory, String parentId, boolean trashed) {
+            discoveryPool.invoke(new FolderDiscoveryAction(folder, directory, parentId, trashed, false));
+        }
+
+        @Override
+        public boolean isQueued(String fileId) {
+            return submittedIds != null && submittedIds.contains(fileId);
+        }
+
+        /**
+         * Maps a folder in the selection to the Drive ID its children report as their parent, or null for the
+         * purely virtual roots that have no Drive counterpart.
+         */
+        private String manifestIdFor(DriveItem folder) {
+            return switch (folder.getId()) {
+                case "root" -> rootFolderId;
+                case "virtual-root", "shared-root", TRASH_ROOT_ID, SHARED_DRIVES_ROOT_ID -> null;
+                default -> folder.getId();
+            };
+        }
+
+        /**
+         * Lists one folder, creates its directory, submits its files and forks one action per subfolder.
+         * Only the top-level action propagates failures; a subfolder that fails is reported and skipped so its
+         * siblings carry on, as with the previous depth-first walk.
+         */
+        private class FolderDiscoveryAction extends RecursiveAction {
+            private final DriveItem folder;
+            private final Path folderPath;
+            private final String parentId;
+            private final boolean trashed;
+            private final boolean propagateErrors;
+            /**
+             * Whether this occurrence was picked for a folder whose first parent was never walked.
+             */
+            private final boolean chosen;
+
+            FolderDiscoveryAction(DriveItem folder, Path folderPath, String parentId, boolean trashed, boolean propagateErrors) {
+                this(folder, folderPath, parentId, trashed, propagateErrors, false);
+            }
+
+            private FolderDiscoveryAction(DriveItem folder, Path folderPath, String parentId, boolean trashed, boolean propagateErrors, boolean chosen) {
+                this.folder = folder;
+                this.folderPath = folderPath;
+                this.parentId = parentId;
+                this.trashed = trashed;
+                this.propagateErrors = propagateErrors;
+                this.chosen = chosen;
+            }
+
+            FolderDiscoveryAction chosen() {
+                return new FolderDiscoveryAction(folder, folderPath, parentId, trashed, false, true);
+            }
+
+            /**
+             * Whether this is the folder's place in the clone: under Drive's first parent, or anywhere if that is unknown.
+             */
+            private boolean isPrimary() {
+                return chosen || folder.getPrimaryParentId() == null || folder.getPrimaryParentId().equals(parentId);
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    discover();
+                } catch (RuntimeException e) {
+                    if (propagateErrors) {
+                        throw e;
+                    }
+                    System.err.println("Error processing child '" + folder.getName() + "': " + e.getMessage());
+                }
+            }
+
+            private void discover() {
+                if (DriveDownloadCoordinatorTask.this.isCancelled()) {
+                    return;
+                }
+
+                String folderId = manifestIdFor(folder);
+                if (folderId != null && !isPrimary()) {
+                    // Kept for later in case the first parent is outside the selection; the smallest path wins ties
+                    deferredFolders.merge(folderId, this, (a, b) -> a.folderPath.toString().compareTo(b.folderPath.toString()) <= 0 ? a : b);
+                    return;
+                }
+                if (folderId != null && !visitedFolders.add(folderId)) {
+                    logger.info("Skipping '{}' at {}, it is already cloned under another parent", folder.getName(), folderPath);
+                    return;
+                }
+
+                if (mirror != null && folderId != null) {
+                    mirror.folderSeen(folderId, folderPath);
+                    // Only a fully selected folder can be left as it is
+                    boolean partial = folder.isLoaded() && folder.isPartiallySelected();
+                    List<String> skipped = partial ? null : mirror.skipFolderIfUnchanged(folderId, folderPath);
+                    if (skipped != null) {
+                        visitedFolders.addAll(skipped);
+                        return;
+                    }
+                }
+
+                // Children loaded here are the folder's full listing; ones loaded in the tree are the user's selection
+                boolean listing = !folder.isLoaded();
+                if (listing) {
                     try {
-                        root.loadChildren();
+                        folder.loadChildren();
                     } catch (Exception e) {
-                        throw new RuntimeException("Failed to load children for folder '" + root.getName() + "': " + e.getMessage(), e);
+                        throw new RuntimeException("Failed to load children for folder '" + folder.getName() + "': " + e.getMessage(), e);
                     }
                 }
+                if (mirror != null && folderId != null && (listing || !folder.isPartiallySelected())) {
+                    mirror.folderListed(folderId);
+                }
 
                 // Create directory if it doesn't exist
-                if (!currPath.toFile().exists()) {
-                    if (!currPath.toFile().mkdirs()) {
-                        throw new RuntimeException("Failed to create directory: " + currPath);
+                if (!folderPath.toFile().exists()) {
+                    if (!folderPath.toFile().mkdirs() && !folderPath.toFile().isDirectory()) {
+                        throw new RuntimeException("Failed to create directory: " + folderPath);
+                    }
+                    try {
+                        FileUtils.setLastModifiedFromDateTime(folderPath.toFile(), folder.getModifiedTime());
+                    } catch (Exception e) {
+                        System.err.println("Could not set modified time on '" + folderPath + "': " + e.getMessage());
                     }
-                    FileUtils.setLastModifiedFromDateTime(currPath.toFile(), root.getModifiedTime());
                 }
 
-                if (root.getChildren() != null && !root.getChildren().isEmpty()) {
-                    for (DriveItem child : root.getChildren()) {
-                        if (child == null || isCancelled()) continue;
+                if (folderId != null) {
+                    manifest.put(new SyncManifest.Entry(folderId, parentId, manifest.relativize(folderPath), true, trashed, toMillis(folder.getModifiedTime()), true));
+                }
 
-                        String childId = child.getId();
-                        if ("loading".equals(childId) || "empty".equals(childId) || "error".equals(childId)) {
-                            continue;
-                        }
+                if (folder.getChildren() == null || folder.getChildren().isEmpty()) {
+                    return;
+                }
 
-                        try {
-                            if (child.isFolder()) {
-                                recurseAndAddTasks(child, currPath.resolve(FileUtils.sanitizeFilename(child.getName())));
-                            } else {
-                                recurseAndAddTasks(child, currPath);
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error processing child '" + child.getName() + "': " + e.getMessage());
-                        }
+                List<FolderDiscoveryAction> subfolders = new ArrayList<>();
+                for (DriveItem child : folder.getChildren()) {
+                    if (child == null || DriveDownloadCoordinatorTask.this.isCancelled()) continue;
+
+                    String childId = child.getId();
+                    if ("loading".equals(childId) || "empty".equals(childId) || "error".equals(childId)) {
+                        continue;
+                    }
+
+                    if (child.isFolder()) {
+                        boolean childTrashed = trashed || TRASH_ROOT_ID.equals(childId);
+                        subfolders.add(new FolderDiscoveryAction(child, folderPath.resolve(FileUtils.sanitizeFilename(child.getName())), folderId, childTrashed, false));
+                    } else {
+                        submitDownload(child, folderPath, folderId, trashed);
                     }
                 }
-            } else {
-                // This is a file - increment discovered count and create download task
-                int discovered = totalTasksDiscovered.incrementAndGet();
-                
+
+                invokeAll(subfolders);
+
+                if (prefetchedDriveIds.remove(folder.getId())) {
+                    App.getDriveService().releaseSharedDrive(folder.getId());
+                }
+            }
+        }
+
+        private void submitDownload(DriveItem file, Path currPath, String parentId, boolean trashed) {
+            if (submittedIds != null) {
+                submittedIds.add(file.getId());
+            }
+            Path target = outputPathFor(file, currPath);
+            if (deduplicator != null) {
+                if (deduplicator.followById(file, target)) {
+                    return;
+                }
+                // Before the mirror or linker can settle the file, so copies later in the walk link to it either way
+                deduplicator.registerChecksum(file);
+            }
+            if ((mirror != null && mirror.skipIfUnchanged(file, target, parentId, trashed))
+                    || (linker != null && linker.linkIfUnchanged(file, target, parentId, trashed))) {
+                if (deduplicator != null) {
+                    deduplicator.resolved(file, target);
+                }
+                return;
+            }
+            if (deduplicator != null && deduplicator.followByChecksum(file, target, parentId, trashed)) {
+                return;
+            }
+            queueDownload(file, currPath, parentId, trashed);
+        }
+
+        /**
+         * Downloads a copy whose shared download failed. The failing worker still holds a download slot, so the copy
+         * is queued from another thread, which keeps the run open until it has been submitted.
+         */
+        private void downloadAlone(DriveItem file, Path currPath, String parentId, boolean trashed) {
+            pendingDownloads.register();
+            Thread.ofVirtual().name("Download-retry").start(() -> {
                 try {
-                    DriveDownloadTask task = new DriveDownloadTask(root, currPath.toString(), exporterRegistry);
+                    queueDownload(file, currPath, parentId, trashed);
+                } finally {
+                    pendingDownloads.arriveAndDeregister();
+                }
+            });
+        }
 
-                    Platform.runLater(() -> downloadTasks.add(task));
+        private void queueDownload(DriveItem file, Path currPath, String parentId, boolean trashed) {
+            // This is a file - increment discovered count and create download task
+            int discovered = discoveredCount.incrementAndGet();
 
-                    task.setOnSucceeded(event -> {
-                        int completed = totalTasksCompleted.incrementAndGet();
-                        Platform.runLater(() -> {
-                            downloadTasks.remove(task);
-                            completedTasks.add(task);
-                        });
-                        updateProgressMessage(completed, discovered);
-                    });
-                    
-                    task.setOnFailed(event -> {
-                        int completed = totalTasksCompleted.incrementAndGet();
-                        Platform.runLater(() -> {
-                            downloadTasks.remove(task);
-                            failedTasks.add(task);
-                        });
-                        updateProgressMessage(completed, discovered);
+            try {
+                DriveDownloadTask task = new DriveDownloadTask(file, currPath.toString(), exporterRegistry);
+                manifest.put(new SyncManifest.Entry(file.getId(), parentId, manifest.relativize(task.getOutputPath()), false, trashed,
+                        toMillis(file.getModifiedTime()), false, file.getMd5Checksum(), file.getSize(), file.getVersion()));
+
+                task.setOnSucceeded(event -> {
+                    downloadTasks.remove(task);
+                    completedTasks.add(task);
+                    // Only the most recent completions are kept for display, the totals are in the counters
+                    if (completedTasks.size() > RECENT_TASKS_SHOWN) {
+                        completedTasks.remove(0, completedTasks.size() - RECENT_TASKS_SHOWN);
+                    }
+                });
+
+                task.setOnFailed(event -> {
+                    downloadTasks.remove(task);
+                    failedTasks.add(task);
+                });
+
+                // Backpressure: blocks while the most downloads allowed are already in flight
+                downloadSlots.acquire();
+                pendingDownloads.register();
+                scheduler.add(task, file.getSize(), schedulingGroup(currPath));
+                try {
+                    // One worker run per waiting download; each starts whichever download the scheduler picks
+                    executorService.execute(() -> {
+                        try {
+                            runNextDownload();
+                        } finally {
+                            downloadSlots.release();
+                            pendingDownloads.arriveAndDeregister();
+                        }
                     });
+                } catch (RejectedExecutionException e) {
+                    scheduler.remove(task);
+                    downloadSlots.release();
+                    pendingDownloads.arriveAndDeregister();
+                    throw e;
+                }
 
-                    Future<?> future = executorService.submit(task);
-                    submittedTasks.add(future);
+                updateProgressMessage(completedCount.get() + failedCount.get(), discovered);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Failed to create download task for '" + file.getName() + "': " + e.getMessage());
+                if (deduplicator != null) {
+                    deduplicator.failed(file);
+                }
+            }
+        }
 
-                    updateProgressMessage(totalTasksCompleted.get(), discovered);
+        /**
+         * The folder a download was found in directly below the {@link #schedulingRoot}, which
+         * {@link SchedulingPolicy#FAIR_SHARE} takes turns between.
+         */
+        private String schedulingGroup(Path directory) {
+            // e.g. an incremental run reaching a file outside the selection's single folder
+            Path relative = (directory.startsWith(schedulingRoot) ? schedulingRoot : cloneRoot).relativize(directory);
+            return relative.getNameCount() > 0 ? relative.getName(0).toString() : "";
+        }
 
-                } catch (Exception e) {
-                    System.err.println("Failed to create download task for '" + root.getName() + "': " + e.getMessage());
+        /**
+         * Follows the selection down while it holds a single folder, e.g. only My Drive, so that
+         * {@link SchedulingPolicy#FAIR_SHARE} takes turns between the folders inside it rather than treating the whole
+         * clone as one group.
+         */
+        private static Path schedulingRoot(DriveItem root, Path rootPath) {
+            DriveItem only = root;
+            Path path = rootPath;
+            while (only.getChildren() != null && only.getChildren().size() == 1 && only.getChildren().getFirst().isFolder()) {
+                only = only.getChildren().getFirst();
+                path = path.resolve(FileUtils.sanitizeFilename(only.getName()));
+            }
+            return path;
+        }
+
+        /**
+         * Waits for a concurrency slot, then runs whichever waiting download the scheduler picks.
+         */
+        private void runNextDownload() {
+            try {
+                concurrencyTuner.acquire();
+            } catch (InterruptedException e) {
+                // Cancelled before a download could start
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                DriveDownloadTask task = scheduler.poll();
+                if (task != null) {
+                    runAndRecord(task);
                 }
+            } finally {
+                concurrencyTuner.release();
+            }
+        }
+
+        /**
+         * Runs a download, counts it and marks it complete in the manifest before the worker moves on. The task's own
+         * succeeded/failed handlers fire later on the FX thread, which is too late for the manifest save and the
+         * final totals.
+         */
+        private void runAndRecord(DriveDownloadTask task) {
+            long start = System.nanoTime();
+            // Only started downloads are listed, so the list stays as long as the number in flight
+            Platform.runLater(() -> downloadTasks.add(task));
+            task.run();
+            if (task.isCancelled()) {
+                return;
             }
+            try {
+                task.get();
+                completedCount.incrementAndGet();
+                manifest.markComplete(task.getDriveItem().getId());
+                if (deduplicator != null) {
+                    deduplicator.resolved(task.getDriveItem(), task.getOutputPath());
+                }
+                concurrencyTuner.record(System.nanoTime() - start, true);
+            } catch (Exception e) {
+                // Failure is reported through the task's onFailed handler; the next incremental run retries it
+                failedCount.incrementAndGet();
+                concurrencyTuner.record(System.nanoTime() - start, false);
+                if (deduplicator != null) {
+                    deduplicator.failed(task.getDriveItem());
+                }
+            }
+            updateProgressMessage();
+        }
+
+        private long toMillis(DateTime dateTime) {
+            return dateTime == null ? 0 : dateTime.getValue();
+        }
+
+        private void updateProgressMessage() {
+            updateProgressMessage(completedCount.get() + failedCount.get(), discoveredCount.get());
         }
 
         private void updateProgressMessage(int completed, int discovered) {
+            String rate = " (" + concurrencyTuner.getLimit() + " at once, " + quotaLimiters.describeRates() + ")";
             if (discoveryComplete) {
-                updateMessage("Downloading: " + completed + "/" + discovered + " files completed");
+                updateMessage("Downloading: " + completed + "/" + discovered + " files completed" + rate);
             } else {
-                updateMessage("Discovering and downloading: " + completed + "/" + discovered + " files (discovery ongoing...)");
+                updateMessage("Discovering and downloading: " + completed + "/" + discovered + " files (discovery ongoing...)" + rate);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,19 +1,137 @@
 package com.ibrasoft.jdriveclonr.service;
 
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
 import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.DriveList;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.ibrasoft.jdriveclonr.model.DriveItem;
-import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
-@AllArgsConstructor
 public class DriveAPIService {
+    private static final Logger logger = LoggerFactory.getLogger(DriveAPIService.class);
+
+    private static final String EXCLUDED_MIME_TYPES = "mimeType != 'application/vnd.google-apps.form' and mimeType != 'application/vnd.google-apps.shortcut' and mimeType != 'application/vnd.google-apps.drive-sdk'";
+    private static final Set<String> EXCLUDED_MIME_TYPE_SET = Set.of("application/vnd.google-apps.form", "application/vnd.google-apps.shortcut", "application/vnd.google-apps.drive-sdk");
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+    private static final String FILE_FIELDS = "id, name, mimeType, modifiedTime, size, shared, webContentLink, md5Checksum, version, parents";
+    private static final String INDEX_FIELDS = FILE_FIELDS + ", trashed, ownedByMe, sharedWithMeTime";
+    private static final int LISTING_PARALLELISM = 8;
+    private static final Duration LISTING_CACHE_TTL = Duration.ofMinutes(10);
+    private static final long LISTING_CACHE_MAX_FILES = 500_000;
+    private static final int SHARED_DRIVE_PARALLELISM = 4;
+    private static final int PER_DRIVE_PARALLELISM = 4;
+
     private final Drive driveService;
 
+    /**
+     * Coalesces the per-folder listing calls made by concurrent discovery threads into batch requests.
+     */
+    private final GoogleBatcher batcher;
+    private final QuotaLimiters quotaLimiters;
+
+    /**
+     * Flat index of the whole Drive, if one has been built. When present, folder children are looked up here
+     * instead of being listed one folder at a time.
+     */
+    @Getter
+    @Setter
+    private volatile DriveIndex index;
+
+    /**
+     * Results of recent list queries, shared by the tree UI and the downloader. Concurrent lookups of the same query
+     * wait for a single API call instead of each issuing their own.
+     */
+    private final LoadingCache<String, List<File>> listingCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(LISTING_CACHE_TTL)
+            .maximumWeight(LISTING_CACHE_MAX_FILES)
+            .weigher((String query, List<File> files) -> files.size() + 1)
+            .build(new CacheLoader<String, List<File>>() {
+                @Override
+                public List<File> load(String query) throws IOException {
+                    return List.copyOf(fetchFiles(query));
+                }
+            });
+
+    /**
+     * Flat indexes of the shared drives that are being cloned, keyed by drive ID. Each is listed once with
+     * {@code corpora=drive}, so walking a shared drive costs a handful of paged requests instead of one per folder.
+     */
+    private final Map<String, CompletableFuture<DriveIndex>> sharedDriveIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Lists up to {@code SHARED_DRIVE_PARALLELISM} shared drives at once. Each drive's listing runs on its own pool of
+     * {@code PER_DRIVE_PARALLELISM} threads, so one huge drive cannot starve the others of request slots.
+     */
+    private final ExecutorService sharedDrivePool = Executors.newFixedThreadPool(SHARED_DRIVE_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "SharedDriveListing");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DriveAPIService(Drive driveService) {
+        this(driveService, GoogleServiceFactory.getQuotaLimiters());
+    }
+
+    public DriveAPIService(Drive driveService, QuotaLimiters quotaLimiters) {
+        this.driveService = driveService;
+        this.batcher = new GoogleBatcher(driveService, GoogleBatcher.DRIVE_BATCH_URL, quotaLimiters, QuotaClass.DRIVE_METADATA);
+        this.quotaLimiters = quotaLimiters;
+    }
+
+    /**
+     * Runs a metadata call under the Drive metadata quota's limits.
+     */
+    private <T> T metadataCall(AdaptiveRateLimiter.Call<T> call) throws IOException {
+        try {
+            return quotaLimiters.execute(QuotaClass.DRIVE_METADATA, call);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Drive metadata quota");
+        }
+    }
+
+    /**
+     * Sends a metadata request through the batcher, which takes the quota slot and permit around the HTTP call the
+     * request ends up in. Only retries happen here.
+     */
+    private <T> T batchedCall(AbstractGoogleJsonClientRequest<T> request) throws IOException {
+        try {
+            return quotaLimiters.retry(QuotaClass.DRIVE_METADATA, () -> batcher.execute(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying a Drive metadata request");
+        }
+    }
+
     /**
      * Private wrapper around {@link Drive#files().list()} to fetch files with a specified query.
      *
@@ -25,13 +143,314 @@ public class DriveAPIService {
         List<File> files = new ArrayList<>();
         String pageToken = null;
         do {
-            FileList result = driveService.files().list().setQ(query + " and mimeType != 'application/vnd.google-apps.form'" + "and mimeType != 'application/vnd.google-apps.shortcut' and mimeType != 'application/vnd.google-apps.drive-sdk'").setFields("nextPageToken, files(id, name, mimeType, modifiedTime, size, shared, webContentLink)").setPageToken(pageToken).setPageSize(1000).setSupportsAllDrives(true).setCorpora("allDrives").setIncludeItemsFromAllDrives(true).execute();
+            Drive.Files.List request = driveService.files().list().setQ(query + " and " + EXCLUDED_MIME_TYPES).setFields("nextPageToken, files(" + FILE_FIELDS + ")").setPageToken(pageToken).setPageSize(1000).setSupportsAllDrives(true).setCorpora("allDrives").setIncludeItemsFromAllDrives(true);
+            FileList result = batchedCall(request);
             files.addAll(result.getFiles());
             pageToken = result.getNextPageToken();
         } while (pageToken != null);
         return files;
     }
 
+    /**
+     * Cached, single-flight version of {@link #fetchFiles(String)}.
+     *
+     * @param query A Google Drive API V3 query string.
+     * @return A list of files matching the query, possibly from a listing made up to {@code LISTING_CACHE_TTL} ago.
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    private List<File> listCached(String query) throws IOException {
+        try {
+            return listingCache.get(query);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Failed to list files for query: " + query, e.getCause());
+        }
+    }
+
+    /**
+     * Drops all cached list results, once the Changes API shows that some of them may be out of date. Shared drive
+     * listings are left alone: each belongs to the clone that prefetched it, which releases it when done.
+     */
+    private void invalidateListings() {
+        listingCache.invalidateAll();
+    }
+
+    /**
+     * Lists every item in the user's corpus once (with {@code parents} in the field mask) and builds a
+     * {@link DriveIndex} from it. Once built, the index is used by all lazily-loaded folders, so expanding a folder
+     * or recursing through it during a download no longer costs a list request.
+     * <p>
+     * Trashed items are included on purpose: per-folder listings never filtered them out either, and the trash
+     * root's subfolders need them.
+     *
+     * @return The newly built index, which is also installed on this service
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public DriveIndex buildIndex() throws IOException {
+        // Taken before listing, so anything that changes mid-listing is picked up by the next refresh
+        DriveIndex.Builder builder = DriveIndex.builder()
+                .startPageToken(fetchStartPageToken())
+                .rootFolderId(fetchRootFolderId());
+        listCorpus(ListingScope.USER, LISTING_PARALLELISM, builder::addAll);
+
+        DriveIndex built = builder.build();
+        logger.info("Indexed {} Drive items", built.size());
+        this.index = built;
+        return built;
+    }
+
+    /**
+     * Streams every item in the given corpus to {@code sink}, one page at a time.
+     * <p>
+     * A single pagination cursor is strictly serial, so the corpus is cut into {@code modifiedTime} ranges that are
+     * paged concurrently, each with its own cursor. Pages come oldest first, so a range whose first page says there is
+     * more to come keeps that page, and the rest of the range (from the page's newest item on) is split in half and
+     * listed the same way until it is either small enough to fit a page or too narrow to split further. This keeps
+     * the partitions roughly balanced without knowing the Drive's shape up front.
+     * <p>
+     * Items modified while the listing runs can move between ranges and be seen twice; callers must tolerate
+     * duplicates (the {@link DriveIndex.Builder} does).
+     *
+     * @param scope       The corpus to list: the user's own items or a single shared drive
+     * @param parallelism The number of partitions, and of concurrent list requests
+     * @param sink        Receives each page of files; called concurrently from the listing threads
+     * @throws IOException If any partition fails to list
+     */
+    public void listCorpus(ListingScope scope, int parallelism, Consumer<List<File>> sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "DriveListing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(ListingPartition.initial(Instant.now(), parallelism).stream()
+                    .map(partition -> listPartition(scope, partition, sink, pool))
+                    .toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Void> listPartition(ListingScope scope, ListingPartition partition, Consumer<List<File>> sink, ExecutorService pool) {
+        return CompletableFuture.supplyAsync(() -> fetchCorpusPage(scope, partition, null), pool).thenCompose(first -> {
+            sink.accept(first.getFiles());
+            if (first.getNextPageToken() == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            // Items sharing the page's newest timestamp can be on either side of the cut, so that one is listed again
+            ListingPartition rest = partition.startingAt(newestModifiedTime(first.getFiles()));
+            if (rest.isSplittable()) {
+                List<ListingPartition> halves = rest.split();
+                return CompletableFuture.allOf(
+                        listPartition(scope, halves.get(0), sink, pool),
+                        listPartition(scope, halves.get(1), sink, pool));
+            }
+            return CompletableFuture.runAsync(() -> {
+                String pageToken = first.getNextPageToken();
+                while (pageToken != null) {
+                    FileList page = fetchCorpusPage(scope, partition, pageToken);
+                    sink.accept(page.getFiles());
+                    pageToken = page.getNextPageToken();
+                }
+            }, pool);
+        });
+    }
+
+    private static Instant newestModifiedTime(List<File> files) {
+        Instant newest = null;
+        for (File file : files) {
+            if (file.getModifiedTime() != null) {
+                Instant modified = Instant.ofEpochMilli(file.getModifiedTime().getValue());
+                newest = newest == null || modified.isAfter(newest) ? modified : newest;
+            }
+        }
+        return newest;
+    }
+
+    private FileList fetchCorpusPage(ListingScope scope, ListingPartition partition, String pageToken) {
+        try {
+            Drive.Files.List request = driveService.files().list().setQ(scope.filter() + partition.toQuery() + EXCLUDED_MIME_TYPES).setFields("nextPageToken, files(" + INDEX_FIELDS + ")").setOrderBy("modifiedTime").setPageToken(pageToken).setPageSize(1000);
+            if (scope.driveId() == null) {
+                request.setCorpora("user");
+            } else {
+                request.setCorpora("drive").setDriveId(scope.driveId()).setSupportsAllDrives(true).setIncludeItemsFromAllDrives(true);
+            }
+            return metadataCall(request::execute);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Brings the installed index up to date by applying the Changes API feed since it was built, falling back to a
+     * full listing if it has no change cursor. Only changes to items in the listed corpus are applied; shared drive
+     * contents are never part of the index.
+     *
+     * @return The refreshed index, which is also installed on this service
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public DriveIndex refreshIndex() throws IOException {
+        DriveIndex current = this.index;
+        if (current == null || current.getStartPageToken() == null) {
+            return buildIndex();
+        }
+
+        ChangeBatch batch = fetchChangesSince(current.getStartPageToken());
+        DriveIndex.Builder builder = current.toBuilder();
+        for (Change change : batch.changes()) {
+            if (change.getFileId() == null) continue;
+            File file = change.getFile();
+            if (Boolean.TRUE.equals(change.getRemoved()) || file == null || file.getDriveId() != null || isExcludedMimeType(file.getMimeType())) {
+                builder.remove(change.getFileId());
+            } else {
+                builder.put(file);
+            }
+        }
+
+        DriveIndex refreshed = builder.startPageToken(batch.newStartPageToken()).build();
+        logger.info("Applied {} changes to the Drive index", batch.changes().size());
+        this.index = refreshed;
+        if (!batch.changes().isEmpty()) {
+            invalidateListings();
+        }
+        return refreshed;
+    }
+
+    /**
+     * Installs the index saved by a previous session, if there is one and it belongs to the signed-in account.
+     *
+     * @return true if a cached index was installed, false if the Drive has to be listed
+     * @throws IOException If the account's root folder cannot be resolved
+     */
+    public boolean loadCachedIndex() throws IOException {
+        DriveIndex cached = DriveIndexStore.load(DriveIndexStore.DEFAULT_PATH);
+        if (cached == null || cached.getRootFolderId() == null || !cached.getRootFolderId().equals(fetchRootFolderId())) {
+            return false;
+        }
+        logger.info("Loaded {} Drive items from the index cache", cached.size());
+        this.index = cached;
+        return true;
+    }
+
+    /**
+     * Saves the installed index for the next session. Does nothing if no index has been built.
+     *
+     * @throws IOException If the index cannot be written
+     */
+    public void saveIndex() throws IOException {
+        DriveIndex current = this.index;
+        if (current != null) {
+            DriveIndexStore.save(current, DriveIndexStore.DEFAULT_PATH);
+        }
+    }
+
+    /**
+     * Returns the children of a folder, answering from the flat index when it covers the folder and falling back
+     * to a {@code '<id>' in parents} listing otherwise.
+     *
+     * @param folderId The ID of the folder to list
+     * @return The folder's direct children
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public List<File> fetchChildren(String folderId) throws IOException {
+        DriveIndex current = this.index;
+        if (current != null && current.covers(folderId)) {
+            return current.getChildren(folderId);
+        }
+        for (CompletableFuture<DriveIndex> driveIndex : sharedDriveIndexes.values()) {
+            DriveIndex listed = driveIndex.getNow(null);
+            if (listed != null && listed.covers(folderId)) {
+                return listed.getChildren(folderId);
+            }
+        }
+        return listCached("'" + folderId + "' in parents");
+    }
+
+    /**
+     * Starts listing the given shared drives in the background, {@code SHARED_DRIVE_PARALLELISM} drives at a time.
+     * Does not wait for the listings; {@link #fetchSharedDriveChildren(String)} does that for the drive it needs.
+     *
+     * @param driveIds The IDs of the shared drives about to be cloned
+     */
+    public void prefetchSharedDrives(Collection<String> driveIds) {
+        driveIds.forEach(this::sharedDriveIndex);
+    }
+
+    /**
+     * Drops a shared drive's index once its tree has been walked, or the clone that prefetched it ended, so cloning
+     * hundreds of drives does not keep every one of them in memory. A listing that has not started yet is skipped.
+     *
+     * @param driveId The ID of the shared drive
+     */
+    public void releaseSharedDrive(String driveId) {
+        CompletableFuture<DriveIndex> listing = sharedDriveIndexes.remove(driveId);
+        if (listing != null) {
+            listing.cancel(false);
+        }
+    }
+
+    private CompletableFuture<DriveIndex> sharedDriveIndex(String driveId) {
+        CompletableFuture<DriveIndex> listing = new CompletableFuture<>();
+        CompletableFuture<DriveIndex> existing = sharedDriveIndexes.putIfAbsent(driveId, listing);
+        if (existing != null) {
+            return existing;
+        }
+        sharedDrivePool.execute(() -> {
+            if (listing.isDone()) {
+                // Released while waiting for a turn
+                return;
+            }
+            try {
+                listing.complete(buildSharedDriveIndex(driveId));
+            } catch (Exception e) {
+                // A failed listing is not kept, so the next request for the drive tries again
+                sharedDriveIndexes.remove(driveId, listing);
+                listing.completeExceptionally(e);
+            }
+        });
+        return listing;
+    }
+
+    private DriveIndex buildSharedDriveIndex(String driveId) throws IOException {
+        DriveIndex.Builder builder = DriveIndex.builder().rootFolderId(driveId);
+        listCorpus(new ListingScope(driveId), PER_DRIVE_PARALLELISM, builder::addAll);
+        DriveIndex built = builder.build();
+        logger.info("Indexed {} items in shared drive {}", built.size(), driveId);
+        return built;
+    }
+
+    /**
+     * Returns the top-level items of a shared drive. If the drive is being prefetched this waits for its listing,
+     * which then also answers every folder below it; otherwise (e.g. when browsing) only the top level is listed.
+     *
+     * @param driveId The ID of the shared drive
+     * @return The drive's top-level items
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public List<File> fetchSharedDriveChildren(String driveId) throws IOException {
+        CompletableFuture<DriveIndex> listing = sharedDriveIndexes.get(driveId);
+        if (listing != null) {
+            try {
+                return listing.join().getChildren(driveId);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e;
+            } catch (CancellationException e) {
+                // Released while this was waiting; list the top level as if it had never been prefetched
+            }
+        }
+        return listCached("'" + driveId + "' in parents and trashed = false");
+    }
+
     /**
      * Returns a DriveItem tree representing the users root-owned items.
      * This is a virtual root node that contains all the files, and which implements lazy loading for all subtrees for
@@ -43,18 +462,27 @@ public class DriveAPIService {
     public DriveItem fetchRootOwnedItems() throws IOException {
         DriveItem virtualRoot = new DriveItem("root", "My Files", "virtual/root", 0, null, false, new ArrayList<>(), () -> {
             try {
-                return convertFileToDriveItems(fetchFiles("'root' in parents and trashed = false and 'me' in owners"));
+                return convertFileToDriveItems(fetchRootOwnedFiles());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }, null);
 
-        List<File> files = fetchFiles("'root' in parents and trashed = false and 'me' in owners");
-        virtualRoot.setChildren(convertFileToDriveItems(files));
+        virtualRoot.setChildren(convertFileToDriveItems(fetchRootOwnedFiles()));
 
         return virtualRoot;
     }
 
+    private List<File> fetchRootOwnedFiles() throws IOException {
+        DriveIndex current = this.index;
+        if (current != null && current.getRootFolderId() != null) {
+            return current.getChildren(current.getRootFolderId()).stream()
+                    .filter(file -> !Boolean.TRUE.equals(file.getTrashed()) && Boolean.TRUE.equals(file.getOwnedByMe()))
+                    .toList();
+        }
+        return listCached("'root' in parents and trashed = false and 'me' in owners");
+    }
+
     /**
      * Returns a DriveItem tree representing the users root-shared items.
      * This is a virtual root node that contains all the files, and which implements lazy loading for all subtrees for
@@ -66,52 +494,46 @@ public class DriveAPIService {
     public DriveItem fetchRootSharedItems() throws IOException {
         DriveItem virtualRoot = new DriveItem("shared-root", "Shared With Me", "virtual/root", 0, null, false, new ArrayList<>(), () -> {
             try {
-                List<File> files = fetchFiles("(trashed = false) and sharedWithMe");
-                return (convertFileToDriveItems(files.stream().filter(file -> file.getParents() == null || file.getParents().isEmpty()).toList()));
+                return convertFileToDriveItems(fetchRootSharedFiles());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }, null);
 
-        List<File> files = fetchFiles("(trashed = false) and sharedWithMe");
-        virtualRoot.setChildren(convertFileToDriveItems(files.stream().filter(file -> file.getParents() == null || file.getParents().isEmpty()).toList()));
+        virtualRoot.setChildren(convertFileToDriveItems(fetchRootSharedFiles()));
         return virtualRoot;
     }
 
+    private List<File> fetchRootSharedFiles() throws IOException {
+        DriveIndex current = this.index;
+        if (current != null && current.getRootFolderId() != null) {
+            // Top-level shared items are the ones whose parents (if any) the user cannot see
+            return current.getAll().stream()
+                    .filter(file -> file.getSharedWithMeTime() != null && !Boolean.TRUE.equals(file.getTrashed()))
+                    .filter(file -> file.getParents() == null || file.getParents().stream().noneMatch(current::covers))
+                    .toList();
+        }
+        List<File> files = listCached("(trashed = false) and sharedWithMe");
+        return files.stream().filter(file -> file.getParents() == null || file.getParents().isEmpty()).toList();
+    }
+
     /**
-     * Beta Feature: Shared Drives Cloning
-     * No Javadoc here because this is highly experimental and not yet ready for production
+     * Returns a DriveItem tree representing the shared drives the user is a member of, one lazily-loaded node per drive.
      *
-     * @param driveId The ID of the shared drive to fetch files from
-     * @return A list of files in the shared drive
+     * @return A virtual root representing all the user's shared drives
      * @throws IOException If the request fails or an I/O error occurs.
      */
-    private List<com.google.api.services.drive.model.File> fetchFilesInDrive(String driveId) throws IOException {
-        FileList fileList = driveService.files().list().setQ(String.format("'%s' in parents and trashed = false", driveId)).setDriveId(driveId).setCorpora("drive").setSupportsAllDrives(true).setIncludeItemsFromAllDrives(true).setFields("files(id, name, mimeType, parents, size)").execute();
-
-        return fileList.getFiles();
-    }
-
-
     public DriveItem fetchRootSharedDrives() throws IOException {
-        Drive.Drives.List request = driveService.drives().list().setPageSize(100).setFields("drives(id, name, createdTime)");
-
-        List<com.google.api.services.drive.model.Drive> drives = request.execute().getDrives();
+        List<com.google.api.services.drive.model.Drive> drives = new ArrayList<>();
+        String pageToken = null;
+        do {
+            DriveList result = driveService.drives().list().setPageSize(100).setPageToken(pageToken).setFields("nextPageToken, drives(id, name, createdTime)").execute();
+            drives.addAll(result.getDrives());
+            pageToken = result.getNextPageToken();
+        } while (pageToken != null);
 
         DriveItem virtualRoot = new DriveItem("virtual-shared-root", "Shared Drives", "virtual/root", 0, null, false, new ArrayList<>(), () -> convertDrivesToDriveItems(drives), null);
-
-        for (com.google.api.services.drive.model.Drive drive : drives) {
-            DriveItem sharedDriveItem = new DriveItem(drive.getId(), drive.getName(), "virtual/root", 0, null, true, List.of(), () -> {
-                try {
-                    return convertFileToDriveItems(fetchFilesInDrive(drive.getId()));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }, null);
-
-            virtualRoot.getChildren().add(sharedDriveItem);
-        }
-
+        virtualRoot.setChildren(convertDrivesToDriveItems(drives));
         return virtualRoot;
     }
 
@@ -124,26 +546,102 @@ public class DriveAPIService {
      * @throws IOException If the request fails or an I/O error occurs.
      */
     public DriveItem fetchRootTrashedItems() throws IOException {
-        DriveItem virtualRoot = new DriveItem("root", "Trash", "virtual/root", 0, null, false, new ArrayList<>(), () -> {
+        DriveItem virtualRoot = new DriveItem("trash-root", "Trash", "virtual/root", 0, null, false, new ArrayList<>(), () -> {
             try {
-                return convertFileToDriveItems(fetchFiles("'root' in parents and trashed = true"));
+                return convertFileToDriveItems(fetchRootTrashedFiles());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }, null);
 
-        List<File> files = fetchFiles("'root' in parents and trashed = true");
-        virtualRoot.setChildren(convertFileToDriveItems(files));
+        virtualRoot.setChildren(convertFileToDriveItems(fetchRootTrashedFiles()));
 
         return virtualRoot;
     }
 
+    private List<File> fetchRootTrashedFiles() throws IOException {
+        DriveIndex current = this.index;
+        if (current != null && current.getRootFolderId() != null) {
+            return current.getChildren(current.getRootFolderId()).stream()
+                    .filter(file -> Boolean.TRUE.equals(file.getTrashed()))
+                    .toList();
+        }
+        return listCached("'root' in parents and trashed = true");
+    }
+
+    /**
+     * Checks whether items of the given type are left out of listings (forms, shortcuts and third-party app files
+     * cannot be cloned).
+     *
+     * @param mimeType The MIME type to check
+     * @return true if items of this type are never cloned
+     */
+    public static boolean isExcludedMimeType(String mimeType) {
+        return EXCLUDED_MIME_TYPE_SET.contains(mimeType);
+    }
+
+    /**
+     * Resolves the real ID of the user's My Drive root folder, which other items report as their parent.
+     *
+     * @return The ID behind the {@code root} alias
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public String fetchRootFolderId() throws IOException {
+        return driveService.files().get("root").setFields("id").execute().getId();
+    }
+
+    /**
+     * Fetches a single file's metadata, including its parents and trashed state.
+     *
+     * @param fileId The ID of the file to fetch
+     * @return The file's metadata
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public File fetchFile(String fileId) throws IOException {
+        Drive.Files.Get request = driveService.files().get(fileId).setFields(FILE_FIELDS + ", trashed").setSupportsAllDrives(true);
+        return batchedCall(request);
+    }
+
+    /**
+     * Returns the Changes API cursor for "now". Changes made after this call can later be read with
+     * {@link #fetchChangesSince(String)}.
+     *
+     * @return The start page token
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public String fetchStartPageToken() throws IOException {
+        return driveService.changes().getStartPageToken().setSupportsAllDrives(true).execute().getStartPageToken();
+    }
+
+    /**
+     * Reads every change recorded since {@code pageToken}, following pagination to the end of the feed.
+     *
+     * @param pageToken A token previously returned by {@link #fetchStartPageToken()} or by this method
+     * @return The changes in the order Drive reported them, and the token to resume from next time
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public ChangeBatch fetchChangesSince(String pageToken) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        String token = pageToken;
+        String newStartPageToken = null;
+        while (token != null) {
+            ChangeList result = driveService.changes().list(token).setFields("nextPageToken, newStartPageToken, changes(fileId, removed, file(" + INDEX_FIELDS + ", driveId))").setPageSize(1000).setIncludeRemoved(true).setSupportsAllDrives(true).setIncludeItemsFromAllDrives(true).execute();
+            changes.addAll(result.getChanges());
+            if (result.getNewStartPageToken() != null) {
+                newStartPageToken = result.getNewStartPageToken();
+            }
+            token = result.getNextPageToken();
+        }
+        return new ChangeBatch(changes, newStartPageToken);
+    }
+
     public List<DriveItem> convertDrivesToDriveItems(List<com.google.api.services.drive.model.Drive> drives) {
         List<DriveItem> driveItems = new ArrayList<>();
         for (com.google.api.services.drive.model.Drive drive : drives) {
-            DriveItem driveItem = new DriveItem(drive.getId(), drive.getName(), "virtual/root", 0, null, true, new ArrayList<>(), () -> {
+            String driveId = drive.getId();
+            DriveItem driveItem = new DriveItem(driveId, drive.getName(), "virtual/root", 0, null, true, new ArrayList<>(), () -> {
                 try {
-                    return convertFileToDriveItems(fetchFilesInDrive(drive.getId()));
+                    return convertFileToDriveItems(fetchSharedDriveChildren(driveId));
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -161,19 +659,110 @@ public class DriveAPIService {
      * @return A list of DriveItem objects
      */
     public List<DriveItem> convertFileToDriveItems(List<File> files) {
-        List<DriveItem> driveItems = new ArrayList<>();
+        List<DriveItem> driveItems = new ArrayList<>(files.size());
         for (File file : files) {
-            DriveItem driveItem = new DriveItem(file.getId(), file.getName(), file.getMimeType(), file.getSize() == null ? 0 : file.getSize(), file.getModifiedTime(), file.getShared() != null ? file.getShared() : false, new ArrayList<>(), () -> {
+            String fileId = file.getId();
+            // Only folders get a child list and a loader; files share the immutable empty list
+            boolean folder = FOLDER_MIME_TYPE.equals(file.getMimeType());
+            DriveItem driveItem = new DriveItem(fileId, file.getName(), file.getMimeType(), file.getSize() == null ? 0 : file.getSize(), file.getModifiedTime(), file.getShared() != null ? file.getShared() : false, folder ? new ArrayList<>() : List.of(), folder ? () -> {
                 try {
-                    return convertFileToDriveItems(fetchFiles("'" + file.getId() + "' in parents"));
+                    return convertFileToDriveItems(fetchChildren(fileId));
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
-            }, file.getWebContentLink() == null ? null : file.getWebContentLink()
+            } : null, file.getWebContentLink() == null ? null : file.getWebContentLink()
 
             );
+            driveItem.setMd5Checksum(file.getMd5Checksum());
+            driveItem.setVersion(file.getVersion() == null ? 0 : file.getVersion());
+            driveItem.setPrimaryParentId(file.getParents() == null || file.getParents().isEmpty() ? null : file.getParents().getFirst());
             driveItems.add(driveItem);
         }
         return driveItems;
     }
+
+    /**
+     * The result of reading the Changes API feed.
+     *
+     * @param changes           The changes since the requested token, oldest first
+     * @param newStartPageToken The token to read the next batch of changes from
+     */
+    public record ChangeBatch(List<Change> changes, String newStartPageToken) {
+    }
+
+    /**
+     * Which corpus a flat listing covers: the user's own items ({@code driveId == null}), trash included, or the
+     * live contents of a single shared drive.
+     *
+     * @param driveId The shared drive to list, or null for the user's corpus
+     */
+    public record ListingScope(String driveId) {
+        public static final ListingScope USER = new ListingScope(null);
+
+        String filter() {
+            return driveId == null ? "" : "trashed = false and ";
+        }
+    }
+
+    /**
+     * A half-open {@code modifiedTime} range of the corpus, listed with its own pagination cursor.
+     * A {@code null} bound means the range is open on that side.
+     */
+    private record ListingPartition(Instant from, Instant to) {
+        private static final Instant FIRST_BOUNDARY = Instant.parse("2006-01-01T00:00:00Z");
+        private static final Duration MIN_WIDTH = Duration.ofHours(1);
+
+        /**
+         * Cuts the whole timeline into {@code slices} bounded ranges plus an open range on each end,
+         * so every item falls into exactly one partition whatever its timestamp.
+         */
+        static List<ListingPartition> initial(Instant now, int slices) {
+            List<ListingPartition> partitions = new ArrayList<>();
+            partitions.add(new ListingPartition(null, FIRST_BOUNDARY));
+            long step = Duration.between(FIRST_BOUNDARY, now).toMillis() / slices;
+            Instant lower = FIRST_BOUNDARY;
+            for (int i = 1; i < slices; i++) {
+                Instant upper = FIRST_BOUNDARY.plusMillis(step * i);
+                partitions.add(new ListingPartition(lower, upper));
+                lower = upper;
+            }
+            partitions.add(new ListingPartition(lower, now));
+            partitions.add(new ListingPartition(now, null));
+            return partitions;
+        }
+
+        boolean isSplittable() {
+            return from != null && to != null && Duration.between(from, to).compareTo(MIN_WIDTH.multipliedBy(2)) >= 0;
+        }
+
+        /**
+         * @return The part of this range from {@code start} on, or the whole range if {@code start} is null or
+         * falls outside it
+         */
+        ListingPartition startingAt(Instant start) {
+            if (start == null || (from != null && !start.isAfter(from)) || (to != null && !start.isBefore(to))) {
+                return this;
+            }
+            return new ListingPartition(start, to);
+        }
+
+        List<ListingPartition> split() {
+            Instant middle = from.plusMillis(Duration.between(from, to).toMillis() / 2);
+            return List.of(new ListingPartition(from, middle), new ListingPartition(middle, to));
+        }
+
+        /**
+         * @return The query prefix for this range, ending in {@code " and "} when non-empty
+         */
+        String toQuery() {
+            StringBuilder query = new StringBuilder();
+            if (from != null) {
+                query.append("modifiedTime >= '").append(from).append("' and ");
+            }
+            if (to != null) {
+                query.append("modifiedTime < '").append(to).append("' and ");
+            }
+            return query.toString();
+        }
+    }
 }
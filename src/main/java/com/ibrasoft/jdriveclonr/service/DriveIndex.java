@@ -0,0 +1,402 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import lombok.Getter;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory parent → children index built from a single flat listing of the user's Drive.
+ * Once built, folder expansion is a map lookup instead of a {@code '<id>' in parents} round trip.
+ * <p>
+ * The index is immutable after {@link Builder#build()}, so it can be shared freely between the tree UI
+ * and the download threads. It also remembers the Changes API cursor it is current as of, so it can be
+ * brought up to date later without listing everything again.
+ * <p>
+ * A Drive can hold millions of items, so the built index is stored column-wise rather than as API {@link File}
+ * objects: one array per attribute, MIME types coded against a small table of distinct values, timestamps,
+ * versions and checksums as primitives, and parent/child links as {@code int} slots in compressed adjacency arrays. The
+ * {@link File}s handed out by the accessors are short-lived views assembled on demand.
+ */
+public class DriveIndex {
+    private static final int NONE = -1;
+
+    private static final int FLAG_SHARED = 1;
+    private static final int FLAG_TRASHED = 1 << 1;
+    private static final int FLAG_OWNED_BY_ME = 1 << 2;
+    private static final int FLAG_SHARED_WITH_ME = 1 << 3;
+    private static final int FLAG_STANDARD_CONTENT_LINK = 1 << 4;
+    private static final int FLAG_MD5 = 1 << 5;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /*
+     * Slots 0..size-1 are the indexed items. Parents that are not items themselves (the My Drive root, a shared
+     * drive, folders outside the listed corpus) get the slots after them, so every link is a plain int.
+     */
+    private final String[] slotIds;
+    private final int size;
+    private final int[] slotLookup;
+
+    private final String[] names;
+    private final String[] mimeTypeTable;
+    private final short[] mimeTypeCodes;
+    private final long[] sizes;
+    private final long[] modifiedTimes;
+    private final long[] versions;
+    private final byte[] flags;
+    private final long[] md5Checksums;
+    private final Map<Integer, String> irregularContentLinks;
+    private final Map<Integer, String> irregularChecksums;
+
+    private final int[] parentOffsets;
+    private final int[] parentSlots;
+    private final int[] childOffsets;
+    private final int[] childSlots;
+
+    @Getter
+    private final String rootFolderId;
+    @Getter
+    private final String startPageToken;
+
+    private DriveIndex(Collection<Row> rows, String rootFolderId, String startPageToken) {
+        this.rootFolderId = rootFolderId;
+        this.startPageToken = startPageToken;
+        this.size = rows.size();
+
+        // Assign slots: items first, then the parents that are not items
+        Map<String, Integer> slots = new HashMap<>(size * 2);
+        List<String> ids = new ArrayList<>(size);
+        for (Row row : rows) {
+            slots.put(row.id, ids.size());
+            ids.add(row.id);
+        }
+        int linkCount = 0;
+        for (Row row : rows) {
+            for (String parentId : row.parents) {
+                linkCount++;
+                if (!slots.containsKey(parentId)) {
+                    slots.put(parentId, ids.size());
+                    ids.add(parentId);
+                }
+            }
+        }
+        this.slotIds = ids.toArray(new String[0]);
+        this.slotLookup = buildLookup(slotIds);
+
+        this.names = new String[size];
+        this.mimeTypeCodes = new short[size];
+        this.sizes = new long[size];
+        this.modifiedTimes = new long[size];
+        this.versions = new long[size];
+        this.flags = new byte[size];
+        this.md5Checksums = new long[size * 2];
+        this.irregularContentLinks = new HashMap<>();
+        this.irregularChecksums = new HashMap<>();
+        this.parentOffsets = new int[size + 1];
+        this.parentSlots = new int[linkCount];
+
+        Map<String, Short> mimeCodes = new LinkedHashMap<>();
+        int[] childCounts = new int[slotIds.length];
+        int item = 0;
+        int link = 0;
+        for (Row row : rows) {
+            names[item] = row.name;
+            mimeTypeCodes[item] = mimeCodes.computeIfAbsent(row.mimeType, mime -> (short) mimeCodes.size());
+            sizes[item] = row.size;
+            modifiedTimes[item] = row.modifiedTime;
+            versions[item] = row.version;
+
+            int itemFlags = row.flags;
+            if (row.webContentLink != null) {
+                if (row.webContentLink.equals(standardContentLink(row.id))) {
+                    itemFlags |= FLAG_STANDARD_CONTENT_LINK;
+                } else {
+                    irregularContentLinks.put(item, row.webContentLink);
+                }
+            }
+            if (row.md5Checksum != null) {
+                if (isPackableChecksum(row.md5Checksum)) {
+                    itemFlags |= FLAG_MD5;
+                    md5Checksums[item * 2] = HEX.fromHexDigitsToLong(row.md5Checksum, 0, 16);
+                    md5Checksums[item * 2 + 1] = HEX.fromHexDigitsToLong(row.md5Checksum, 16, 32);
+                } else {
+                    irregularChecksums.put(item, row.md5Checksum);
+                }
+            }
+            flags[item] = (byte) itemFlags;
+
+            parentOffsets[item] = link;
+            for (String parentId : row.parents) {
+                int parentSlot = slots.get(parentId);
+                parentSlots[link++] = parentSlot;
+                childCounts[parentSlot]++;
+            }
+            item++;
+        }
+        parentOffsets[size] = link;
+        this.mimeTypeTable = mimeCodes.keySet().toArray(new String[0]);
+
+        // Invert the parent links into per-slot child ranges
+        this.childOffsets = new int[slotIds.length + 1];
+        for (int slot = 0; slot < slotIds.length; slot++) {
+            childOffsets[slot + 1] = childOffsets[slot] + childCounts[slot];
+        }
+        this.childSlots = new int[linkCount];
+        int[] cursor = Arrays.copyOf(childOffsets, slotIds.length);
+        for (int child = 0; child < size; child++) {
+            for (int p = parentOffsets[child]; p < parentOffsets[child + 1]; p++) {
+                childSlots[cursor[parentSlots[p]]++] = child;
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return A builder pre-populated with this index, for applying changes to a copy of it
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.rootFolderId = rootFolderId;
+        builder.startPageToken = startPageToken;
+        for (int item = 0; item < size; item++) {
+            builder.putRow(toRow(item));
+        }
+        return builder;
+    }
+
+    /**
+     * Checks whether the given folder was part of the indexed listing. Only then is
+     * {@link #getChildren(String)} guaranteed to be complete; folders outside the listed corpus
+     * (e.g. inside shared drives) have to be listed from the API instead.
+     *
+     * @param folderId The ID of the folder to check
+     * @return true if the folder's children can be answered from the index, false otherwise
+     */
+    public boolean covers(String folderId) {
+        int slot = slotOf(folderId);
+        return (slot != NONE && slot < size) || (folderId != null && folderId.equals(rootFolderId));
+    }
+
+    /**
+     * Returns the direct children of the given folder.
+     *
+     * @param folderId The ID of the parent folder
+     * @return The folder's children, or an empty list if it has none
+     */
+    public List<File> getChildren(String folderId) {
+        int slot = slotOf(folderId);
+        if (slot == NONE) {
+            return List.of();
+        }
+        int from = childOffsets[slot];
+        int to = childOffsets[slot + 1];
+        List<File> children = new ArrayList<>(to - from);
+        for (int c = from; c < to; c++) {
+            children.add(toFile(childSlots[c]));
+        }
+        return children;
+    }
+
+    public File get(String id) {
+        int slot = slotOf(id);
+        return slot == NONE || slot >= size ? null : toFile(slot);
+    }
+
+    /**
+     * @return A view of every indexed item; each element is assembled when it is read
+     */
+    public Collection<File> getAll() {
+        return new AbstractList<>() {
+            @Override
+            public File get(int index) {
+                return toFile(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slotOf(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        int mask = slotLookup.length - 1;
+        for (int i = id.hashCode() & mask; slotLookup[i] != 0; i = (i + 1) & mask) {
+            int slot = slotLookup[i] - 1;
+            if (slotIds[slot].equals(id)) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Open-addressing table from ID hash to slot + 1 (0 marks an empty cell), kept at most half full.
+     */
+    private static int[] buildLookup(String[] ids) {
+        int[] table = new int[Math.max(2, Integer.highestOneBit(Math.max(1, ids.length) * 2) << 1)];
+        int mask = table.length - 1;
+        for (int slot = 0; slot < ids.length; slot++) {
+            int i = ids[slot].hashCode() & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot + 1;
+        }
+        return table;
+    }
+
+    private File toFile(int item) {
+        Row row = toRow(item);
+        File file = new File()
+                .setId(row.id)
+                .setName(row.name)
+                .setMimeType(row.mimeType.isEmpty() ? null : row.mimeType)
+                .setShared((row.flags & FLAG_SHARED) != 0)
+                .setTrashed((row.flags & FLAG_TRASHED) != 0)
+                .setOwnedByMe((row.flags & FLAG_OWNED_BY_ME) != 0)
+                .setWebContentLink(row.webContentLink)
+                .setMd5Checksum(row.md5Checksum);
+        if (row.size >= 0) file.setSize(row.size);
+        if (row.modifiedTime >= 0) file.setModifiedTime(new DateTime(row.modifiedTime));
+        if (row.version >= 0) file.setVersion(row.version);
+        if ((row.flags & FLAG_SHARED_WITH_ME) != 0) file.setSharedWithMeTime(new DateTime(0));
+        if (row.parents.length > 0) file.setParents(List.of(row.parents));
+        return file;
+    }
+
+    private Row toRow(int item) {
+        int itemFlags = flags[item];
+        String id = slotIds[item];
+
+        String contentLink = (itemFlags & FLAG_STANDARD_CONTENT_LINK) != 0 ? standardContentLink(id) : irregularContentLinks.get(item);
+        String md5 = (itemFlags & FLAG_MD5) != 0
+                ? HEX.toHexDigits(md5Checksums[item * 2]) + HEX.toHexDigits(md5Checksums[item * 2 + 1])
+                : irregularChecksums.get(item);
+
+        String[] parents = new String[parentOffsets[item + 1] - parentOffsets[item]];
+        for (int p = 0; p < parents.length; p++) {
+            parents[p] = slotIds[parentSlots[parentOffsets[item] + p]];
+        }
+
+        int rowFlags = itemFlags & (FLAG_SHARED | FLAG_TRASHED | FLAG_OWNED_BY_ME | FLAG_SHARED_WITH_ME);
+        return new Row(id, names[item], mimeTypeTable[mimeTypeCodes[item]], sizes[item], modifiedTimes[item], versions[item], rowFlags, contentLink, md5, parents);
+    }
+
+    /**
+     * The download link Drive reports for every file with binary content; storing it would cost more than the
+     * rest of the item's metadata combined, so it is rebuilt from the ID instead.
+     */
+    private static String standardContentLink(String id) {
+        return "https://drive.google.com/uc?id=" + id + "&export=download";
+    }
+
+    private static boolean isPackableChecksum(String md5) {
+        if (md5.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < md5.length(); i++) {
+            char c = md5.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The metadata the index keeps for one item, without the {@link File}'s generic JSON machinery.
+     * Sizes, timestamps and versions are -1 when absent.
+     */
+    private record Row(String id, String name, String mimeType, long size, long modifiedTime, long version, int flags,
+                       String webContentLink, String md5Checksum, String[] parents) {
+
+        static Row of(File file) {
+            int flags = 0;
+            if (Boolean.TRUE.equals(file.getShared())) flags |= FLAG_SHARED;
+            if (Boolean.TRUE.equals(file.getTrashed())) flags |= FLAG_TRASHED;
+            if (Boolean.TRUE.equals(file.getOwnedByMe())) flags |= FLAG_OWNED_BY_ME;
+            if (file.getSharedWithMeTime() != null) flags |= FLAG_SHARED_WITH_ME;
+            return new Row(file.getId(), file.getName(), file.getMimeType() == null ? "" : file.getMimeType(),
+                    file.getSize() == null ? -1 : file.getSize(),
+                    file.getModifiedTime() == null ? -1 : file.getModifiedTime().getValue(),
+                    file.getVersion() == null ? -1 : file.getVersion(),
+                    flags, file.getWebContentLink(), file.getMd5Checksum(),
+                    file.getParents() == null ? new String[0] : file.getParents().toArray(new String[0]));
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, Row> rowsById = new LinkedHashMap<>();
+        private String rootFolderId;
+        private String startPageToken;
+
+        /**
+         * Adds a file, keeping the first copy if the same file is seen twice during one listing.
+         */
+        public synchronized Builder add(File file) {
+            if (!rowsById.containsKey(file.getId())) {
+                put(file);
+            }
+            return this;
+        }
+
+        public synchronized Builder addAll(Collection<File> files) {
+            for (File file : files) {
+                add(file);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a file, replacing (and re-parenting) any previous version of it.
+         */
+        public synchronized Builder put(File file) {
+            return putRow(Row.of(file));
+        }
+
+        private synchronized Builder putRow(Row row) {
+            rowsById.put(row.id, row);
+            return this;
+        }
+
+        public synchronized Builder remove(String id) {
+            rowsById.remove(id);
+            return this;
+        }
+
+        public synchronized Builder rootFolderId(String rootFolderId) {
+            this.rootFolderId = rootFolderId;
+            return this;
+        }
+
+        public synchronized Builder startPageToken(String startPageToken) {
+            this.startPageToken = startPageToken;
+            return this;
+        }
+
+        public synchronized DriveIndex build() {
+            return new DriveIndex(rowsById.values(), rootFolderId, startPageToken);
+        }
+    }
+}
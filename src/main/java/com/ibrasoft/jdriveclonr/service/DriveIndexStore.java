@@ -0,0 +1,149 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists a {@link DriveIndex} between sessions, so the Drive tree can be shown straight from disk on startup and
+ * then refreshed from the Changes API in the background.
+ * <p>
+ * The format is a flat binary dump of the metadata the index needs (ID, parents, name, MIME type, size, modified
+ * time, version, checksum and a few flags) rather than the API's JSON, which keeps both the file and the load time
+ * small.
+ */
+public class DriveIndexStore {
+    private static final Logger logger = LoggerFactory.getLogger(DriveIndexStore.class);
+
+    public static final Path DEFAULT_PATH = Paths.get("cache", "drive-index.bin");
+
+    private static final int MAGIC = 0x44434958; // "DCIX"
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int FLAG_SHARED = 1;
+    private static final int FLAG_TRASHED = 1 << 1;
+    private static final int FLAG_OWNED_BY_ME = 1 << 2;
+    private static final int FLAG_SHARED_WITH_ME = 1 << 3;
+
+    /**
+     * Loads a previously saved index.
+     *
+     * @param path The file the index was saved to
+     * @return The index, or null if none was saved or it cannot be read (it is only a cache)
+     */
+    public static DriveIndex load(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            int format = in.readInt() == MAGIC ? in.readInt() : 0;
+            if (format < 1 || format > FORMAT_VERSION) {
+                logger.warn("Ignoring Drive index cache in an unknown format: {}", path);
+                return null;
+            }
+            DriveIndex.Builder builder = DriveIndex.builder()
+                    .startPageToken(emptyToNull(in.readUTF()))
+                    .rootFolderId(emptyToNull(in.readUTF()));
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                File file = new File()
+                        .setId(in.readUTF())
+                        .setName(in.readUTF())
+                        .setMimeType(in.readUTF());
+                long size = in.readLong();
+                if (size >= 0) file.setSize(size);
+                long modifiedTime = in.readLong();
+                if (modifiedTime >= 0) file.setModifiedTime(new DateTime(modifiedTime));
+                // Version 1 did not record versions
+                long version = format >= 2 ? in.readLong() : -1;
+                if (version >= 0) file.setVersion(version);
+                int flags = in.readUnsignedByte();
+                file.setShared((flags & FLAG_SHARED) != 0);
+                file.setTrashed((flags & FLAG_TRASHED) != 0);
+                file.setOwnedByMe((flags & FLAG_OWNED_BY_ME) != 0);
+                if ((flags & FLAG_SHARED_WITH_ME) != 0) file.setSharedWithMeTime(new DateTime(0));
+                file.setWebContentLink(emptyToNull(in.readUTF()));
+                file.setMd5Checksum(emptyToNull(in.readUTF()));
+                int parentCount = in.readUnsignedShort();
+                if (parentCount > 0) {
+                    List<String> parents = new ArrayList<>(parentCount);
+                    for (int p = 0; p < parentCount; p++) {
+                        parents.add(in.readUTF());
+                    }
+                    file.setParents(parents);
+                }
+                builder.put(file);
+            }
+            return builder.build();
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable Drive index cache {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index, replacing any previous copy atomically.
+     *
+     * @param index The index to save
+     * @param path  The file to save it to
+     * @throws IOException If the index cannot be written
+     */
+    public static void save(DriveIndex index, Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(nullToEmpty(index.getStartPageToken()));
+            out.writeUTF(nullToEmpty(index.getRootFolderId()));
+            out.writeInt(index.size());
+            for (File file : index.getAll()) {
+                out.writeUTF(file.getId());
+                out.writeUTF(nullToEmpty(file.getName()));
+                out.writeUTF(nullToEmpty(file.getMimeType()));
+                out.writeLong(file.getSize() == null ? -1 : file.getSize());
+                out.writeLong(file.getModifiedTime() == null ? -1 : file.getModifiedTime().getValue());
+                out.writeLong(file.getVersion() == null ? -1 : file.getVersion());
+                int flags = 0;
+                if (Boolean.TRUE.equals(file.getShared())) flags |= FLAG_SHARED;
+                if (Boolean.TRUE.equals(file.getTrashed())) flags |= FLAG_TRASHED;
+                if (Boolean.TRUE.equals(file.getOwnedByMe())) flags |= FLAG_OWNED_BY_ME;
+                if (file.getSharedWithMeTime() != null) flags |= FLAG_SHARED_WITH_ME;
+                out.writeByte(flags);
+                out.writeUTF(nullToEmpty(file.getWebContentLink()));
+                out.writeUTF(nullToEmpty(file.getMd5Checksum()));
+                List<String> parents = file.getParents() == null ? List.of() : file.getParents();
+                out.writeShort(parents.size());
+                for (String parentId : parents) {
+                    out.writeUTF(parentId);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,272 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces small metadata requests to one Google API into batch requests.
+ * <p>
+ * A request submitted while nothing else is waiting or being sent goes out straight away, so a caller making one
+ * request at a time never waits. Requests that arrive while others are in flight are held for a short linger window
+ * (or until {@code MAX_BATCH_SIZE} are waiting) and then sent as a single multipart batch, with each part's response
+ * or error handed back to its caller.
+ * <p>
+ * Only JSON metadata calls can be batched; media downloads and exports must still be executed directly. Batches go
+ * to the API's own batch endpoint (e.g. {@link #DRIVE_BATCH_URL}), since the global one older client libraries
+ * default to has been retired. If a batch call fails anyway, the affected requests are retried one by one.
+ * <p>
+ * Each HTTP call the batcher makes takes a slot of its {@link QuotaClass} and one rate permit per request it carries,
+ * only for as long as the call runs. Callers retry failed requests with {@link QuotaLimiters#retry}, not
+ * {@link QuotaLimiters#execute}, so no slot is held while a request waits out the linger window.
+ */
+public class GoogleBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(GoogleBatcher.class);
+
+    /**
+     * The most calls Google accepts in one batch request.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final String DRIVE_BATCH_URL = "https://www.googleapis.com/batch/drive/v3";
+    public static final String SHEETS_BATCH_URL = "https://sheets.googleapis.com/batch";
+    private static final Duration DEFAULT_LINGER = Duration.ofMillis(15);
+    private static final int SENDER_THREADS = 4;
+
+    private final AbstractGoogleClient client;
+    private final GenericUrl batchUrl;
+    private final QuotaLimiters quotaLimiters;
+    private final QuotaClass quota;
+    private final Duration linger;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+
+    private final Object lock = new Object();
+    private List<Pending<?>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    /**
+     * Direct requests and batches handed to the senders and not finished yet.
+     */
+    private int sending;
+
+    /**
+     * @param client        The client whose requests are batched
+     * @param batchUrl      The API's batch endpoint, e.g. {@link #DRIVE_BATCH_URL}
+     * @param quotaLimiters The limits to send under, or null to send without any
+     * @param quota         The quota class every request counts against
+     */
+    public GoogleBatcher(AbstractGoogleClient client, String batchUrl, QuotaLimiters quotaLimiters, QuotaClass quota) {
+        this(client, batchUrl, quotaLimiters, quota, DEFAULT_LINGER);
+    }
+
+    public GoogleBatcher(AbstractGoogleClient client, String batchUrl, QuotaLimiters quotaLimiters, QuotaClass quota, Duration linger) {
+        this.client = client;
+        this.batchUrl = new GenericUrl(batchUrl);
+        this.quotaLimiters = quotaLimiters;
+        this.quota = quota;
+        this.linger = linger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GoogleBatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.senders = Executors.newFixedThreadPool(SENDER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "GoogleBatchSender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends a request straight away if the batcher is idle, or queues it for the next batch.
+     *
+     * @param request A JSON metadata request built on this batcher's client
+     * @return A future completed with the request's response, or with its {@link IOException}
+     */
+    public <T> CompletableFuture<T> submit(AbstractGoogleJsonClientRequest<T> request) {
+        Pending<T> call = new Pending<>(request, new CompletableFuture<>());
+        List<Pending<?>> ready = null;
+        synchronized (lock) {
+            if (pending.isEmpty() && sending == 0) {
+                ready = List.of(call);
+            } else {
+                pending.add(call);
+                if (pending.size() >= MAX_BATCH_SIZE) {
+                    ready = drain();
+                } else if (scheduledFlush == null) {
+                    scheduledFlush = scheduler.schedule(this::flush, linger.toMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+            if (ready != null) {
+                sending++;
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+        return call.result();
+    }
+
+    /**
+     * Sends a request as part of the next batch and waits for its response, as {@code request.execute()} would.
+     *
+     * @param request A JSON metadata request built on this batcher's client
+     * @return The parsed response
+     * @throws IOException If the request fails or an I/O error occurs.
+     */
+    public <T> T execute(AbstractGoogleJsonClientRequest<T> request) throws IOException {
+        try {
+            return submit(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batched request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Batched request failed", e.getCause());
+        }
+    }
+
+    private void flush() {
+        List<Pending<?>> batch;
+        synchronized (lock) {
+            batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            sending++;
+        }
+        dispatch(batch);
+    }
+
+    /**
+     * Hands a batch (or a lone request) to the senders; the caller has counted it in {@code sending}.
+     */
+    private void dispatch(List<Pending<?>> batch) {
+        try {
+            senders.execute(() -> {
+                try {
+                    send(batch);
+                } finally {
+                    synchronized (lock) {
+                        sending--;
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                sending--;
+            }
+            batch.forEach(call -> call.result().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Takes everything waiting; must hold {@code lock}.
+     */
+    private List<Pending<?>> drain() {
+        List<Pending<?>> batch = pending;
+        pending = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void send(List<Pending<?>> batch) {
+        if (batch.size() == 1) {
+            sendDirectly(batch.getFirst());
+            return;
+        }
+        try {
+            BatchRequest request = client.batch().setBatchUrl(batchUrl);
+            for (Pending<?> call : batch) {
+                call.queue(request);
+            }
+            limited(batch.size(), () -> {
+                request.execute();
+                return null;
+            });
+            // The batch went through, but each part counts against the quota, and any of them can be rate limited
+            if (quotaLimiters != null) {
+                for (Pending<?> call : batch) {
+                    if (call.result().state() == Future.State.FAILED && call.result().exceptionNow() instanceof IOException e) {
+                        quotaLimiters.get(quota).recordFailure(e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(call -> call.result().completeExceptionally(new InterruptedIOException("Interrupted while sending a batch")));
+        } catch (IOException e) {
+            logger.warn("Batch of {} requests failed, sending them individually: {}", batch.size(), e.getMessage());
+            for (Pending<?> call : batch) {
+                if (!call.result().isDone()) {
+                    sendDirectly(call);
+                }
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(call -> call.result().completeExceptionally(e));
+        }
+    }
+
+    private <T> void sendDirectly(Pending<T> call) {
+        try {
+            call.result().complete(limited(1, call.request()::execute));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.result().completeExceptionally(new InterruptedIOException("Interrupted while sending a request"));
+        } catch (IOException | RuntimeException e) {
+            call.result().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Runs one HTTP call under the quota class's slot and rate limits, if limits were provided.
+     */
+    private <T> T limited(int calls, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        return quotaLimiters != null ? quotaLimiters.executeOnce(quota, calls, call) : call.execute();
+    }
+
+    private record Pending<T>(AbstractGoogleJsonClientRequest<T> request, CompletableFuture<T> result) {
+
+        void queue(BatchRequest batch) throws IOException {
+            request.queue(batch, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T response, HttpHeaders responseHeaders) {
+                    result.complete(response);
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    // Rebuilt as the exception a direct call would have thrown, so callers can inspect the status
+                    result.completeExceptionally(new GoogleJsonResponseException(
+                            new HttpResponseException.Builder(error.getCode(), error.getMessage(), responseHeaders), error));
+                }
+            });
+        }
+    }
+}
@@ -1,22 +1,55 @@
 package com.ibrasoft.jdriveclonr.service;
 
 import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.SslUtils;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.slides.v1.Slides;
-import com.google.common.util.concurrent.RateLimiter;
-import lombok.AllArgsConstructor;
+import com.google.common.base.Suppliers;
 import lombok.Getter;
+import org.apache.http.client.HttpClient;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+import javax.net.ssl.SSLContext;
 import javax.security.auth.login.CredentialNotFoundException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * Builds the Google API clients, once per credential.
+ * <p>
+ * All clients share one pooled HTTP transport, so connections to Google are kept alive and reused across services.
+ * The pool and timeouts come from system properties: {@code driveclonr.google.maxConnections} (default 128),
+ * {@code driveclonr.google.maxConnectionsPerRoute} (per host, default 64), {@code driveclonr.google.connectTimeoutSeconds}
+ * (default 20) and {@code driveclonr.google.readTimeoutSeconds} (default 60).
+ */
 public class GoogleServiceFactory {
-    
-    private static final RateLimiter rateLimiter = RateLimiter.create(1);
+    private static final String APPLICATION_NAME = "DriveClonr";
+    private static final int MAX_CONNECTIONS = Integer.getInteger("driveclonr.google.maxConnections", 128);
+    private static final int MAX_CONNECTIONS_PER_ROUTE = Integer.getInteger("driveclonr.google.maxConnectionsPerRoute", 64);
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(Integer.getInteger("driveclonr.google.connectTimeoutSeconds", 20));
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(Integer.getInteger("driveclonr.google.readTimeoutSeconds", 60));
+
+    /**
+     * Shared by everything that talks to Google: the quotas are per user, not per service instance.
+     */
+    @Getter
+    private static final QuotaLimiters quotaLimiters = new QuotaLimiters();
     public static Credential credential;
 
+    private static ApacheHttpTransport transport;
+    private static GoogleServices services;
+
     public static void authorize(Credential cred) {
         if (cred == null) {
             throw new IllegalArgumentException("Credential cannot be null");
@@ -24,43 +57,94 @@ public class GoogleServiceFactory {
         credential = cred;
     }
 
-    public static GoogleServices createServices() throws Exception {
+    /**
+     * @return The services for the authorized credential, built on first use
+     */
+    public static GoogleServices getServices() throws Exception {
         if (credential == null) {
             throw new CredentialNotFoundException("Credential not set. Please call GoogleOAuthService.authorize() first.");
         }
-        return createServices(credential);
+        return getServices(credential);
     }
 
-    public static GoogleServices createServices(Credential credential) throws Exception {
-        var transport = GoogleNetHttpTransport.newTrustedTransport();
-        var jsonFactory = GsonFactory.getDefaultInstance();
-        
-        Drive drive = new Drive.Builder(transport, jsonFactory, credential)
-                .setApplicationName("DriveClonr")
-                .build();
-                
-        Sheets sheets = new Sheets.Builder(transport, jsonFactory, credential)
-                .setApplicationName("DriveClonr")
-                .build();
-                
-        Slides slides = new Slides.Builder(transport, jsonFactory, credential)
-                .setApplicationName("DriveClonr")
-                .build();
-                
-        return new GoogleServices(drive, sheets, slides, credential, rateLimiter);
+    /**
+     * Returns the services for a credential, building them the first time it is seen. Signing in with another
+     * credential replaces the cached services.
+     */
+    public static synchronized GoogleServices getServices(Credential credential) throws GeneralSecurityException, IOException {
+        if (services == null || services.getCredential() != credential) {
+            services = new GoogleServices(getTransport(), credential);
+        }
+        return services;
     }
 
     public static Drive getDriveService() throws Exception {
-        return createServices().getDriveService();
+        return getServices().getDriveService();
+    }
+
+    private static synchronized ApacheHttpTransport getTransport() throws GeneralSecurityException, IOException {
+        if (transport == null) {
+            transport = newTransport();
+        }
+        return transport;
     }
-    
-    @AllArgsConstructor
+
+    /**
+     * Same trust setup as {@code GoogleApacheHttpTransport.newTrustedTransport()}, but with our own pool sizes.
+     */
+    private static ApacheHttpTransport newTransport() throws GeneralSecurityException, IOException {
+        SSLContext sslContext = SslUtils.getTlsSslContext();
+        SslUtils.initSslContext(sslContext, GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", new SSLConnectionSocketFactory(sslContext))
+                        .build());
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+        HttpClient client = ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setConnectionManager(connections)
+                .build();
+        return new ApacheHttpTransport(client);
+    }
+
+    /**
+     * The clients for one credential. Drive is always needed; the Sheets and Slides clients (and the Sheets batcher's
+     * threads) are only built once a Sheet or Slides file is actually exported.
+     */
     @Getter
     public static class GoogleServices {
         private final Drive driveService;
-        private final Sheets sheetsService;
-        private final Slides slidesService;
+        private final Supplier<Sheets> sheetsService;
+        private final Supplier<Slides> slidesService;
         private final Credential credential;
-        private final RateLimiter rateLimiter;
+        private final QuotaLimiters quotaLimiters;
+        private final GoogleBatcher driveBatcher;
+        private final Supplier<GoogleBatcher> sheetsBatcher;
+
+        private GoogleServices(ApacheHttpTransport transport, Credential credential) {
+            var jsonFactory = GsonFactory.getDefaultInstance();
+            HttpRequestInitializer initializer = request -> {
+                credential.initialize(request);
+                request.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                request.setReadTimeout(READ_TIMEOUT_MILLIS);
+            };
+
+            this.driveService = new Drive.Builder(transport, jsonFactory, initializer)
+                    .setApplicationName(APPLICATION_NAME)
+                    .build();
+            this.sheetsService = Suppliers.memoize(() -> new Sheets.Builder(transport, jsonFactory, initializer)
+                    .setApplicationName(APPLICATION_NAME)
+                    .build());
+            this.slidesService = Suppliers.memoize(() -> new Slides.Builder(transport, jsonFactory, initializer)
+                    .setApplicationName(APPLICATION_NAME)
+                    .build());
+            this.credential = credential;
+            this.quotaLimiters = GoogleServiceFactory.quotaLimiters;
+            this.driveBatcher = new GoogleBatcher(driveService, GoogleBatcher.DRIVE_BATCH_URL, quotaLimiters, QuotaClass.DRIVE_METADATA);
+            this.sheetsBatcher = Suppliers.memoize(() -> new GoogleBatcher(sheetsService.get(), GoogleBatcher.SHEETS_BATCH_URL, quotaLimiters, QuotaClass.SHEETS));
+        }
     }
 }
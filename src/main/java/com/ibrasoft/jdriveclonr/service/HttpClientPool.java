@@ -0,0 +1,157 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One long-lived {@link HttpClient} for everything downloaded outside the Google API clients: export links, Sheets
+ * tab exports and Slides thumbnails.
+ * <p>
+ * Sharing the client lets its connections be kept alive and, over HTTP/2, multiplexed, so a small file no longer pays
+ * for its own TCP and TLS handshake. {@link #warmUp()} opens connections to the usual hosts ahead of the first
+ * download. The JDK client does not expose its connection pool, so only the request count and the share of responses
+ * that came over HTTP/2 (where requests to a host share one connection) are tracked.
+ * <p>
+ * Settings come from system properties: {@code driveclonr.http.connectTimeoutSeconds} (default 15),
+ * {@code driveclonr.http.requestTimeoutSeconds} (time to response headers, default 60) and
+ * {@code driveclonr.http.version} ({@code HTTP_2} or {@code HTTP_1_1}, default {@code HTTP_2}). Keep-alive time and
+ * pool size are the JDK's own {@code jdk.httpclient.keepalive.timeout} and {@code jdk.httpclient.connectionPoolSize}.
+ */
+public class HttpClientPool {
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+    /**
+     * Hosts most downloads go to: export links, Sheets exports and Slides thumbnails.
+     */
+    private static final List<String> WARM_UP_URLS = List.of(
+            "https://docs.google.com/",
+            "https://www.googleapis.com/",
+            "https://lh3.googleusercontent.com/");
+
+    private static final HttpClientPool SHARED = new HttpClientPool(
+            Duration.ofSeconds(Integer.getInteger("driveclonr.http.connectTimeoutSeconds", 15)),
+            Duration.ofSeconds(Integer.getInteger("driveclonr.http.requestTimeoutSeconds", 60)),
+            HttpClient.Version.valueOf(System.getProperty("driveclonr.http.version", "HTTP_2")));
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+
+    public HttpClientPool(Duration connectTimeout, Duration requestTimeout, HttpClient.Version version) {
+        AtomicInteger threads = new AtomicInteger();
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .executor(Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "HttpClientPool-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+        this.requestTimeout = requestTimeout;
+    }
+
+    public static HttpClientPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Sends a GET and returns the response once its status is known, with the body still to be read.
+     * Failures are raised as {@link HttpResponseException}, like the API client's own, so the status code, any
+     * {@code Retry-After} and the error body (e.g. a rate-limit reason) can be told apart by callers.
+     *
+     * @param link  The URL to download
+     * @param token An OAuth access token to send, or null for public links
+     * @return The response; its body must be closed by the caller
+     * @throws IOException          If the request fails or the status is not 200
+     * @throws InterruptedException If interrupted while waiting for the response
+     */
+    public HttpResponse<InputStream> open(String link, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(link))
+                .timeout(requestTimeout)
+                .GET();
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        record(response);
+
+        if (response.statusCode() != 200) {
+            try (InputStream errStream = response.body()) {
+                String err = new String(errStream.readAllBytes(), StandardCharsets.UTF_8);
+                HttpHeaders headers = new HttpHeaders();
+                response.headers().firstValue("Retry-After").ifPresent(headers::setRetryAfter);
+                throw new HttpResponseException.Builder(response.statusCode(), null, headers)
+                        .setMessage("Failed to download: HTTP " + response.statusCode() + " – " + err)
+                        .setContent(err)
+                        .build();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Opens connections to the usual download hosts in the background, so the first downloads find them ready.
+     * Failures are ignored; the connections are simply opened later.
+     */
+    public void warmUp() {
+        for (String url : WARM_UP_URLS) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(requestTimeout)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+            CompletableFuture<HttpResponse<Void>> warm = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+            warm.whenComplete((response, error) -> {
+                if (error != null) {
+                    logger.debug("Could not warm up a connection to {}: {}", url, error.getMessage());
+                }
+            });
+        }
+    }
+
+    private void record(HttpResponse<?> response) {
+        requests.incrementAndGet();
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHttp2Responses() {
+        return http2Responses.get();
+    }
+
+    /**
+     * @return e.g. {@code "120 requests (100% HTTP/2)"}
+     */
+    public String describe() {
+        long sent = requests.get();
+        if (sent == 0) {
+            return "no requests";
+        }
+        return String.format("%d requests (%d%% HTTP/2)", sent, http2Responses.get() * 100 / sent);
+    }
+}
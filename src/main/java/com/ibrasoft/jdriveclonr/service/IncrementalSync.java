@@ -0,0 +1,269 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.File;
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import lombok.AllArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Brings an existing clone up to date by replaying the Drive Changes API feed against its {@link SyncManifest},
+ * instead of listing and downloading the whole selection again.
+ * <p>
+ * Only items inside the previously cloned scope are touched: changes are placed under a folder the manifest already
+ * knows, and anything that moves out of that scope (or into or out of the trash) is removed locally.
+ */
+@AllArgsConstructor
+public class IncrementalSync {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalSync.class);
+    private static final String FOLDER_MIME = "application/vnd.google-apps.folder";
+
+    /**
+     * Hooks back into the download pipeline, so new and modified items go through the same discovery, download and
+     * manifest bookkeeping as a full clone.
+     */
+    public interface Actions {
+        Path outputPathFor(DriveItem file, Path directory);
+
+        void download(DriveItem file, Path directory, String parentId, boolean trashed);
+
+        void discover(DriveItem folder, Path directory, String parentId, boolean trashed);
+
+        /**
+         * @return True if the file has already been queued this run, e.g. while discovering a folder that is new in
+         * the same batch of changes
+         */
+        boolean isQueued(String fileId);
+    }
+
+    private final DriveAPIService driveAPI;
+    private final SyncManifest manifest;
+    private final Actions actions;
+
+    /**
+     * Applies every change since the manifest's start page token.
+     *
+     * @return The token the manifest should be saved with once the resulting downloads have finished
+     * @throws IOException If the change feed cannot be read or a local delete fails
+     */
+    public String apply() throws IOException {
+        DriveAPIService.ChangeBatch batch = driveAPI.fetchChangesSince(manifest.getStartPageToken());
+
+        // Only the latest change per item matters
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Change change : batch.changes()) {
+            if (change.getFileId() == null) continue; // shared drive metadata changes
+            latest.remove(change.getFileId());
+            latest.put(change.getFileId(), change);
+        }
+        logger.info("Applying {} changed items to {}", latest.size(), manifest.getRoot());
+
+        // Folders first, so files can land in folders that were created or moved in the same batch
+        for (Change change : latest.values()) {
+            if (isFolderChange(change)) applyFolderChange(change);
+        }
+        for (Change change : latest.values()) {
+            if (!isFolderChange(change)) applyFileChange(change);
+        }
+        retryIncomplete(latest.keySet());
+
+        return batch.newStartPageToken();
+    }
+
+    private void applyFolderChange(Change change) throws IOException {
+        SyncManifest.Entry entry = manifest.get(change.getFileId());
+        if (isGone(change, entry)) {
+            if (entry != null) delete(entry);
+            return;
+        }
+
+        File file = change.getFile();
+        boolean trashed = Boolean.TRUE.equals(file.getTrashed());
+        SyncManifest.Entry parent = findParent(file, trashed);
+
+        if (entry == null) {
+            if (parent != null && !DriveAPIService.isExcludedMimeType(file.getMimeType())) {
+                Path directory = manifest.resolve(parent).resolve(FileUtils.sanitizeFilename(file.getName()));
+                actions.discover(toDriveItem(file), directory, parent.id(), trashed);
+            }
+            return;
+        }
+        if (parent == null) {
+            // Moved out of the cloned scope
+            delete(entry);
+            return;
+        }
+
+        Path target = manifest.resolve(parent).resolve(FileUtils.sanitizeFilename(file.getName()));
+        String targetPath = manifest.relativize(target);
+        if (!targetPath.equals(entry.path())) {
+            if (!relocate(entry, target)) {
+                delete(entry);
+                actions.discover(toDriveItem(file), target, parent.id(), trashed);
+                return;
+            }
+            manifest.rebase(entry.path(), targetPath);
+        }
+        manifest.put(manifest.get(entry.id()).withLocation(parent.id(), targetPath));
+    }
+
+    private void applyFileChange(Change change) throws IOException {
+        if (actions.isQueued(change.getFileId())) {
+            // Downloaded with the new folder it was discovered in
+            return;
+        }
+        SyncManifest.Entry entry = manifest.get(change.getFileId());
+        if (isGone(change, entry)) {
+            if (entry != null) delete(entry);
+            return;
+        }
+
+        File file = change.getFile();
+        boolean trashed = Boolean.TRUE.equals(file.getTrashed());
+        SyncManifest.Entry parent = findParent(file, trashed);
+
+        Path directory;
+        if (parent != null) {
+            directory = manifest.resolve(parent);
+        } else if (entry != null && entry.parentId() == null) {
+            // Top-level item under a virtual root (e.g. "Shared With Me"); it stays where it was
+            directory = manifest.resolve(entry).getParent();
+        } else {
+            if (entry != null) delete(entry); // moved out of the cloned scope
+            return;
+        }
+        if (entry == null && DriveAPIService.isExcludedMimeType(file.getMimeType())) {
+            return;
+        }
+
+        DriveItem item = toDriveItem(file);
+        String parentId = parent != null ? parent.id() : null;
+        Path target = actions.outputPathFor(item, directory);
+        String targetPath = manifest.relativize(target);
+        long modifiedTime = file.getModifiedTime() == null ? 0 : file.getModifiedTime().getValue();
+
+        if (entry != null && entry.complete() && entry.modifiedTime() == modifiedTime) {
+            // Content unchanged; only the name, location or sharing metadata moved
+            if (targetPath.equals(entry.path())) {
+                return;
+            }
+            if (relocate(entry, target)) {
+                manifest.put(entry.withLocation(parentId, targetPath));
+                return;
+            }
+        }
+
+        if (entry != null) {
+            FileUtils.deleteRecursively(manifest.resolve(entry));
+        }
+        actions.download(item, directory, parentId, trashed);
+    }
+
+    /**
+     * Re-downloads files that the previous run discovered but failed (or never got) to download. A file that no longer
+     * exists, or has moved into or out of the trash, is dropped; one that cannot be fetched for any other reason stays
+     * incomplete and is retried by the next run.
+     */
+    private void retryIncomplete(Set<String> alreadyHandled) throws IOException {
+        for (SyncManifest.Entry entry : manifest.entries()) {
+            if (entry.folder() || entry.complete() || alreadyHandled.contains(entry.id()) || actions.isQueued(entry.id())) continue;
+
+            File file;
+            try {
+                file = driveAPI.fetchFile(entry.id());
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                    logger.info("Dropping '{}' from the clone, it no longer exists", entry.path());
+                    delete(entry);
+                } else {
+                    logger.warn("Could not retry '{}', keeping it for the next run: {}", entry.path(), e.getMessage());
+                }
+                continue;
+            } catch (IOException e) {
+                logger.warn("Could not retry '{}', keeping it for the next run: {}", entry.path(), e.getMessage());
+                continue;
+            }
+            if (entry.trashed() != Boolean.TRUE.equals(file.getTrashed())) {
+                logger.info("Dropping '{}' from the clone, it moved {} the trash", entry.path(), entry.trashed() ? "out of" : "into");
+                delete(entry);
+                continue;
+            }
+            Path directory = manifest.resolve(entry).getParent();
+            FileUtils.deleteRecursively(manifest.resolve(entry));
+            actions.download(toDriveItem(file), directory, entry.parentId(), entry.trashed());
+        }
+    }
+
+    /**
+     * Moves an item's local copy to where it belongs now.
+     *
+     * @return False if it could not be moved, e.g. because the local copy is missing or another item already took the
+     * name; the item then has to be downloaded again
+     */
+    private boolean relocate(SyncManifest.Entry entry, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(manifest.resolve(entry), target);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not move '{}' to '{}', it will be downloaded again: {}", entry.path(), manifest.relativize(target), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Finds the cloned folder a changed item now lives in. The item's trashed state has to match the folder's,
+     * otherwise it has moved between the trash and the rest of the Drive and is out of scope.
+     */
+    private SyncManifest.Entry findParent(File file, boolean trashed) {
+        if (file.getParents() == null) return null;
+        for (String parentId : file.getParents()) {
+            SyncManifest.Entry parent = manifest.get(parentId);
+            if (parent != null && parent.folder() && parent.trashed() == trashed) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    private boolean isGone(Change change, SyncManifest.Entry entry) {
+        if (Boolean.TRUE.equals(change.getRemoved()) || change.getFile() == null) {
+            return true;
+        }
+        return entry != null && entry.trashed() != Boolean.TRUE.equals(change.getFile().getTrashed());
+    }
+
+    private boolean isFolderChange(Change change) {
+        if (change.getFile() != null) {
+            return FOLDER_MIME.equals(change.getFile().getMimeType());
+        }
+        SyncManifest.Entry entry = manifest.get(change.getFileId());
+        return entry != null && entry.folder();
+    }
+
+    private void delete(SyncManifest.Entry entry) throws IOException {
+        FileUtils.deleteRecursively(manifest.resolve(entry));
+        if (entry.folder()) {
+            manifest.removeUnder(entry.path());
+        } else {
+            manifest.remove(entry.id());
+        }
+    }
+
+    private DriveItem toDriveItem(File file) {
+        return driveAPI.convertFileToDriveItems(List.of(file)).getFirst();
+    }
+}
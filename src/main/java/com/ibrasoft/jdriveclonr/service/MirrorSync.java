@@ -0,0 +1,353 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.File;
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps one clone folder in step with Drive. The selection is walked like a full clone, but each file is checked
+ * against the {@link SyncManifest} first, and only new or changed files are downloaded again.
+ * <p>
+ * A file counts as unchanged when Drive still reports the checksum and size it was downloaded at (or, for Google
+ * Docs, Sheets and Slides, the same version). Items that were renamed or moved on Drive are moved locally instead
+ * of being downloaded again. If the folder has no manifest yet, e.g. it was copied from an earlier snapshot, a file
+ * whose size and modified time on disk match Drive's is trusted as well.
+ * <p>
+ * Every item the walk sees is remembered, as is every folder whose complete contents it listed. Once the walk has
+ * finished, {@link #deleteRemoved()} removes the local copies of items that were in one of those folders last time
+ * and no longer are, i.e. that were deleted, trashed or moved away on Drive. Anything outside the folders listed this
+ * run, such as a part of the mirror that is no longer selected, is left alone.
+ * <p>
+ * Given the Changes API feed since the last run and the flat {@link DriveIndex}, whole folders in which nothing
+ * changed are skipped without being listed or checked file by file; see {@link #useChanges}.
+ */
+public class MirrorSync {
+    private static final Logger logger = LoggerFactory.getLogger(MirrorSync.class);
+    /**
+     * Some filesystems (FAT, many network shares) store modified times in steps of up to two seconds.
+     */
+    private static final long TIMESTAMP_TOLERANCE_MILLIS = 2000;
+
+    private final SyncManifest manifest;
+    private final Set<String> seenIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> listedFolderIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    /**
+     * IDs of the items that changed on Drive since the last run, or were not cloned in full, and of every folder
+     * above them. Null until {@link #useChanges} is called, in which case every folder is walked.
+     */
+    private volatile Set<String> changedIds;
+    private Map<String, List<SyncManifest.Entry>> previousByParent = Map.of();
+
+    public MirrorSync(SyncManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Records a folder the walk reached, moving its local copy first if it was renamed or moved on Drive, so the
+     * files inside do not have to be downloaded again.
+     *
+     * @param id        The folder's Drive ID
+     * @param directory Where the folder belongs now
+     */
+    public void folderSeen(String id, Path directory) {
+        seenIds.add(id);
+        SyncManifest.Entry previous = manifest.get(id);
+        if (previous != null && previous.folder()) {
+            relocate(previous, directory);
+        }
+    }
+
+    /**
+     * Records that a folder's complete contents were listed this run, so anything the manifest has in it that the
+     * walk did not see is gone from Drive. Folders whose listing failed, or of which only some children were selected,
+     * must not be reported.
+     *
+     * @param id The folder's Drive ID
+     */
+    public void folderListed(String id) {
+        listedFolderIds.add(id);
+    }
+
+    /**
+     * Decides whether a file needs downloading. An unchanged file is moved to its new location if necessary and
+     * recorded in the manifest as complete, exactly as if it had just been downloaded.
+     *
+     * @param file     The file on Drive
+     * @param target   Where the file belongs now
+     * @param parentId The Drive ID of the folder it belongs to, or null under a virtual root
+     * @param trashed  Whether the file is in the trash
+     * @return true if the local copy is current and the download can be skipped
+     */
+    public boolean skipIfUnchanged(DriveItem file, Path target, String parentId, boolean trashed) {
+        seenIds.add(file.getId());
+        long modifiedTime = Math.max(0, file.getModifiedTimeMillis());
+        SyncManifest.Entry previous = manifest.get(file.getId());
+
+        boolean current;
+        if (previous == null) {
+            current = matchesOnDisk(file, target);
+        } else if (previous.folder()) {
+            current = false;
+        } else {
+            relocate(previous, target);
+            current = previous.hasSameContent(file.getMd5Checksum(), file.getSize(), file.getVersion(), modifiedTime)
+                    && Files.exists(target);
+        }
+        if (!current) {
+            return false;
+        }
+
+        manifest.put(new SyncManifest.Entry(file.getId(), parentId, manifest.relativize(target), false, trashed,
+                modifiedTime, true, file.getMd5Checksum(), file.getSize(), file.getVersion()));
+        unchanged.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Works out which folders may be skipped, from the changes Drive reported since the last run's start page token.
+     * A folder is walked if anything in it changed or moved in or out, if something in it failed to download, or if
+     * the index holds a child of it that the last run did not clone (e.g. the folder was only partly selected then).
+     * Folders the index does not cover, such as those in shared drives, cannot be checked that way and are always
+     * walked.
+     *
+     * @param changes Every change since the last run's start page token
+     * @param index   The flat index of the user's Drive; with none, nothing is skipped
+     */
+    public void useChanges(List<Change> changes, DriveIndex index) {
+        if (index == null) {
+            return;
+        }
+        Map<String, List<SyncManifest.Entry>> byParent = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (SyncManifest.Entry entry : manifest.entries()) {
+            if (entry.parentId() != null) {
+                byParent.computeIfAbsent(entry.parentId(), id -> new ArrayList<>()).add(entry);
+            }
+            if (!entry.complete()) {
+                pending.add(entry.id());
+            } else if (entry.folder() && !isClonedInFull(entry.id(), index)) {
+                pending.add(entry.id());
+            }
+        }
+        for (Change change : changes) {
+            if (change.getFileId() == null) {
+                continue;
+            }
+            pending.add(change.getFileId());
+            if (change.getFile() != null && change.getFile().getParents() != null) {
+                pending.addAll(change.getFile().getParents());
+            }
+        }
+
+        // Every folder above such an item, both where it was last run and where it is now
+        Set<String> changed = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!changed.add(id)) {
+                continue;
+            }
+            SyncManifest.Entry previous = manifest.get(id);
+            if (previous != null && previous.parentId() != null) {
+                pending.add(previous.parentId());
+            }
+            File current = index.get(id);
+            if (current != null && current.getParents() != null) {
+                pending.addAll(current.getParents());
+            }
+        }
+        previousByParent = byParent;
+        changedIds = changed;
+        logger.info("{} items changed since the last mirror run, or sit above one that did", changed.size());
+    }
+
+    /**
+     * Leaves a fully selected folder as the last run cloned it if nothing in it changed on Drive since. Everything
+     * the manifest has below it is recorded as seen and unchanged, without being listed or checked. Files deleted
+     * from the local copy by hand are not noticed in a skipped folder; a run without a change feed restores them.
+     *
+     * @param id        The folder's Drive ID
+     * @param directory Where the folder belongs now
+     * @return The IDs of the folder and of every folder below it, or null if it has to be walked
+     */
+    public List<String> skipFolderIfUnchanged(String id, Path directory) {
+        Set<String> changed = changedIds;
+        SyncManifest.Entry previous = manifest.get(id);
+        if (changed == null || changed.contains(id) || previous == null || !previous.folder()
+                || !previous.path().equals(manifest.relativize(directory)) || !Files.isDirectory(directory)) {
+            return null;
+        }
+        List<String> folders = new ArrayList<>();
+        Deque<String> pending = new ArrayDeque<>(List.of(id));
+        while (!pending.isEmpty()) {
+            String folderId = pending.pop();
+            seenIds.add(folderId);
+            folders.add(folderId);
+            for (SyncManifest.Entry child : previousByParent.getOrDefault(folderId, List.of())) {
+                if (child.folder()) {
+                    pending.push(child.id());
+                } else {
+                    seenIds.add(child.id());
+                    unchanged.incrementAndGet();
+                }
+            }
+        }
+        return folders;
+    }
+
+    /**
+     * Whether the manifest has every child the index lists for a folder. Children cloned under another of their
+     * parents count, since the manifest records one path per item.
+     */
+    private boolean isClonedInFull(String folderId, DriveIndex index) {
+        if (!index.covers(folderId)) {
+            return false;
+        }
+        for (File child : index.getChildren(folderId)) {
+            if (manifest.get(child.getId()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return How many files were found unchanged so far
+     */
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * Deletes the local copy of every manifest entry that was in a folder listed this run but was not seen in it,
+     * together with everything the manifest has below such an entry. Only paths the manifest knows about are
+     * touched: a folder is removed only once it is empty, so files the user added to the mirror themselves survive.
+     *
+     * @return How many entries were removed
+     */
+    public int deleteRemoved() {
+        // A path can have changed hands, e.g. a folder deleted on Drive and a new one created under the same name
+        Set<String> livePaths = new HashSet<>();
+        Map<String, List<SyncManifest.Entry>> unseenByParent = new HashMap<>();
+        for (SyncManifest.Entry entry : manifest.entries()) {
+            if (seenIds.contains(entry.id())) {
+                livePaths.add(entry.path());
+            } else if (entry.parentId() != null) {
+                unseenByParent.computeIfAbsent(entry.parentId(), id -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        // Gone from a listed folder, or below something that is
+        List<SyncManifest.Entry> removedFiles = new ArrayList<>();
+        List<SyncManifest.Entry> removedFolders = new ArrayList<>();
+        Deque<String> parents = new ArrayDeque<>(listedFolderIds);
+        while (!parents.isEmpty()) {
+            List<SyncManifest.Entry> gone = unseenByParent.remove(parents.pop());
+            if (gone == null) {
+                continue;
+            }
+            for (SyncManifest.Entry entry : gone) {
+                if (entry.folder()) {
+                    removedFolders.add(entry);
+                    parents.push(entry.id());
+                } else {
+                    removedFiles.add(entry);
+                }
+            }
+        }
+
+        int removed = 0;
+        for (SyncManifest.Entry entry : removedFiles) {
+            if (!livePaths.contains(entry.path())) {
+                try {
+                    FileUtils.deleteRecursively(manifest.resolve(entry));
+                } catch (IOException e) {
+                    logger.warn("Could not delete '{}', which was removed from Drive: {}", entry.path(), e.getMessage());
+                    continue;
+                }
+            }
+            manifest.remove(entry.id());
+            removed++;
+        }
+
+        // Deepest first, so each folder's subfolders are already gone when it is looked at
+        removedFolders.sort(Comparator.comparingInt((SyncManifest.Entry entry) -> Path.of(entry.path()).getNameCount()).reversed());
+        for (SyncManifest.Entry entry : removedFolders) {
+            if (!livePaths.contains(entry.path())) {
+                try {
+                    Files.deleteIfExists(manifest.resolve(entry));
+                } catch (DirectoryNotEmptyException e) {
+                    logger.info("Keeping '{}', which holds files that were not cloned", entry.path());
+                } catch (IOException e) {
+                    logger.warn("Could not delete '{}', which was removed from Drive: {}", entry.path(), e.getMessage());
+                    continue;
+                }
+            }
+            manifest.remove(entry.id());
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Moves an item's local copy to where it belongs now. Nothing is moved over an existing path, or between export
+     * formats (e.g. a Doc now exported as PDF instead of DOCX); the item is then downloaded again instead.
+     */
+    private void relocate(SyncManifest.Entry previous, Path target) {
+        String targetPath = manifest.relativize(target);
+        Path current = manifest.resolve(previous);
+        if (previous.path().equals(targetPath) || !Files.exists(current) || Files.exists(target)
+                || (!previous.folder() && !FileUtils.getExtension(current).equals(FileUtils.getExtension(target)))) {
+            return;
+        }
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(current, target);
+        } catch (IOException e) {
+            logger.warn("Could not move '{}' to '{}', it will be downloaded again: {}", previous.path(), targetPath, e.getMessage());
+            return;
+        }
+        if (previous.folder()) {
+            manifest.rebase(previous.path(), targetPath);
+        } else {
+            manifest.put(previous.withLocation(previous.parentId(), targetPath));
+        }
+    }
+
+    private boolean matchesOnDisk(DriveItem file, Path target) {
+        try {
+            if (!Files.isRegularFile(target)) {
+                return false;
+            }
+            // Exports have no size on Drive; binary files must match it exactly
+            if (file.getMd5Checksum() != null && Files.size(target) != file.getSize()) {
+                return false;
+            }
+            long modifiedTime = file.getModifiedTimeMillis();
+            return modifiedTime >= 0
+                    && Math.abs(Files.getLastModifiedTime(target).toMillis() - modifiedTime) < TIMESTAMP_TOLERANCE_MILLIS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * A binary download that survives failures. Bytes go to {@code <name>.part}, and a small sidecar
+ * ({@code <name>.part.meta}) records how many of them are written and which version of the Drive file they belong to.
+ * A retry, or a later clone into the same folder, continues where the last attempt stopped, as long as the file has
+ * not changed on Drive since. Only a complete download is moved to its real name, atomically, so a file at its final
+ * name is never half written, and only once its content matches Drive's MD5.
+ * <p>
+ * A download that will not be resumed (e.g. Drive refused the file, or the next run writes to a new folder) should be
+ * {@link #discard() discarded}, so no part file or sidecar is left behind.
+ * <p>
+ * Progress is recorded every {@code CHECKPOINT_BYTES}, whenever the caller asks (e.g. before a retry), and when the
+ * download is closed without completing. How much of it is forced to disk is up to the {@link FsyncPolicy}.
+ */
+public class PartialDownload extends OutputStream {
+    static final String PART_SUFFIX = ".part";
+    static final String SIDECAR_SUFFIX = ".part.meta";
+    private static final int MAGIC = 0x44435044; // "DCPD"
+    private static final int FORMAT_VERSION = 1;
+    private static final long CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+    private final Path target;
+    private final Path part;
+    private final Path sidecar;
+    private final String md5Checksum;
+    private final long modifiedTime;
+    private final long size;
+    private final FsyncPolicy fsyncPolicy;
+    private final DiskWriter.WriterStream out;
+
+    /**
+     * The bytes kept from an earlier attempt when this download was opened.
+     */
+    @Getter
+    private final long resumedFrom;
+    /**
+     * The bytes in the part file, including those resumed from.
+     */
+    @Getter
+    private long written;
+    private long checkpointed;
+    private boolean closed;
+
+    private PartialDownload(Path target, String md5Checksum, long modifiedTime, long size, FsyncPolicy fsyncPolicy,
+                            DiskWriter.WriterStream out, long resumedFrom) {
+        this.target = target;
+        this.part = sibling(target, PART_SUFFIX);
+        this.sidecar = sibling(target, SIDECAR_SUFFIX);
+        this.md5Checksum = md5Checksum;
+        this.modifiedTime = modifiedTime;
+        this.size = size;
+        this.fsyncPolicy = fsyncPolicy;
+        this.out = out;
+        this.resumedFrom = resumedFrom;
+        this.written = resumedFrom;
+        this.checkpointed = resumedFrom;
+    }
+
+    /**
+     * Opens the part file for a download, keeping what an earlier attempt left if it was for the same version.
+     *
+     * @param writer       The disk writer to write through
+     * @param target       The name the file gets once complete
+     * @param md5Checksum  Drive's checksum of the content, or null if Drive gives none
+     * @param modifiedTime When the file was last modified on Drive, in epoch milliseconds
+     * @param size         The file's size on Drive in bytes
+     * @param fsyncPolicy  When to force the data to disk
+     * @return The download, positioned where it should continue
+     * @throws IOException If the part file cannot be opened
+     */
+    public static PartialDownload open(DiskWriter writer, Path target, String md5Checksum, long modifiedTime,
+                                       long size, FsyncPolicy fsyncPolicy) throws IOException {
+        long offset = resumableBytes(sibling(target, PART_SUFFIX), sibling(target, SIDECAR_SUFFIX), md5Checksum, modifiedTime, size);
+        DiskWriter.WriterStream out = writer.open(sibling(target, PART_SUFFIX), offset);
+        return new PartialDownload(target, md5Checksum, modifiedTime, size, fsyncPolicy, out, offset);
+    }
+
+    /**
+     * @return Whether every byte of the file has been written, so no request is needed
+     */
+    public boolean isComplete() {
+        return size > 0 && written >= size;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        written++;
+        checkpointIfDue();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+        checkpointIfDue();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Waits for everything written to reach the part file and records it in the sidecar.
+     *
+     * @return The bytes written so far, i.e. where a resumed request should start
+     */
+    public long checkpoint() throws IOException {
+        written = out.checkpoint(fsyncPolicy == FsyncPolicy.EVERY_CHECKPOINT);
+        saveSidecar(written);
+        checkpointed = written;
+        return written;
+    }
+
+    /**
+     * Throws away what has been written, for a download that has to start from scratch.
+     */
+    public void restart() throws IOException {
+        out.truncate();
+        written = 0;
+        checkpointed = 0;
+        saveSidecar(0);
+    }
+
+    /**
+     * Finishes the download: checks the content against Drive's checksum, then moves the part file to its real name
+     * and removes the sidecar. Unless the policy is {@link FsyncPolicy#NEVER}, the data is forced to disk first, so
+     * the rename never exposes a file whose content a crash could still lose. A file that fails the check is thrown
+     * away along with its sidecar, so the next attempt starts over.
+     *
+     * @throws IOException If the content does not match Drive's checksum, or the file cannot be moved
+     */
+    public void commit() throws IOException {
+        out.checkpoint(fsyncPolicy != FsyncPolicy.NEVER);
+        closed = true;
+        out.closeAndAwait();
+        if (md5Checksum != null) {
+            String actual = FileUtils.md5Hex(part);
+            if (!actual.equalsIgnoreCase(md5Checksum)) {
+                discard();
+                throw new IOException("Checksum mismatch for '" + target.getFileName() + "': expected " + md5Checksum + ", got " + actual);
+            }
+        }
+        moveIntoPlace(part, target);
+        Files.deleteIfExists(sidecar);
+    }
+
+    /**
+     * Closes an uncommitted download and deletes its part file and sidecar, for a download that will not be resumed.
+     */
+    public void discard() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                out.closeAndAwait();
+            } catch (IOException e) {
+                // A write that failed does not matter, the content is thrown away
+            }
+        }
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(sidecar);
+    }
+
+    /**
+     * Closes an uncommitted download, recording its progress so a later attempt can resume it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            checkpoint();
+        } finally {
+            out.closeAndAwait();
+        }
+    }
+
+    private void checkpointIfDue() throws IOException {
+        if (written - checkpointed >= CHECKPOINT_BYTES) {
+            checkpoint();
+        }
+    }
+
+    private void saveSidecar(long offset) throws IOException {
+        Path temp = sibling(sidecar, ".tmp");
+        try (DataOutputStream sidecarOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            sidecarOut.writeInt(MAGIC);
+            sidecarOut.writeInt(FORMAT_VERSION);
+            sidecarOut.writeUTF(md5Checksum == null ? "" : md5Checksum);
+            sidecarOut.writeLong(modifiedTime);
+            sidecarOut.writeLong(size);
+            sidecarOut.writeLong(offset);
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return How many bytes of the part file can be kept: none unless the sidecar is for the same version of the
+     * file, and never more than the part file actually holds
+     */
+    static long resumableBytes(Path part, Path sidecar, String md5Checksum, long modifiedTime, long size) {
+        if (!Files.exists(part) || !Files.exists(sidecar)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return 0;
+            }
+            String recordedMd5 = in.readUTF();
+            long recordedModifiedTime = in.readLong();
+            long recordedSize = in.readLong();
+            long offset = in.readLong();
+            boolean sameVersion = Objects.equals(recordedMd5, md5Checksum == null ? "" : md5Checksum)
+                    && recordedModifiedTime == modifiedTime
+                    && recordedSize == size;
+            return sameVersion ? Math.max(0, Math.min(offset, Files.size(part))) : 0;
+        } catch (IOException e) {
+            // An unreadable sidecar just means starting over
+            return 0;
+        }
+    }
+
+    /**
+     * Renames a finished part file to its real name, atomically where the filesystem allows.
+     */
+    static void moveIntoPlace(Path part, Path target) throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+}
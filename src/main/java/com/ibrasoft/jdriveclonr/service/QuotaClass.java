@@ -0,0 +1,30 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import lombok.Getter;
+
+/**
+ * The separately enforced Google quotas the clone draws on. Each gets its own rate and concurrency limit, so a
+ * strictly limited class (e.g. Workspace export conversion) cannot hold up another (e.g. binary downloads).
+ * <p>
+ * The rates are only starting points and caps; the actual rate adapts to the throttling each class sees.
+ */
+@Getter
+public enum QuotaClass {
+    DRIVE_METADATA("metadata", 10, 200, 32),
+    DRIVE_EXPORT("export", 2, 20, 4),
+    DRIVE_MEDIA("media", 10, 100, 16),
+    SHEETS("sheets", 1, 5, 2),
+    SLIDES("slides", 1, 5, 2);
+
+    private final String label;
+    private final double initialRate;
+    private final double maxRate;
+    private final int maxConcurrent;
+
+    QuotaClass(String label, double initialRate, double maxRate, int maxConcurrent) {
+        this.label = label;
+        this.initialRate = initialRate;
+        this.maxRate = maxRate;
+        this.maxConcurrent = maxConcurrent;
+    }
+}
@@ -0,0 +1,113 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * One {@link AdaptiveRateLimiter}, one concurrency limit and one {@link CircuitBreaker} per {@link QuotaClass}.
+ * Callers pick the class that matches the endpoint they are about to hit; failed calls are retried according to
+ * the {@link RetryPolicy}.
+ */
+public class QuotaLimiters {
+    private static final double MIN_RATE = 0.2;
+    private static final double INCREASE_PER_SECOND = 1;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long BREAKER_OPEN_SECONDS = 30;
+
+    private final Map<QuotaClass, AdaptiveRateLimiter> limiters = new EnumMap<>(QuotaClass.class);
+    private final Map<QuotaClass, Semaphore> slots = new EnumMap<>(QuotaClass.class);
+    private final Map<QuotaClass, CircuitBreaker> breakers = new EnumMap<>(QuotaClass.class);
+    private final RetryPolicy retryPolicy;
+
+    public QuotaLimiters() {
+        this(RetryPolicy.DEFAULT);
+    }
+
+    public QuotaLimiters(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        for (QuotaClass quota : QuotaClass.values()) {
+            limiters.put(quota, new AdaptiveRateLimiter(quota.getInitialRate(), MIN_RATE, quota.getMaxRate(), INCREASE_PER_SECOND, DECREASE_FACTOR));
+            slots.put(quota, new Semaphore(quota.getMaxConcurrent(), true));
+            breakers.put(quota, new CircuitBreaker(quota.getLabel(), BREAKER_OPEN_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Runs a call once its quota class has both a free slot and a rate permit, retrying it if it fails for a
+     * retryable reason. The slot is given back while waiting to retry. The call may run more than once, so it must
+     * be safe to repeat.
+     *
+     * @param quota The quota the call counts against
+     * @param call  The call to run
+     * @return The call's result
+     * @throws IOException          If the call fails for good
+     * @throws InterruptedException If interrupted while waiting for a slot or running the call
+     */
+    public <T> T execute(QuotaClass quota, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        return retry(quota, () -> executeOnce(quota, 1, call));
+    }
+
+    /**
+     * Runs a call under its quota class's retry policy and circuit breaker only, for calls that take their slot and
+     * permits further down, e.g. requests handed to a {@link GoogleBatcher}.
+     *
+     * @param quota The quota the call counts against
+     * @param call  The call to run
+     * @return The call's result
+     * @throws IOException          If the call fails for good
+     * @throws InterruptedException If interrupted while running the call
+     */
+    public <T> T retry(QuotaClass quota, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        return retryPolicy.execute(breakers.get(quota), call);
+    }
+
+    /**
+     * Runs one HTTP request once its quota class has a free slot and a rate permit for each API call it carries. The
+     * request is not retried.
+     *
+     * @param quota The quota the request counts against
+     * @param calls How many API calls the request carries, e.g. the parts of a batch
+     * @param call  The request to run
+     * @return The request's result
+     * @throws IOException          If the request fails
+     * @throws InterruptedException If interrupted while waiting for a slot or running the request
+     */
+    public <T> T executeOnce(QuotaClass quota, int calls, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        Semaphore slot = slots.get(quota);
+        slot.acquire();
+        try {
+            return limiters.get(quota).execute(calls, call);
+        } finally {
+            slot.release();
+        }
+    }
+
+    public AdaptiveRateLimiter get(QuotaClass quota) {
+        return limiters.get(quota);
+    }
+
+    public CircuitBreaker getBreaker(QuotaClass quota) {
+        return breakers.get(quota);
+    }
+
+    /**
+     * @return How many calls of any class have been rate limited so far
+     */
+    public long getThrottledCalls() {
+        return limiters.values().stream().mapToLong(AdaptiveRateLimiter::getThrottledCalls).sum();
+    }
+
+    /**
+     * @return The current rate of every class, e.g. {@code "metadata 10.0/s, export 2.0/s, ..."}
+     */
+    public String describeRates() {
+        return limiters.entrySet().stream()
+                .map(entry -> String.format("%s %.1f/s%s", entry.getKey().getLabel(), entry.getValue().getRate(),
+                        breakers.get(entry.getKey()).getState() == CircuitBreaker.State.CLOSED ? "" : " paused"))
+                .collect(Collectors.joining(", "));
+    }
+}
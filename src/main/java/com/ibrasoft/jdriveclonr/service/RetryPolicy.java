@@ -0,0 +1,180 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.HttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries Google API calls that failed for reasons worth waiting out: rate limits, server errors and dropped
+ * connections. Anything else (404, permission errors, local disk errors) is thrown straight away.
+ * <p>
+ * The wait before each retry follows the server's {@code Retry-After} header when it sends one, and otherwise uses
+ * "decorrelated jitter": a random delay between the base delay and three times the previous one, capped. Every
+ * outcome is reported to the endpoint's {@link CircuitBreaker}, and every attempt first waits for its permission.
+ */
+public class RetryPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(6, Duration.ofMillis(500), Duration.ofSeconds(60));
+
+    /**
+     * Longest {@code Retry-After} we are willing to honour; a larger value is treated as this.
+     */
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
+
+    public enum Failure {
+        /**
+         * Google asked us to slow down (429, or a 403 rate-limit reason).
+         */
+        RATE_LIMITED,
+        /**
+         * A server error or a network failure that is likely to pass.
+         */
+        TRANSIENT,
+        /**
+         * Retrying will not help.
+         */
+        PERMANENT
+    }
+
+    /**
+     * How the policy waits between attempts; replaced in tests.
+     */
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long capMillis;
+    private final Sleeper sleeper;
+
+    public RetryPolicy(int maxAttempts, Duration base, Duration cap) {
+        this(maxAttempts, base, cap, Thread::sleep);
+    }
+
+    RetryPolicy(int maxAttempts, Duration base, Duration cap, Sleeper sleeper) {
+        if (maxAttempts < 1 || base.isNegative() || cap.compareTo(base) < 0) {
+            throw new IllegalArgumentException("Invalid retry settings");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseMillis = base.toMillis();
+        this.capMillis = cap.toMillis();
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * Runs a call, retrying retryable failures up to {@code maxAttempts} times in total. The call must be safe to
+     * repeat; in particular a download has to start its output over on every attempt.
+     *
+     * @param breaker The breaker of the endpoint the call hits
+     * @param call    The call to run
+     * @return The call's result
+     * @throws IOException          The last failure, once it is permanent or the attempts are used up
+     * @throws InterruptedException If interrupted while waiting or running the call
+     */
+    public <T> T execute(CircuitBreaker breaker, AdaptiveRateLimiter.Call<T> call) throws IOException, InterruptedException {
+        long previousDelay = baseMillis;
+        for (int attempt = 1; ; attempt++) {
+            breaker.acquirePermission();
+            IOException failure;
+            try {
+                T result = call.execute();
+                breaker.onSuccess();
+                return result;
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException | RuntimeException e) {
+                breaker.onAbandoned();
+                throw e;
+            }
+
+            Failure kind = classify(failure);
+            if (kind == Failure.PERMANENT) {
+                breaker.onSuccess();
+                throw failure;
+            }
+            breaker.onFailure();
+            if (attempt >= maxAttempts) {
+                throw failure;
+            }
+
+            long delay = retryAfterMillis(failure);
+            if (delay < 0) {
+                delay = nextJitteredDelay(previousDelay);
+                previousDelay = delay;
+            }
+            logger.debug("Attempt {} failed ({}), retrying in {} ms: {}", attempt, kind, delay, failure.getMessage());
+            sleeper.sleep(delay);
+        }
+    }
+
+    /**
+     * @return A random delay between the base delay and three times the previous one, never above the cap
+     */
+    long nextJitteredDelay(long previousDelay) {
+        long upper = Math.max(baseMillis + 1, Math.min(capMillis, previousDelay * 3));
+        return Math.min(capMillis, ThreadLocalRandom.current().nextLong(baseMillis, upper + 1));
+    }
+
+    /**
+     * Sorts a failed call into what can and cannot be retried.
+     *
+     * @param e The failure of a Google API call or download
+     * @return Its kind
+     */
+    public static Failure classify(IOException e) {
+        if (AdaptiveRateLimiter.isRateLimited(e)) {
+            return Failure.RATE_LIMITED;
+        }
+        if (e instanceof HttpResponseException response) {
+            int status = response.getStatusCode();
+            return status == 408 || status >= 500 ? Failure.TRANSIENT : Failure.PERMANENT;
+        }
+        if (e instanceof SocketTimeoutException || e instanceof HttpTimeoutException
+                || e instanceof SocketException || e instanceof SSLException || e instanceof EOFException) {
+            return Failure.TRANSIENT;
+        }
+        // Includes InterruptedIOException: a cancelled download must not be retried
+        return Failure.PERMANENT;
+    }
+
+    /**
+     * @return The delay the server asked for in its {@code Retry-After} header, in ms, or -1 if it did not ask
+     */
+    static long retryAfterMillis(IOException e) {
+        if (!(e instanceof HttpResponseException response) || response.getHeaders() == null) {
+            return -1;
+        }
+        String value = response.getHeaders().getRetryAfter();
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        long millis;
+        try {
+            millis = Duration.ofSeconds(Long.parseLong(value.trim())).toMillis();
+        } catch (NumberFormatException notSeconds) {
+            try {
+                Instant at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                millis = Duration.between(Instant.now(), at).toMillis();
+            } catch (DateTimeParseException notADate) {
+                return -1;
+            }
+        }
+        return Math.max(0, Math.min(MAX_RETRY_AFTER.toMillis(), millis));
+    }
+}
@@ -0,0 +1,486 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
+import com.ibrasoft.jdriveclonr.utils.BufferPool;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+/**
+ * A large binary download split into byte ranges that are fetched over separate connections at the same time, since
+ * a single stream is capped by per-connection throughput long before the link is full.
+ * <p>
+ * The part file is sized to the final length up front and each {@link Segment} writes its range in place through a
+ * {@link FileChannel} of its own, so segments never wait on each other. When one segment fails, the others are
+ * interrupted, wherever they are blocked (a read, a backoff, a quota wait); an interrupt closes only that segment's
+ * channel, and it reopens one to write out what it had already received. Like a {@link PartialDownload}, it
+ * lives at {@code <name>.part} until complete, and its sidecar records each segment's progress so a retry or a later
+ * clone only fetches what is missing. The sidecar can get ahead of the data on disk (its progress is only forced down
+ * with {@link FsyncPolicy#EVERY_CHECKPOINT}), which would leave zeroed holes in the preallocated file after a crash,
+ * so the finished file is checked against Drive's MD5 before it gets its real name.
+ * <p>
+ * Files of at least {@code driveclonr.download.segmentThresholdMiB} (default 256) are split into
+ * {@code driveclonr.download.segments} (default 4) segments; smaller files are not worth the extra requests.
+ */
+public class SegmentedDownload implements AutoCloseable {
+    private static final long MIB = 1024 * 1024;
+    private static final long SEGMENT_THRESHOLD = Long.getLong("driveclonr.download.segmentThresholdMiB", 256) * MIB;
+    private static final int SEGMENTS = Integer.getInteger("driveclonr.download.segments", 4);
+    private static final int MAGIC = 0x44435344; // "DCSD"
+    private static final int FORMAT_VERSION = 1;
+    private static final long CHECKPOINT_BYTES = 64 * MIB;
+    private static final BufferPool WRITE_BUFFERS = new BufferPool(256 * 1024, 64, true);
+    private static final AtomicLong TOTAL_WRITTEN = new AtomicLong();
+
+    /**
+     * Fetches the missing bytes of one segment into it; called again for whatever is still missing if it fails.
+     */
+    @FunctionalInterface
+    public interface SegmentFetcher {
+        void fetch(Segment segment) throws IOException, InterruptedException;
+    }
+
+    private final Path target;
+    private final Path part;
+    private final Path sidecar;
+    private final String md5Checksum;
+    private final long modifiedTime;
+    private final long size;
+    private final FsyncPolicy fsyncPolicy;
+    private final FileChannel channel;
+    private final List<Segment> segments;
+
+    /**
+     * The bytes kept from an earlier attempt when this download was opened.
+     */
+    @Getter
+    private final long resumedFrom;
+    private final AtomicLong sinceCheckpoint = new AtomicLong();
+    private volatile LongConsumer progress = bytes -> {
+    };
+    /**
+     * Set once the download has failed, so a segment that misses its interrupt still stops at its next write.
+     */
+    private volatile boolean abandoned;
+    private boolean closed;
+
+    private SegmentedDownload(Path target, String md5Checksum, long modifiedTime, long size, FsyncPolicy fsyncPolicy,
+                              FileChannel channel, List<long[]> ranges) {
+        this.target = target;
+        this.part = PartialDownload.sibling(target, PartialDownload.PART_SUFFIX);
+        this.sidecar = PartialDownload.sibling(target, PartialDownload.SIDECAR_SUFFIX);
+        this.md5Checksum = md5Checksum;
+        this.modifiedTime = modifiedTime;
+        this.size = size;
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = channel;
+        this.segments = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            segments.add(new Segment(range[0], range[1], range[2]));
+        }
+        this.resumedFrom = getWritten();
+    }
+
+    /**
+     * @return The bytes written by all segmented downloads so far
+     */
+    public static long getTotalWritten() {
+        return TOTAL_WRITTEN.get();
+    }
+
+    /**
+     * @return Whether a file of this size should be downloaded in segments rather than as one stream
+     */
+    public static boolean isWorthSegmenting(long size) {
+        return SEGMENTS > 1 && size >= SEGMENT_THRESHOLD;
+    }
+
+    /**
+     * Opens the part file for a segmented download, keeping the segments an earlier attempt left if it was for the
+     * same version of the file, and otherwise sizing a fresh one to {@code size}.
+     *
+     * @param target       The name the file gets once complete
+     * @param md5Checksum  Drive's checksum of the content, or null if Drive gives none
+     * @param modifiedTime When the file was last modified on Drive, in epoch milliseconds
+     * @param size         The file's size on Drive in bytes
+     * @param fsyncPolicy  When to force the data to disk
+     * @return The download
+     * @throws IOException If the part file cannot be opened
+     */
+    public static SegmentedDownload open(Path target, String md5Checksum, long modifiedTime, long size,
+                                         FsyncPolicy fsyncPolicy) throws IOException {
+        Path part = PartialDownload.sibling(target, PartialDownload.PART_SUFFIX);
+        Path sidecar = PartialDownload.sibling(target, PartialDownload.SIDECAR_SUFFIX);
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            List<long[]> ranges = channel.size() == size ? resumableRanges(sidecar, md5Checksum, modifiedTime, size) : null;
+            if (ranges == null) {
+                ranges = split(size, SEGMENTS);
+                channel.truncate(0);
+                // Take the final length now, so segments write in place instead of extending the file
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            return new SegmentedDownload(target, md5Checksum, modifiedTime, size, fsyncPolicy, channel, ranges);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches every incomplete segment at once and waits for all of them. If one fails, the others are interrupted and
+     * its failure is thrown; the progress made so far is kept for the next attempt.
+     *
+     * @param fetcher  Fetches one segment
+     * @param progress Told about every chunk of bytes written, from the segments' threads
+     */
+    public void download(SegmentFetcher fetcher, LongConsumer progress) throws IOException, InterruptedException {
+        this.progress = progress;
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try (ExecutorService segmentThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (segment.isComplete()) {
+                    continue;
+                }
+                try {
+                    running.add(segmentThreads.submit(() -> {
+                        try {
+                            try {
+                                fetcher.fetch(segment);
+                            } finally {
+                                // Even after a failure what arrived is good, and should count for the next attempt
+                                segment.flushUninterruptibly();
+                            }
+                        } catch (Exception e) {
+                            // The first failure is the one worth reporting; the rest are segments being stopped
+                            if (failure.compareAndSet(null, e)) {
+                                abandoned = true;
+                                segmentThreads.shutdownNow();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    // A segment already failed and shut the others down
+                    break;
+                }
+            }
+            try {
+                for (Future<?> future : running) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                abandoned = true;
+                segmentThreads.shutdownNow();
+                throw new IOException("Segment download failed: " + e.getCause(), e.getCause());
+            } catch (InterruptedException e) {
+                abandoned = true;
+                segmentThreads.shutdownNow();
+                throw e;
+            }
+        } finally {
+            for (Segment segment : segments) {
+                segment.closeChannel();
+            }
+        }
+        Exception cause = failure.get();
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof InterruptedException interrupted) {
+            throw interrupted;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                throw new IOException("Segment " + segment.getFirstByte() + "-" + segment.getLastByte() + " ended early");
+            }
+        }
+    }
+
+    /**
+     * @return The bytes written across all segments, including those resumed from
+     */
+    public long getWritten() {
+        long written = 0;
+        for (Segment segment : segments) {
+            written += segment.getWritten();
+        }
+        return written;
+    }
+
+    /**
+     * Records every segment's progress in the sidecar, forcing the data to disk first if the policy asks for it.
+     */
+    public synchronized void checkpoint() throws IOException {
+        sinceCheckpoint.set(0);
+        // Forcing any channel of a file forces all of its data, including what the segments' channels wrote
+        if (fsyncPolicy == FsyncPolicy.EVERY_CHECKPOINT) {
+            channel.force(false);
+        }
+        Path temp = PartialDownload.sibling(sidecar, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(md5Checksum == null ? "" : md5Checksum);
+            out.writeLong(modifiedTime);
+            out.writeLong(size);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.getWritten());
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finishes the download: checks the content against Drive's checksum, then moves the part file to its real name
+     * and removes the sidecar, forcing the data to disk first unless the policy is {@link FsyncPolicy#NEVER}. A file
+     * that fails the check is thrown away along with its sidecar, so the next attempt starts over.
+     *
+     * @throws IOException If the content does not match Drive's checksum, or the file cannot be moved
+     */
+    public synchronized void commit() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            channel.force(false);
+        }
+        closed = true;
+        channel.close();
+        if (md5Checksum != null) {
+            String actual = FileUtils.md5Hex(part);
+            if (!actual.equalsIgnoreCase(md5Checksum)) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(sidecar);
+                throw new IOException("Checksum mismatch for '" + target.getFileName() + "': expected " + md5Checksum + ", got " + actual);
+            }
+        }
+        PartialDownload.moveIntoPlace(part, target);
+        Files.deleteIfExists(sidecar);
+    }
+
+    /**
+     * Closes an uncommitted download and deletes its part file and sidecar, for a download that will not be resumed.
+     */
+    public synchronized void discard() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+        }
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(sidecar);
+    }
+
+    /**
+     * Closes an uncommitted download, recording its progress so a later attempt can resume it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            checkpoint();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Splits {@code size} bytes into {@code count} ranges of {@code {start, end, written}}, the last taking any
+     * remainder.
+     */
+    static List<long[]> split(long size, int count) {
+        long length = size / count;
+        List<long[]> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = i * length;
+            ranges.add(new long[]{start, i == count - 1 ? size : start + length, 0});
+        }
+        return ranges;
+    }
+
+    /**
+     * @return The ranges recorded by the sidecar, or null unless it is for the same version of the file
+     */
+    private static List<long[]> resumableRanges(Path sidecar, String md5Checksum, long modifiedTime, long size) {
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            // A sidecar left by a single-stream download has another magic number, and is not reused
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String recordedMd5 = in.readUTF();
+            long recordedModifiedTime = in.readLong();
+            long recordedSize = in.readLong();
+            boolean sameVersion = Objects.equals(recordedMd5, md5Checksum == null ? "" : md5Checksum)
+                    && recordedModifiedTime == modifiedTime
+                    && recordedSize == size;
+            if (!sameVersion) {
+                return null;
+            }
+            int count = in.readInt();
+            List<long[]> ranges = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                long written = in.readLong();
+                ranges.add(new long[]{start, end, Math.max(0, Math.min(written, end - start))});
+            }
+            return ranges;
+        } catch (IOException e) {
+            // An unreadable sidecar just means starting over
+            return null;
+        }
+    }
+
+    /**
+     * One byte range of the file, written in place as its bytes arrive. Bytes are gathered in a pooled direct buffer
+     * and written a buffer at a time, since the media downloader hands them over a few KiB at a time. Only its own
+     * fetch writes to it, through a channel of its own that an interrupt can close without affecting the others.
+     */
+    public class Segment extends OutputStream {
+        private final long start;
+        private final long end;
+        // Bytes in the file; read by checkpoints on other threads
+        private final AtomicLong written;
+        // Bytes received but not yet in the file
+        private ByteBuffer pending;
+        private FileChannel segmentChannel;
+
+        private Segment(long start, long end, long written) {
+            this.start = start;
+            this.end = end;
+            this.written = new AtomicLong(written);
+        }
+
+        /**
+         * @return The first byte still to fetch, e.g. for a Range request
+         */
+        public long getFirstByte() {
+            return start + written.get() + (pending == null ? 0 : pending.position());
+        }
+
+        /**
+         * @return The last byte of the segment, inclusive like a Range request's
+         */
+        public long getLastByte() {
+            return end - 1;
+        }
+
+        public long getWritten() {
+            return written.get();
+        }
+
+        public boolean isComplete() {
+            return getFirstByte() >= end;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (abandoned) {
+                throw new IOException("Another segment failed");
+            }
+            if (getFirstByte() + len > end) {
+                throw new IOException("Received more than the requested range " + start + "-" + getLastByte());
+            }
+            while (len > 0) {
+                if (pending == null) {
+                    pending = WRITE_BUFFERS.acquire();
+                }
+                int n = Math.min(len, pending.remaining());
+                pending.put(b, off, n);
+                off += n;
+                len -= n;
+                if (!pending.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        /**
+         * Writes the received bytes to the file, so checkpoints record them.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            ByteBuffer buffer = pending.flip();
+            pending = null;
+            try {
+                if (segmentChannel == null || !segmentChannel.isOpen()) {
+                    segmentChannel = FileChannel.open(part, StandardOpenOption.WRITE);
+                }
+                int length = buffer.remaining();
+                long position = start + written.get();
+                while (buffer.hasRemaining()) {
+                    position += segmentChannel.write(buffer, position);
+                }
+                written.addAndGet(length);
+                TOTAL_WRITTEN.addAndGet(length);
+                progress.accept(length);
+                if (sinceCheckpoint.addAndGet(length) >= CHECKPOINT_BYTES) {
+                    checkpoint();
+                }
+            } finally {
+                WRITE_BUFFERS.release(buffer);
+            }
+        }
+
+        /**
+         * Writes out what was received even if the segment was interrupted to stop it; the interrupt is kept.
+         */
+        void flushUninterruptibly() throws IOException {
+            boolean interrupted = Thread.interrupted();
+            try {
+                flush();
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        void closeChannel() throws IOException {
+            if (segmentChannel != null) {
+                segmentChannel.close();
+                segmentChannel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Builds a new timestamped snapshot on top of the previous one, in the style of {@code rsync --link-dest}: a file
+ * whose content has not changed since the previous snapshot is hard-linked from it instead of being downloaded, so
+ * each snapshot only costs the bandwidth and disk space of what changed.
+ * <p>
+ * Files are matched by Drive ID, then compared like a mirror run compares them (checksum and size, or version for
+ * Google Docs, Sheets and Slides). Where the filesystem cannot link, the file is copied from the previous snapshot,
+ * which still saves the download. The previous snapshot is only ever read, and a linked file is not downloaded into
+ * the new one, so nothing writes through a shared link.
+ */
+public class SnapshotLinker {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotLinker.class);
+    public static final String SNAPSHOT_PREFIX = "DriveClonr - ";
+
+    private final SyncManifest previous;
+    private final SyncManifest manifest;
+    private final String previousName;
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger copied = new AtomicInteger();
+
+    public SnapshotLinker(SyncManifest previous, SyncManifest manifest) {
+        this.previous = previous;
+        this.manifest = manifest;
+        this.previousName = previous.getRoot().getFileName().toString();
+    }
+
+    /**
+     * Finds the most recent snapshot next to the new one that finished with a manifest, and links against it.
+     * Snapshot names end in a sortable timestamp, so the latest is the greatest name.
+     *
+     * @param manifest The manifest of the snapshot being built
+     * @return A linker, or null if there is no earlier snapshot to link against
+     */
+    public static SnapshotLinker forLatest(SyncManifest manifest) {
+        Path snapshot = manifest.getRoot();
+        List<Path> candidates;
+        try (Stream<Path> siblings = Files.list(snapshot.getParent())) {
+            candidates = siblings
+                    .filter(path -> path.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                    .filter(path -> !path.equals(snapshot) && Files.isDirectory(path))
+                    .sorted(Comparator.comparing((Path path) -> path.getFileName().toString()).reversed())
+                    .toList();
+        } catch (IOException e) {
+            logger.warn("Could not look for an earlier snapshot: {}", e.getMessage());
+            return null;
+        }
+
+        for (Path candidate : candidates) {
+            try {
+                SyncManifest previous = SyncManifest.load(candidate);
+                if (previous != null) {
+                    logger.info("Linking unchanged files from {}", candidate);
+                    return new SnapshotLinker(previous, manifest);
+                }
+            } catch (IOException e) {
+                logger.warn("Skipping snapshot {} with an unreadable manifest: {}", candidate, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Links a file from the previous snapshot if it has not changed since, and records it in the new manifest as
+     * complete.
+     *
+     * @param file     The file on Drive
+     * @param target   Where the file belongs in the new snapshot
+     * @param parentId The Drive ID of the folder it belongs to, or null under a virtual root
+     * @param trashed  Whether the file is in the trash
+     * @return true if the file is in place and the download can be skipped
+     */
+    public boolean linkIfUnchanged(DriveItem file, Path target, String parentId, boolean trashed) {
+        long modifiedTime = Math.max(0, file.getModifiedTimeMillis());
+        SyncManifest.Entry entry = previous.get(file.getId());
+        if (entry == null || entry.folder()
+                || !entry.hasSameContent(file.getMd5Checksum(), file.getSize(), file.getVersion(), modifiedTime)) {
+            return false;
+        }
+        Path source = previous.resolve(entry);
+        // A different export format (e.g. PDF instead of DOCX) needs a fresh export
+        if (!Files.isRegularFile(source) || !FileUtils.getExtension(source).equals(FileUtils.getExtension(target))) {
+            return false;
+        }
+
+        try {
+            Files.createDirectories(target.getParent());
+            if (FileUtils.linkOrCopy(source, target)) {
+                linked.incrementAndGet();
+            } else {
+                copied.incrementAndGet();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not link '{}' from {}, downloading it instead: {}", entry.path(), previousName, e.getMessage());
+            return false;
+        }
+
+        manifest.put(new SyncManifest.Entry(file.getId(), parentId, manifest.relativize(target), false, trashed,
+                modifiedTime, true, file.getMd5Checksum(), file.getSize(), file.getVersion()));
+        return true;
+    }
+
+    /**
+     * @return How many files were reused from the previous snapshot, by link or by copy
+     */
+    public int getReused() {
+        return linked.get() + copied.get();
+    }
+
+    /**
+     * @return e.g. {@code "120 linked, 3 copied from 'DriveClonr - 2025-01-01 10-00-00'"}
+     */
+    public String describe() {
+        return linked.get() + " linked, " + copied.get() + " copied from '" + previousName + "'";
+    }
+}
@@ -2,6 +2,10 @@ package com.ibrasoft.jdriveclonr.ui;
 
 import com.ibrasoft.jdriveclonr.App;
 import com.ibrasoft.jdriveclonr.model.ConfigModel;
+import com.ibrasoft.jdriveclonr.model.ExecutionMode;
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
+import com.ibrasoft.jdriveclonr.model.SchedulingPolicy;
+import com.ibrasoft.jdriveclonr.model.SyncMode;
 import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
 import com.ibrasoft.jdriveclonr.model.mime.GoogleMime;
 import com.ibrasoft.jdriveclonr.utils.FileUtils;
@@ -19,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
+import java.util.function.Function;
 
 public class ConfigController implements Initializable {
     @FXML private TextField destinationField;
@@ -27,9 +32,16 @@ public class ConfigController implements Initializable {
     @FXML private ComboBox<ExportFormat> slidesFormatBox;
     @FXML private ComboBox<ExportFormat> drawingsFormatBox;
     @FXML private ComboBox<ExportFormat> jamboardFormatBox;
+    @FXML private ComboBox<SyncMode> syncModeBox;
+    @FXML private ComboBox<ExecutionMode> executionModeBox;
+    @FXML private ComboBox<SchedulingPolicy> schedulingPolicyBox;
+    @FXML private ComboBox<FsyncPolicy> fsyncPolicyBox;
     @FXML private Button browseButton;
     @FXML private Button helpButton;
     @FXML private Slider threadCountSlider;
+    @FXML private CheckBox autoTuneCheckBox;
+    @FXML private CheckBox mirrorDeletesCheckBox;
+    @FXML private CheckBox deduplicateCheckBox;
     @FXML private Label threadCountLabel;
     @FXML private Label threadWarningLabel;
     @Override
@@ -49,18 +61,34 @@ public class ConfigController implements Initializable {
         slidesFormatBox.setValue(config.getExportFormat(GoogleMime.SLIDES.getMimeType()));
         drawingsFormatBox.setValue(config.getExportFormat(GoogleMime.DRAWINGS.getMimeType()));
         jamboardFormatBox.setValue(config.getExportFormat(GoogleMime.JAMBOARD.getMimeType()));
+
+        // Setup clone mode
+        syncModeBox.getItems().addAll(SyncMode.values());
+        syncModeBox.setValue(config.getSyncMode());
+        mirrorDeletesCheckBox.setSelected(config.isMirrorDeletes());
+        mirrorDeletesCheckBox.disableProperty().bind(syncModeBox.valueProperty().isNotEqualTo(SyncMode.MIRROR));
         
-        // Setup thread count slider
+        // Setup execution mode; with virtual threads the Google quotas bound concurrency, not the thread count
+        executionModeBox.getItems().addAll(ExecutionMode.values());
+        executionModeBox.setValue(config.getExecutionMode());
+        threadCountSlider.disableProperty().bind(executionModeBox.valueProperty().isEqualTo(ExecutionMode.VIRTUAL_THREADS));
+
+        // Setup download order
+        schedulingPolicyBox.getItems().addAll(SchedulingPolicy.values());
+        schedulingPolicyBox.setValue(config.getSchedulingPolicy());
+
+        // Setup disk flushing
+        fsyncPolicyBox.getItems().addAll(FsyncPolicy.values());
+        fsyncPolicyBox.setValue(config.getFsyncPolicy());
+
+        // Setup thread count slider; with auto-tuning on it is only a cap, and rate limits pull concurrency back down
+        autoTuneCheckBox.setSelected(config.isAutoTuneConcurrency());
+        deduplicateCheckBox.setSelected(config.isDeduplicateFiles());
         threadCountSlider.setValue(config.getThreadCount());
         updateThreadCountLabel(config.getThreadCount());
         
-        threadCountSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            int threadCount = newVal.intValue();
-            updateThreadCountLabel(threadCount);
-            
-            // Show warning if threads > 5
-            threadWarningLabel.setVisible(threadCount > 5);
-        });
+        threadCountSlider.valueProperty().addListener((obs, oldVal, newVal) -> updateThreadCountLabel(newVal.intValue()));
+        autoTuneCheckBox.selectedProperty().addListener((obs, oldVal, newVal) -> updateThreadCountLabel((int) threadCountSlider.getValue()));
 
         // Button bindings
         browseButton.setOnAction(e -> handleBrowseButton());
@@ -77,6 +105,10 @@ public class ConfigController implements Initializable {
         setupComboDisplay(slidesFormatBox);
         setupComboDisplay(drawingsFormatBox);
         setupComboDisplay(jamboardFormatBox);
+        setupComboDisplay(syncModeBox, SyncMode::getUiLabel);
+        setupComboDisplay(executionModeBox, ExecutionMode::getUiLabel);
+        setupComboDisplay(schedulingPolicyBox, SchedulingPolicy::getUiLabel);
+        setupComboDisplay(fsyncPolicyBox, FsyncPolicy::getUiLabel);
     }
     
     /**
@@ -84,22 +116,30 @@ public class ConfigController implements Initializable {
      * @param threadCount The number of threads
      */
     private void updateThreadCountLabel(int threadCount) {
-        threadCountLabel.setText(threadCount + (threadCount == 1 ? " thread" : " threads"));
+        boolean autoTune = autoTuneCheckBox.isSelected();
+        threadCountLabel.setText((autoTune ? "Up to " : "") + threadCount + (threadCount == 1 ? " thread" : " threads"));
+
+        // Show warning if threads > 5 and nothing adjusts them
+        threadWarningLabel.setVisible(!autoTune && threadCount > 5);
     }
 
     private void setupComboDisplay(ComboBox<ExportFormat> comboBox) {
+        setupComboDisplay(comboBox, ExportFormat::getUiLabel);
+    }
+
+    private <T> void setupComboDisplay(ComboBox<T> comboBox, Function<T, String> label) {
         comboBox.setCellFactory(cb -> new ListCell<>() {
             @Override
-            protected void updateItem(ExportFormat item, boolean empty) {
+            protected void updateItem(T item, boolean empty) {
                 super.updateItem(item, empty);
-                setText(empty || item == null ? null : item.getUiLabel());
+                setText(empty || item == null ? null : label.apply(item));
             }
         });
         comboBox.setButtonCell(new ListCell<>() {
             @Override
-            protected void updateItem(ExportFormat item, boolean empty) {
+            protected void updateItem(T item, boolean empty) {
                 super.updateItem(item, empty);
-                setText(empty || item == null ? null : item.getUiLabel());
+                setText(empty || item == null ? null : label.apply(item));
             }
         });
     }
@@ -198,6 +238,13 @@ public class ConfigController implements Initializable {
         config.setExportFormat(GoogleMime.DRAWINGS.getMimeType(), drawingsFormatBox.getValue());
         config.setExportFormat(GoogleMime.JAMBOARD.getMimeType(), jamboardFormatBox.getValue());
         config.setThreadCount((int) threadCountSlider.getValue());
+        config.setAutoTuneConcurrency(autoTuneCheckBox.isSelected());
+        config.setDeduplicateFiles(deduplicateCheckBox.isSelected());
+        config.setSyncMode(syncModeBox.getValue());
+        config.setMirrorDeletes(mirrorDeletesCheckBox.isSelected());
+        config.setExecutionMode(executionModeBox.getValue());
+        config.setSchedulingPolicy(schedulingPolicyBox.getValue());
+        config.setFsyncPolicy(fsyncPolicyBox.getValue());
     }
 
     private void showAlert(String title, String content) {
@@ -58,6 +58,14 @@ public class DownloadController implements javafx.fxml.Initializable {
     @FXML
     private ListView<Task<?>> failedList;
     @FXML
+    private ListView<Task<?>> queuedList;
+    @FXML
+    private HBox queuedHeaderBox;
+    @FXML
+    private StackPane queuedDownloadsPane;
+    @FXML
+    private Label queuedCountLabel;
+    @FXML
     private Button cancelBtn;
     @FXML
     private Button closeBtn;
@@ -74,6 +82,8 @@ public class DownloadController implements javafx.fxml.Initializable {
     private StackPane failedDownloadsPane;
     @FXML
     private StackPane completedDownloadsPane;
+    private static final int QUEUED_SHOWN = 50;
+
     private final DownloadService downloadService;
     private final DecimalFormat percentFormat = new DecimalFormat("0.0%");
     private final StringProperty statusMessage = new SimpleStringProperty("Preparing download...");
@@ -169,6 +179,44 @@ public class DownloadController implements javafx.fxml.Initializable {
 
         failedList.setItems(downloadService.getFailedTasks());
         failedList.setCellFactory(lv -> new DownloadCell());
+
+        // Waiting downloads can be moved to the front from their context menu, or by double-clicking them
+        queuedList.setCellFactory(lv -> {
+            DownloadCell cell = new DownloadCell();
+            MenuItem bumpItem = new MenuItem("Download next");
+            bumpItem.setOnAction(e -> bumpPriority(cell.getItem()));
+            ContextMenu menu = new ContextMenu(bumpItem);
+            cell.contextMenuProperty().bind(Bindings.when(cell.emptyProperty()).then((ContextMenu) null).otherwise(menu));
+            cell.setOnMouseClicked(e -> {
+                if (e.getClickCount() == 2 && !cell.isEmpty()) {
+                    bumpPriority(cell.getItem());
+                }
+            });
+            return cell;
+        });
+    }
+
+    /**
+     * Moves a waiting download to the front of the queue, whatever the scheduling policy.
+     */
+    private void bumpPriority(Task<?> task) {
+        if (task instanceof DriveDownloadTask downloadTask && downloadService.getScheduler().bump(downloadTask)) {
+            refreshQueue();
+        }
+    }
+
+    /**
+     * Shows the downloads that will start next; the section is hidden while nothing is waiting.
+     */
+    private void refreshQueue() {
+        int waiting = downloadService.getScheduler().size();
+        queuedList.getItems().setAll(downloadService.getScheduler().peek(QUEUED_SHOWN));
+        queuedCountLabel.setText(String.format("%d files", waiting));
+        boolean show = waiting > 0;
+        queuedHeaderBox.setVisible(show);
+        queuedHeaderBox.setManaged(show);
+        queuedDownloadsPane.setVisible(show);
+        queuedDownloadsPane.setManaged(show);
     }
 
     /**
@@ -346,9 +394,9 @@ public class DownloadController implements javafx.fxml.Initializable {
      */
     private void updateProgress() {
         int activeTasks = downloadService.getDownloadTasks().size();
-        int completedTasks = downloadService.getCompletedTasks().size();
-        int failedTasks = downloadService.getFailedTasks().size();
-        int totalTasks = activeTasks + completedTasks + failedTasks;
+        int completedTasks = downloadService.getCompletedCount().get();
+        int failedTasks = downloadService.getFailedCount().get();
+        int totalTasks = downloadService.getDiscoveredCount().get();
 
         if (totalTasks > 0) {
             double progress = (double) (completedTasks + failedTasks) / totalTasks;
@@ -370,6 +418,7 @@ public class DownloadController implements javafx.fxml.Initializable {
 
         // Update count labels
         threadsCountLabel.setText(String.format("%d files", Math.max(0, activeTasks)));
+        refreshQueue();
         completedCountLabel.setText(String.format("%d files", completedTasks));
         failedCountLabel.setText(String.format("%d files", failedTasks));
     }
@@ -379,9 +428,9 @@ public class DownloadController implements javafx.fxml.Initializable {
      */
     private void updateProgressWithSmartAnimation() {
         int activeTasks = downloadService.getDownloadTasks().size();
-        int completedTasks = downloadService.getCompletedTasks().size();
-        int failedTasks = downloadService.getFailedTasks().size();
-        int totalTasks = activeTasks + completedTasks + failedTasks;
+        int completedTasks = downloadService.getCompletedCount().get();
+        int failedTasks = downloadService.getFailedCount().get();
+        int totalTasks = downloadService.getDiscoveredCount().get();
 
         if (totalTasks > 0) {
             double newProgress = (double) (completedTasks + failedTasks) / totalTasks;
@@ -436,8 +485,8 @@ public class DownloadController implements javafx.fxml.Initializable {
 
         enableCloseButton();
 
-        int completedCount = downloadService.getCompletedTasks().size();
-        int failedCount = downloadService.getFailedTasks().size();
+        int completedCount = downloadService.getCompletedCount().get();
+        int failedCount = downloadService.getFailedCount().get();
         int totalCount = completedCount + failedCount;
 
         if (failedCount > 0) {
@@ -11,6 +11,8 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URL;
 import java.util.ArrayList;
@@ -18,6 +20,7 @@ import java.util.Optional;
 import java.util.ResourceBundle;
 
 public class DriveContentController implements Initializable {
+    private static final Logger logger = LoggerFactory.getLogger(DriveContentController.class);
 
     @FXML
     private TreeView<DriveItem> driveTreeView;
@@ -25,10 +28,13 @@ public class DriveContentController implements Initializable {
     private Button startCloneButton;
     @FXML
     private VBox loadingOverlay;
+    @FXML
+    private Label statusLabel;
     @Getter
     private static DriveItem selectedRoot;
 
     private DriveAPIService driveService;
+    private volatile boolean indexFromCache;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -54,6 +60,12 @@ public class DriveContentController implements Initializable {
             @Override
             protected TreeItem<DriveItem> call() throws Exception {
                 // 1. Fetch data (off FX thread)
+                if (App.getConfigModel().isFlatListing()) {
+                    indexFromCache = driveService.loadCachedIndex();
+                    if (!indexFromCache) {
+                        driveService.buildIndex();
+                    }
+                }
                 DriveItem ownedRoot = driveService.fetchRootOwnedItems();
                 DriveItem sharedRoot = driveService.fetchRootSharedItems();
                 DriveItem trashRoot = driveService.fetchRootTrashedItems();
@@ -86,6 +98,10 @@ public class DriveContentController implements Initializable {
 
             updateCloneButtonState();            // initial state
             if (loadingOverlay != null) loadingOverlay.setVisible(false);
+
+            if (App.getConfigModel().isFlatListing()) {
+                refreshIndexInBackground();
+            }
         });
 
         loadTask.setOnFailed(ev -> {
@@ -100,6 +116,36 @@ public class DriveContentController implements Initializable {
         t.start();
     }
 
+    /**
+     * Catches a cached index up with the Changes API (so folders expanded or cloned from now on see current data)
+     * and saves the result for next time. The tree that is already on screen is left as it is.
+     */
+    private void refreshIndexInBackground() {
+        Task<Void> refreshTask = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                if (indexFromCache) {
+                    driveService.refreshIndex();
+                }
+                driveService.saveIndex();
+                return null;
+            }
+        };
+        refreshTask.setOnFailed(ev -> {
+            String message = Optional.ofNullable(refreshTask.getException()).map(Throwable::getMessage).orElse("unknown error");
+            logger.warn("Failed to refresh the Drive index", refreshTask.getException());
+            if (statusLabel != null) {
+                statusLabel.setText("Could not refresh the Drive index, some folders may be out of date: " + message);
+                statusLabel.setManaged(true);
+                statusLabel.setVisible(true);
+            }
+        });
+
+        Thread t = new Thread(refreshTask, "DriveIndexRefresher");
+        t.setDaemon(true);
+        t.start();
+    }
+
     /**
      * Updates the state of the clone button based on the current selection in the tree.
      */
@@ -143,6 +189,10 @@ public class DriveContentController implements Initializable {
                 original.getNext(),
                 original.getBinaryURL()
         );
+        copy.setMd5Checksum(original.getMd5Checksum());
+        copy.setVersion(original.getVersion());
+        copy.setPrimaryParentId(original.getPrimaryParentId());
+        copy.setPartiallySelected(item.isIndeterminate());
 
         for (TreeItem<DriveItem> child : item.getChildren()) {
             DriveItem selectedChild = collectSelected((CheckBoxTreeItem<DriveItem>) child, false);
@@ -0,0 +1,74 @@
+package com.ibrasoft.jdriveclonr.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable {@link ByteBuffer}s of one size, so copying tens of thousands of files does not allocate (and collect)
+ * a fresh buffer for every file or chunk.
+ * <p>
+ * Direct buffers are worth it for anything written to a {@link java.nio.channels.FileChannel}: the JDK copies a heap
+ * buffer into a temporary direct one on every write. Buffers are handed out even when the pool is empty; at most
+ * {@code maxPooled} are kept for reuse, so a burst does not pin its memory forever.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+    // Most recently released first, as that buffer is the likeliest to still be in cache
+    private final Deque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * @param bufferSize The capacity of every buffer
+     * @param maxPooled  How many released buffers to keep at most
+     * @param direct     Whether to allocate direct buffers rather than heap ones (which have an accessible array)
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * @return An empty buffer of {@code bufferSize}, reused if one is free
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer for reuse. It must no longer be used by the caller.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offerFirst(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return How many buffers have been allocated in total, as opposed to reused
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
@@ -4,13 +4,23 @@ import com.google.api.client.util.DateTime;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class FileUtils {
 
@@ -121,6 +131,13 @@ public class FileUtils {
         return String.format("%.2f GB", gb);
     }
 
+    /**
+     * @return The time as a file time, or null if Drive gave none (e.g. for an item from a partial listing or change)
+     */
+    public static FileTime toFileTime(DateTime dateTime) {
+        return dateTime == null ? null : FileTime.fromMillis(dateTime.getValue());
+    }
+
     /**
      * Sets the last modified time of a file to match the given Google DateTime.
      *
@@ -129,28 +146,143 @@ public class FileUtils {
      * @throws IOException If setting the file time fails.
      */
     public static void setLastModifiedFromDateTime(java.io.File filePath, DateTime dateTime) throws IOException {
+        if (dateTime == null) {
+            // Nothing to set; the file keeps the time it was written at
+            return;
+        }
         if (!filePath.exists()) {
             throw new IllegalArgumentException("File does not exist: " + filePath);
         }
 
         Path path = filePath.toPath();
-        FileTime fileTime = FileTime.fromMillis(dateTime.getValue());
-        Files.setLastModifiedTime(path, fileTime);
+        Files.setLastModifiedTime(path, toFileTime(dateTime));
     }
 
     public static void setLastModifiedFromDateTime(Path filePath, DateTime dateTime) throws IOException {
+        if (dateTime == null) {
+            // Nothing to set; the file keeps the time it was written at
+            return;
+        }
         if (!Files.exists(filePath)) {
             throw new IllegalArgumentException("File does not exist: " + filePath);
         }
 
-        FileTime fileTime = FileTime.fromMillis(dateTime.getValue());
-        Files.setLastModifiedTime(filePath, fileTime);
+        Files.setLastModifiedTime(filePath, toFileTime(dateTime));
     }
 
     public static void setLastModifiedFromDateTime(String filePath, DateTime dateTime) throws IOException {
         setLastModifiedFromDateTime(Paths.get(filePath), dateTime);
     }
 
+    /**
+     * Deletes a file, or a directory and everything inside it. Missing paths are ignored.
+     *
+     * @param path The file or directory to delete
+     * @throws IOException If something exists but cannot be deleted
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * Puts a directory in place of another, e.g. a finished re-export in place of its last copy. The old one is moved
+     * aside first and only deleted once the new one is in place, so a failure leaves it where it was.
+     *
+     * @param source The directory to move
+     * @param target Where it goes, replacing whatever is there
+     * @throws IOException If the directory cannot be moved
+     */
+    public static void replaceDirectory(Path source, Path target) throws IOException {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            Files.move(source, target);
+            return;
+        }
+        Path previous = target.resolveSibling(target.getFileName() + ".old");
+        deleteRecursively(previous);
+        Files.move(target, previous);
+        try {
+            Files.move(source, target);
+        } catch (IOException e) {
+            try {
+                Files.move(previous, target);
+            } catch (IOException restore) {
+                e.addSuppressed(restore);
+            }
+            throw e;
+        }
+        deleteRecursively(previous);
+    }
+
+    /**
+     * Computes a file's MD5 checksum in the form Drive reports it, as lowercase hex.
+     *
+     * @param path The file
+     * @return e.g. {@code "9e107d9d372bb6826bd81d3542a419d6"}
+     * @throws IOException If the file cannot be read
+     */
+    public static String md5Hex(Path path) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[256 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                md5.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    /**
+     * Returns a file's extension including the dot, e.g. {@code ".docx"}.
+     *
+     * @param path The file
+     * @return The extension, or an empty string if the name has none
+     */
+    public static String getExtension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+
+    /**
+     * Makes {@code target} a hard link to {@code source}, or a copy of it where the filesystem cannot link the two
+     * (e.g. FAT, different volumes, or a file already at its link limit).
+     *
+     * @param source An existing file
+     * @param target Where the link or copy goes; must not exist yet
+     * @return true if a link was made, false if the file was copied
+     * @throws IOException If neither works; no partial copy is left behind
+     */
+    public static boolean linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Fall through to a copy
+        }
+        try {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return false;
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
     public static String getCurrentDateTimeFormatted() {
         java.time.LocalDateTime now = java.time.LocalDateTime.now();
         return now.format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss"));
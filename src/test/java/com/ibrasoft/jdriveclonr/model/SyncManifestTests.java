@@ -0,0 +1,128 @@
+package com.ibrasoft.jdriveclonr.model;
+
+import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
+import com.ibrasoft.jdriveclonr.model.mime.GoogleMime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncManifestTests {
+
+    @TempDir
+    Path cloneRoot;
+
+    @Test
+    void loadReturnsNullWhenNothingWasCloned() throws IOException {
+        assertNull(SyncManifest.load(cloneRoot));
+    }
+
+    @Test
+    void saveAndLoadRoundTrip() throws IOException {
+        SyncManifest manifest = new SyncManifest(cloneRoot);
+        manifest.setStartPageToken("1234");
+        manifest.setExportFormats(new ConfigModel().describeExportFormats());
+        manifest.put(new SyncManifest.Entry("folder", null, "My Files", true, false, 10L, true));
+        manifest.put(new SyncManifest.Entry("file", "folder", Path.of("My Files", "a.txt").toString(), false, false, 20L, false,
+                "0cc175b9c0f1b6a831c399e269772661", 1L, 7L));
+        manifest.save();
+
+        SyncManifest loaded = SyncManifest.load(cloneRoot);
+        assertNotNull(loaded);
+        assertEquals("1234", loaded.getStartPageToken());
+        assertEquals(manifest.getExportFormats(), loaded.getExportFormats());
+        assertEquals(manifest.get("folder"), loaded.get("folder"));
+        assertEquals(manifest.get("file"), loaded.get("file"));
+    }
+
+    @Test
+    void manifestsWithoutExportFormatsStillLoad() throws IOException {
+        Path directory = Files.createDirectories(cloneRoot.resolve(".driveclonr"));
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(directory.resolve("manifest.bin")))) {
+            out.writeInt(0x44434D46);
+            out.writeInt(2);
+            out.writeUTF("1234");
+            out.writeInt(1);
+            out.writeUTF("file");
+            out.writeUTF("");
+            out.writeUTF("a.txt");
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            out.writeLong(20L);
+            out.writeBoolean(true);
+            out.writeUTF("0cc175b9c0f1b6a831c399e269772661");
+            out.writeLong(1L);
+            out.writeLong(7L);
+        }
+
+        SyncManifest loaded = SyncManifest.load(cloneRoot);
+        assertNotNull(loaded);
+        assertEquals("1234", loaded.getStartPageToken());
+        assertNull(loaded.getExportFormats());
+        assertEquals(1L, loaded.get("file").size());
+    }
+
+    @Test
+    void exportFormatsAreDescribedIndependentlyOfInsertionOrder() {
+        ConfigModel config = new ConfigModel();
+        String before = config.describeExportFormats();
+        config.setExportFormat(GoogleMime.SHEETS.getMimeType(), ExportFormat.XLSX);
+        assertEquals(before, config.describeExportFormats());
+
+        config.setExportFormat(GoogleMime.SHEETS.getMimeType(), ExportFormat.CSV);
+        assertNotEquals(before, config.describeExportFormats());
+    }
+
+    @Test
+    void rebaseMovesEverythingBelowAFolder() {
+        SyncManifest manifest = new SyncManifest(cloneRoot);
+        manifest.put(new SyncManifest.Entry("folder", null, "Old", true, false, 0L, true));
+        manifest.put(new SyncManifest.Entry("file", "folder", Path.of("Old", "a.txt").toString(), false, false, 0L, true));
+        manifest.put(new SyncManifest.Entry("other", null, "Older", true, false, 0L, true));
+
+        manifest.rebase("Old", "New");
+
+        assertEquals("New", manifest.get("folder").path());
+        assertEquals(Path.of("New", "a.txt").toString(), manifest.get("file").path());
+        assertEquals("Older", manifest.get("other").path());
+    }
+
+    @Test
+    void markCompleteOnlyTouchesKnownEntries() {
+        SyncManifest manifest = new SyncManifest(cloneRoot);
+        manifest.put(new SyncManifest.Entry("file", null, "a.txt", false, false, 0L, false));
+
+        manifest.markComplete("file");
+        manifest.markComplete("missing");
+
+        assertTrue(manifest.get("file").complete());
+        assertNull(manifest.get("missing"));
+    }
+
+    @Test
+    void binaryFilesAreComparedByChecksumAndSize() {
+        SyncManifest.Entry entry = new SyncManifest.Entry("file", null, "a.bin", false, false, 10L, true, "abc", 3L, 5L);
+
+        assertTrue(entry.hasSameContent("abc", 3L, 6L, 11L));
+        assertFalse(entry.hasSameContent("abd", 3L, 5L, 10L));
+        assertFalse(entry.hasSameContent("abc", 4L, 5L, 10L));
+        assertFalse(entry.withComplete(false).hasSameContent("abc", 3L, 5L, 10L));
+    }
+
+    @Test
+    void googleDocsAreComparedByVersion() {
+        SyncManifest.Entry entry = new SyncManifest.Entry("doc", null, "a.docx", false, false, 10L, true, null, 0L, 5L);
+
+        assertTrue(entry.hasSameContent(null, 0L, 5L, 11L));
+        assertFalse(entry.hasSameContent(null, 0L, 6L, 10L));
+        // Entries from before versions were recorded fall back to the modified time
+        SyncManifest.Entry legacy = new SyncManifest.Entry("doc", null, "a.docx", false, false, 10L, true);
+        assertTrue(legacy.hasSameContent(null, 0L, 5L, 10L));
+        assertFalse(legacy.hasSameContent(null, 0L, 5L, 11L));
+    }
+}
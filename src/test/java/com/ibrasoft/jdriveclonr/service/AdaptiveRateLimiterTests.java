@@ -0,0 +1,101 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveRateLimiterTests {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AdaptiveRateLimiter limiter(double initialRate) {
+        return new AdaptiveRateLimiter(initialRate, 1, 20, 2, 0.5, clock::get);
+    }
+
+    private static GoogleJsonResponseException forbidden(String reason) {
+        GoogleJsonError.ErrorInfo info = new GoogleJsonError.ErrorInfo();
+        info.setReason(reason);
+        GoogleJsonError error = new GoogleJsonError();
+        error.setCode(403);
+        error.setErrors(List.of(info));
+        return new GoogleJsonResponseException(new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders()), error);
+    }
+
+    @Test
+    void successesRaiseTheRateAdditively() {
+        AdaptiveRateLimiter limiter = limiter(4);
+        limiter.onSuccess();
+        assertEquals(4.5, limiter.getRate(), 1e-9);
+        limiter.onSuccess();
+        assertEquals(4.5 + 2 / 4.5, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void rateNeverLeavesItsBounds() {
+        AdaptiveRateLimiter limiter = limiter(19.99);
+        limiter.onSuccess();
+        assertEquals(20, limiter.getRate(), 1e-9);
+
+        limiter = limiter(1.5);
+        limiter.onThrottled();
+        assertEquals(1, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void throttlingHalvesTheRateOncePerCooldown() {
+        AdaptiveRateLimiter limiter = limiter(16);
+        limiter.onThrottled();
+        limiter.onThrottled();
+        assertEquals(8, limiter.getRate(), 1e-9);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        limiter.onThrottled();
+        assertEquals(4, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void executeFeedsRateLimitFailuresBack() {
+        AdaptiveRateLimiter limiter = limiter(16);
+        assertThrows(HttpResponseException.class, () -> limiter.execute(() -> {
+            throw new HttpResponseException.Builder(429, "Too Many Requests", new HttpHeaders()).build();
+        }));
+        assertEquals(8, limiter.getRate(), 1e-9);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertThrows(IOException.class, () -> limiter.execute(() -> {
+            throw new IOException("disk full");
+        }));
+        assertEquals(8, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void onlyRateLimitReasonsCountAsThrottling() {
+        assertTrue(AdaptiveRateLimiter.isRateLimited(forbidden("userRateLimitExceeded")));
+        assertTrue(AdaptiveRateLimiter.isRateLimited(forbidden("rateLimitExceeded")));
+        assertFalse(AdaptiveRateLimiter.isRateLimited(forbidden("insufficientFilePermissions")));
+        assertFalse(AdaptiveRateLimiter.isRateLimited(new IOException("connection reset")));
+    }
+
+    @Test
+    void rateLimitReasonsAreReadFromRawErrorBodies() {
+        // e.g. a media download or an export link, which the API client does not parse
+        String body = "{\"error\": {\"code\": 403, \"message\": \"Rate Limit Exceeded\", "
+                + "\"errors\": [{\"domain\": \"usageLimits\", \"reason\": \"userRateLimitExceeded\"}]}}";
+        HttpResponseException limited = new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders()).setContent(body).build();
+        HttpResponseException denied = new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders()).setContent("<html>Forbidden</html>").build();
+
+        assertTrue(AdaptiveRateLimiter.isRateLimited(limited));
+        assertEquals(RetryPolicy.Failure.RATE_LIMITED, RetryPolicy.classify(limited));
+        assertFalse(AdaptiveRateLimiter.isRateLimited(denied));
+        assertEquals(List.of(), AdaptiveRateLimiter.errorReasons(denied));
+    }
+}
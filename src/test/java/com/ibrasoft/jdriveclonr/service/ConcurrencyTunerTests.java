@@ -0,0 +1,126 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyTunerTests {
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong transferred = new AtomicLong();
+
+    private ConcurrencyTuner tuner(int initialLimit, int maxLimit) {
+        return new ConcurrencyTuner(initialLimit, maxLimit, throttled::get, transferred::get);
+    }
+
+    private void finish(ConcurrencyTuner tuner, int files, long bytesEach) {
+        for (int i = 0; i < files; i++) {
+            transferred.addAndGet(bytesEach);
+            tuner.record(1_000_000, true);
+        }
+    }
+
+    @Test
+    void keepsClimbingWhileThroughputImproves() {
+        ConcurrencyTuner tuner = tuner(4, 10);
+        finish(tuner, 10, 1_000_000);
+        tuner.adjust(1);
+        assertEquals(5, tuner.getLimit());
+
+        finish(tuner, 20, 1_000_000);
+        tuner.adjust(1);
+        assertEquals(6, tuner.getLimit());
+    }
+
+    @Test
+    void turnsAroundWhenThroughputStopsImproving() {
+        ConcurrencyTuner tuner = tuner(4, 10);
+        finish(tuner, 10, 1_000_000);
+        tuner.adjust(1);
+        finish(tuner, 10, 1_000_000);
+        tuner.adjust(1);
+        assertEquals(4, tuner.getLimit());
+    }
+
+    @Test
+    void rateLimitsCutTheLimitAndItNeverLeavesItsBounds() {
+        ConcurrencyTuner tuner = tuner(8, 8);
+        throttled.incrementAndGet();
+        tuner.adjust(1);
+        assertEquals(6, tuner.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            throttled.incrementAndGet();
+            tuner.adjust(1);
+        }
+        assertEquals(1, tuner.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            finish(tuner, 10 * (i + 1), 1_000_000);
+            tuner.adjust(1);
+        }
+        assertEquals(8, tuner.getLimit());
+    }
+
+    @Test
+    void intervalsWithoutFinishedFilesLeaveTheLimitAlone() {
+        ConcurrencyTuner tuner = tuner(3, 10);
+        tuner.adjust(1);
+        assertEquals(3, tuner.getLimit());
+    }
+
+    @Test
+    void acquireHonoursTheLimit() throws InterruptedException {
+        ConcurrencyTuner tuner = tuner(1, 1);
+        tuner.acquire();
+        Thread waiter = new Thread(() -> {
+            try {
+                tuner.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());
+
+        tuner.release();
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+    }
+
+    @Test
+    void stepsScaleWithTheCap() {
+        ConcurrencyTuner tuner = tuner(ConcurrencyTuner.startingLimit(512), 512);
+        assertEquals(256, tuner.getLimit());
+        finish(tuner, 10, 1_000_000);
+        tuner.adjust(1);
+        assertEquals(288, tuner.getLimit());
+
+        // Low down, steps stay a sizeable share of the cap instead of shrinking to one
+        ConcurrencyTuner low = tuner(4, 512);
+        finish(low, 10, 1_000_000);
+        low.adjust(1);
+        assertEquals(20, low.getLimit());
+    }
+
+    @Test
+    void failuresAndFilesStillInFlightAreScoredToo() {
+        ConcurrencyTuner tuner = tuner(4, 10);
+        finish(tuner, 10, 1_000_000);
+        tuner.adjust(1);
+        assertEquals(5, tuner.getLimit());
+
+        // Only failures: nothing was gained, so the tuner turns around
+        tuner.record(1_000_000, false);
+        tuner.adjust(1);
+        assertEquals(4, tuner.getLimit());
+
+        // A large file still downloading is scored by the bytes it wrote; that beat the last interval, so it carries on
+        transferred.addAndGet(50_000_000);
+        tuner.adjust(1);
+        assertEquals(3, tuner.getLimit());
+    }
+}
@@ -0,0 +1,102 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskWriterTests {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void writesArriveInOrderWhenTheBudgetIsSmallerThanTheFile() throws IOException {
+        DiskWriter writer = new DiskWriter(64, 16);
+        byte[] data = randomBytes(10_000);
+        Path target = dir.resolve("out.bin");
+
+        try (DiskWriter.WriterStream out = writer.open(target)) {
+            out.write(data, 0, 3);
+            out.write(data[3]);
+            out.write(data, 4, data.length - 4);
+        }
+        DiskWriter.awaitClosed();
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(0, writer.getBuffered());
+    }
+
+    @Test
+    void truncateStartsTheFileOver() throws IOException {
+        DiskWriter writer = new DiskWriter(1024, 100);
+        Path target = dir.resolve("retried.bin");
+
+        try (DiskWriter.WriterStream out = writer.open(target)) {
+            out.write(randomBytes(500));
+            out.truncate();
+            out.write(new byte[]{1, 2, 3});
+        }
+        DiskWriter.awaitClosed();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target));
+    }
+
+    @Test
+    void writingAfterCloseFails() throws IOException {
+        DiskWriter.WriterStream out = new DiskWriter(1024, 100).open(dir.resolve("closed.bin"));
+        out.close();
+        out.close();
+        assertThrows(IOException.class, () -> out.write(1));
+    }
+
+    @Test
+    void closeHandsOffAndAppliesTheModifiedTimeAfterTheLastWrite() throws IOException {
+        DiskWriter writer = new DiskWriter(1024, 100);
+        Path first = dir.resolve("first.bin");
+        Path second = dir.resolve("second.bin");
+        FileTime modified = FileTime.fromMillis(1_000_000_000L);
+
+        try (DiskWriter.WriterStream out = writer.open(first)) {
+            out.setLastModifiedTime(modified);
+            out.write(randomBytes(5000));
+        }
+        try (DiskWriter.WriterStream out = writer.open(second)) {
+            out.write(randomBytes(300));
+        }
+        DiskWriter.awaitClosed();
+
+        assertEquals(5000, Files.size(first));
+        assertEquals(modified, Files.getLastModifiedTime(first));
+        assertEquals(300, Files.size(second));
+    }
+
+    @Test
+    void reopeningAFileWaitsForItsEarlierWrites() throws IOException {
+        DiskWriter writer = new DiskWriter(64, 16);
+        Path target = dir.resolve("retried.bin");
+
+        // e.g. an attempt that failed half way and is retried
+        try (DiskWriter.WriterStream out = writer.open(target)) {
+            out.write(randomBytes(10_000));
+        }
+        try (DiskWriter.WriterStream out = writer.open(target)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        DiskWriter.awaitClosed();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target));
+    }
+}
@@ -0,0 +1,165 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ibrasoft.jdriveclonr.service.TestDriveItems.file;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadDeduplicatorTests {
+
+    @TempDir
+    Path root;
+
+    private Path download(String name) throws IOException {
+        return Files.write(root.resolve(name), new byte[]{1, 2, 3});
+    }
+
+    @Test
+    void extraParentsAreLinkedOnceTheFirstDownloadFinishes() throws IOException {
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root), (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem item = file("file", "aaa");
+        Path second = root.resolve("B").resolve("file.bin");
+
+        assertFalse(deduplicator.followById(item, root.resolve("file.bin")));
+        assertTrue(deduplicator.followById(item, second));
+        assertFalse(Files.exists(second));
+
+        deduplicator.resolved(item, download("file.bin"));
+
+        assertTrue(Files.isSameFile(root.resolve("file.bin"), second));
+        assertEquals(1, deduplicator.getDeduplicated());
+    }
+
+    @Test
+    void identicalContentUnderAnotherIdIsNotDownloadedAgain() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(manifest, (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem original = file("original", "aaa");
+        DriveItem copy = file("copy", "aaa");
+        DriveItem other = file("other", "bbb");
+
+        deduplicator.followById(original, root.resolve("original.bin"));
+        assertFalse(deduplicator.followByChecksum(original, root.resolve("original.bin"), null, false));
+        deduplicator.resolved(original, download("original.bin"));
+
+        deduplicator.followById(copy, root.resolve("copy.bin"));
+        assertTrue(deduplicator.followByChecksum(copy, root.resolve("copy.bin"), null, false));
+        assertTrue(Files.isSameFile(root.resolve("original.bin"), root.resolve("copy.bin")));
+        assertTrue(manifest.get("copy").complete());
+
+        deduplicator.followById(other, root.resolve("other.bin"));
+        assertFalse(deduplicator.followByChecksum(other, root.resolve("other.bin"), null, false));
+    }
+
+    @Test
+    void parentsQueuedBeforeACopyIsMatchedFollowItToTheOriginal() throws IOException {
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root), (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem original = file("original", "aaa");
+        DriveItem copy = file("copy", "aaa");
+        Path copyParent = root.resolve("B").resolve("copy.bin");
+
+        deduplicator.followById(original, root.resolve("original.bin"));
+        deduplicator.followByChecksum(original, root.resolve("original.bin"), null, false);
+        deduplicator.followById(copy, root.resolve("copy.bin"));
+        // Listed under its second parent before its checksum was looked at
+        assertTrue(deduplicator.followById(copy, copyParent));
+        assertTrue(deduplicator.followByChecksum(copy, root.resolve("copy.bin"), null, false));
+
+        deduplicator.resolved(original, download("original.bin"));
+
+        assertTrue(Files.isSameFile(root.resolve("original.bin"), root.resolve("copy.bin")));
+        assertTrue(Files.isSameFile(root.resolve("original.bin"), copyParent));
+        assertEquals(2, deduplicator.getDeduplicated());
+    }
+
+    @Test
+    void exportsWrittenAsAFolderArePlacedFileByFile() throws IOException {
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root), (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem sheet = file("sheet", null);
+        Path first = root.resolve("A").resolve("Budget");
+        Path second = root.resolve("B").resolve("Budget");
+
+        assertFalse(deduplicator.followById(sheet, first));
+        assertTrue(deduplicator.followById(sheet, second));
+        // e.g. a spreadsheet exported as one CSV per sheet
+        Files.createDirectories(first.resolve("charts"));
+        Files.write(first.resolve("Q1.csv"), new byte[]{1});
+        Files.write(first.resolve("charts").resolve("Q2.csv"), new byte[]{2});
+
+        deduplicator.resolved(sheet, first);
+
+        assertTrue(Files.isDirectory(second));
+        assertTrue(Files.isSameFile(first.resolve("Q1.csv"), second.resolve("Q1.csv")));
+        assertTrue(Files.isSameFile(first.resolve("charts").resolve("Q2.csv"), second.resolve("charts").resolve("Q2.csv")));
+        assertEquals(2, deduplicator.getDeduplicated());
+    }
+
+    @Test
+    void copiesAreDownloadedThemselvesWhenTheFirstDownloadFailed() {
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root), (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem original = file("original", "aaa");
+        DriveItem copy = file("copy", "aaa");
+
+        deduplicator.followById(original, root.resolve("original.bin"));
+        deduplicator.followByChecksum(original, root.resolve("original.bin"), null, false);
+        deduplicator.failed(original);
+
+        deduplicator.followById(copy, root.resolve("copy.bin"));
+        assertFalse(deduplicator.followByChecksum(copy, root.resolve("copy.bin"), null, false));
+    }
+
+    @Test
+    void waitingCopiesAreDownloadedThemselvesWhenTheirDownloadFails() throws IOException {
+        List<String> downloaded = new ArrayList<>();
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root),
+                (file, directory, parentId, trashed) -> downloaded.add(file.getId() + " in " + root.relativize(directory)));
+        DriveItem original = file("original", "aaa");
+        DriveItem copy = file("copy", "aaa");
+        Path copyTarget = root.resolve("A").resolve("copy.bin");
+        Path copyParent = root.resolve("B").resolve("copy.bin");
+
+        deduplicator.followById(original, root.resolve("original.bin"));
+        deduplicator.followByChecksum(original, root.resolve("original.bin"), null, false);
+        deduplicator.followById(original, root.resolve("B").resolve("original.bin"));
+        deduplicator.followById(copy, copyTarget);
+        assertTrue(deduplicator.followByChecksum(copy, copyTarget, "A", false));
+        assertTrue(deduplicator.followById(copy, copyParent));
+
+        deduplicator.failed(original);
+
+        // The copy downloads itself; its extra parent waits for that, the original's extra parent is given up on
+        assertEquals(List.of("copy in A"), downloaded);
+        assertEquals(1, deduplicator.getNotPlaced());
+        assertTrue(deduplicator.describe().endsWith("1 not placed"));
+
+        Files.createDirectories(copyTarget.getParent());
+        deduplicator.resolved(copy, Files.write(copyTarget, new byte[]{1, 2, 3}));
+        assertTrue(Files.isSameFile(copyTarget, copyParent));
+    }
+
+    @Test
+    void contentReusedWithoutADownloadIsLinkedToo() throws IOException {
+        DownloadDeduplicator deduplicator = new DownloadDeduplicator(new SyncManifest(root), (file, directory, parentId, trashed) -> fail("unexpected download"));
+        DriveItem unchanged = file("unchanged", "aaa");
+        DriveItem copy = file("copy", "aaa");
+
+        // e.g. a mirror run found the local copy current and skipped the download
+        deduplicator.followById(unchanged, root.resolve("unchanged.bin"));
+        deduplicator.registerChecksum(unchanged);
+        deduplicator.resolved(unchanged, download("unchanged.bin"));
+
+        deduplicator.followById(copy, root.resolve("copy.bin"));
+        deduplicator.registerChecksum(copy);
+        assertTrue(deduplicator.followByChecksum(copy, root.resolve("copy.bin"), null, false));
+        assertTrue(Files.isSameFile(root.resolve("unchanged.bin"), root.resolve("copy.bin")));
+    }
+}
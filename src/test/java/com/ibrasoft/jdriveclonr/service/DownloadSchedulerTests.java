@@ -0,0 +1,84 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.SchedulingPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadSchedulerTests {
+
+    private static List<String> drain(DownloadScheduler<String> scheduler) {
+        List<String> order = new ArrayList<>();
+        String next;
+        while ((next = scheduler.poll()) != null) {
+            order.add(next);
+        }
+        return order;
+    }
+
+    private static DownloadScheduler<String> mixed(SchedulingPolicy policy) {
+        DownloadScheduler<String> scheduler = new DownloadScheduler<>(policy);
+        scheduler.add("video", 4_000_000_000L, "Movies");
+        scheduler.add("doc", 0, "Work");
+        scheduler.add("photo", 3_000_000, "Movies");
+        scheduler.add("sheet", 0, "Work");
+        scheduler.add("archive", 700_000_000, "Backups");
+        return scheduler;
+    }
+
+    @Test
+    void discoveryOrderIsFirstInFirstOut() {
+        assertEquals(List.of("video", "doc", "photo", "sheet", "archive"), drain(mixed(SchedulingPolicy.DISCOVERY_ORDER)));
+    }
+
+    @Test
+    void smallFilesGoFirst() {
+        assertEquals(List.of("doc", "sheet", "photo", "archive", "video"), drain(mixed(SchedulingPolicy.SMALL_FILES_FIRST)));
+    }
+
+    @Test
+    void largestFilesAreInterleavedWithSmallOnes() {
+        assertEquals(List.of("video", "doc", "archive", "sheet", "photo"), drain(mixed(SchedulingPolicy.LARGEST_FIRST_INTERLEAVED)));
+    }
+
+    @Test
+    void fairShareTakesTurnsBetweenGroups() {
+        assertEquals(List.of("video", "doc", "archive", "photo", "sheet"), drain(mixed(SchedulingPolicy.FAIR_SHARE)));
+    }
+
+    @Test
+    void bumpedDownloadsGoFirstAndPeekMatchesPolling() {
+        DownloadScheduler<String> scheduler = mixed(SchedulingPolicy.SMALL_FILES_FIRST);
+        assertTrue(scheduler.bump("video"));
+        assertTrue(scheduler.bump("archive"));
+        assertFalse(scheduler.bump("missing"));
+
+        List<String> peeked = scheduler.peek(10);
+        assertEquals(List.of("archive", "video", "doc", "sheet", "photo"), peeked);
+        assertEquals(5, scheduler.size());
+        assertEquals(peeked, drain(scheduler));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void peekMatchesPollingForEveryPolicy() {
+        for (SchedulingPolicy policy : SchedulingPolicy.values()) {
+            DownloadScheduler<String> scheduler = mixed(policy);
+            scheduler.poll();
+            List<String> peeked = scheduler.peek(3);
+            assertEquals(drain(mixed(policy)).subList(1, 4), peeked, policy.name());
+            assertEquals(drain(scheduler).subList(0, 3), peeked, policy.name());
+        }
+    }
+
+    @Test
+    void removedDownloadsAreNotPolled() {
+        DownloadScheduler<String> scheduler = mixed(SchedulingPolicy.FAIR_SHARE);
+        assertTrue(scheduler.remove("doc"));
+        assertTrue(scheduler.remove("sheet"));
+        assertEquals(List.of("video", "archive", "photo"), drain(scheduler));
+    }
+}
@@ -0,0 +1,106 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DriveIndexStoreTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void anIndexSurvivesASaveAndLoad() throws IOException {
+        String md5 = "0123456789abcdef0123456789abcdef";
+        DriveIndex index = DriveIndex.builder()
+                .rootFolderId("root-id")
+                .startPageToken("42")
+                .add(new File().setId("folder").setName("Folder").setMimeType("application/vnd.google-apps.folder").setParents(List.of("root-id")))
+                .add(new File().setId("x").setName("x.png").setMimeType("image/png").setParents(List.of("folder", "root-id"))
+                        .setSize(42L).setModifiedTime(new DateTime(1_700_000_000_000L)).setVersion(7L).setMd5Checksum(md5)
+                        .setTrashed(true).setOwnedByMe(true).setSharedWithMeTime(new DateTime(5L)))
+                .build();
+        Path path = directory.resolve("cache").resolve("drive-index.bin");
+
+        DriveIndexStore.save(index, path);
+        DriveIndex loaded = DriveIndexStore.load(path);
+
+        assertNotNull(loaded);
+        assertEquals("root-id", loaded.getRootFolderId());
+        assertEquals("42", loaded.getStartPageToken());
+        assertEquals(2, loaded.size());
+        assertEquals(List.of("x"), loaded.getChildren("folder").stream().map(File::getId).toList());
+        File x = loaded.get("x");
+        assertEquals("x.png", x.getName());
+        assertEquals(List.of("folder", "root-id"), x.getParents());
+        assertEquals(42L, x.getSize());
+        assertEquals(1_700_000_000_000L, x.getModifiedTime().getValue());
+        assertEquals(7L, x.getVersion());
+        assertEquals(md5, x.getMd5Checksum());
+        assertTrue(x.getTrashed());
+        assertTrue(x.getOwnedByMe());
+        assertNotNull(x.getSharedWithMeTime());
+        assertNull(loaded.get("folder").getSize());
+        assertFalse(Files.exists(path.resolveSibling("drive-index.bin.tmp")));
+    }
+
+    @Test
+    void aVersionOneCacheStillLoads() throws IOException {
+        Path path = directory.resolve("drive-index.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(0x44434958);
+            out.writeInt(1);
+            out.writeUTF("42");
+            out.writeUTF("root-id");
+            out.writeInt(1);
+            out.writeUTF("x");
+            out.writeUTF("x.txt");
+            out.writeUTF("text/plain");
+            out.writeLong(3);
+            out.writeLong(1_700_000_000_000L);
+            // No version in this format
+            out.writeByte(0);
+            out.writeUTF("");
+            out.writeUTF("");
+            out.writeShort(1);
+            out.writeUTF("root-id");
+        }
+
+        DriveIndex loaded = DriveIndexStore.load(path);
+
+        assertNotNull(loaded);
+        File x = loaded.get("x");
+        assertEquals(3L, x.getSize());
+        assertEquals(1_700_000_000_000L, x.getModifiedTime().getValue());
+        assertNull(x.getVersion());
+        assertEquals(List.of("x"), loaded.getChildren("root-id").stream().map(File::getId).toList());
+    }
+
+    @Test
+    void missingUnknownAndTruncatedCachesAreIgnored() throws IOException {
+        assertNull(DriveIndexStore.load(directory.resolve("missing.bin")));
+
+        Path newer = directory.resolve("newer.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(newer))) {
+            out.writeInt(0x44434958);
+            out.writeInt(99);
+        }
+        assertNull(DriveIndexStore.load(newer));
+
+        Path truncated = directory.resolve("truncated.bin");
+        DriveIndexStore.save(DriveIndex.builder().add(new File().setId("x").setName("x").setMimeType("text/plain")).build(), truncated);
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 4));
+        assertNull(DriveIndexStore.load(truncated));
+    }
+}
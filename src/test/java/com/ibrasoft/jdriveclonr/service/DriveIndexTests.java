@@ -0,0 +1,83 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DriveIndexTests {
+
+    private static File file(String id, String mimeType, String... parents) {
+        return new File().setId(id).setName(id + " name").setMimeType(mimeType).setParents(List.of(parents));
+    }
+
+    @Test
+    void childrenAreResolvedThroughParentsOutsideTheIndex() {
+        DriveIndex index = DriveIndex.builder()
+                .rootFolderId("root-id")
+                .add(file("folder", "application/vnd.google-apps.folder", "root-id"))
+                .add(file("a", "text/plain", "folder"))
+                .add(file("b", "text/plain", "folder", "root-id"))
+                .build();
+
+        assertTrue(index.covers("root-id"));
+        assertTrue(index.covers("folder"));
+        assertFalse(index.covers("elsewhere"));
+        assertEquals(List.of("a", "b"), index.getChildren("folder").stream().map(File::getId).toList());
+        assertEquals(List.of("folder", "b"), index.getChildren("root-id").stream().map(File::getId).toList());
+        assertEquals(List.of("folder", "root-id"), index.get("b").getParents());
+        assertTrue(index.getChildren("a").isEmpty());
+    }
+
+    @Test
+    void viewsCarryTheOriginalMetadata() {
+        String md5 = "0123456789abcdef0123456789abcdef";
+        File original = file("x", "image/png", "root-id")
+                .setSize(42L)
+                .setModifiedTime(new DateTime(1_700_000_000_000L))
+                .setMd5Checksum(md5)
+                .setWebContentLink("https://drive.google.com/uc?id=x&export=download")
+                .setTrashed(true)
+                .setOwnedByMe(true);
+        File odd = file("y", "image/png", "root-id")
+                .setMd5Checksum("not-a-checksum")
+                .setWebContentLink("https://example.com/y");
+
+        DriveIndex index = DriveIndex.builder().add(original).add(odd).build();
+
+        File view = index.get("x");
+        assertEquals(42L, view.getSize());
+        assertEquals(1_700_000_000_000L, view.getModifiedTime().getValue());
+        assertEquals(md5, view.getMd5Checksum());
+        assertEquals(original.getWebContentLink(), view.getWebContentLink());
+        assertTrue(view.getTrashed());
+        assertTrue(view.getOwnedByMe());
+        assertFalse(view.getShared());
+        assertEquals("not-a-checksum", index.get("y").getMd5Checksum());
+        assertEquals("https://example.com/y", index.get("y").getWebContentLink());
+    }
+
+    @Test
+    void toBuilderAppliesMovesAndRemovals() {
+        DriveIndex index = DriveIndex.builder()
+                .add(file("f1", "application/vnd.google-apps.folder", "root-id"))
+                .add(file("f2", "application/vnd.google-apps.folder", "root-id"))
+                .add(file("a", "text/plain", "f1"))
+                .add(file("b", "text/plain", "f1"))
+                .build();
+
+        DriveIndex updated = index.toBuilder()
+                .put(file("a", "text/plain", "f2"))
+                .remove("b")
+                .build();
+
+        assertTrue(updated.getChildren("f1").isEmpty());
+        assertEquals(List.of("a"), updated.getChildren("f2").stream().map(File::getId).toList());
+        assertNull(updated.get("b"));
+        assertEquals(3, updated.size());
+        assertEquals(2, index.getChildren("f1").size());
+    }
+}
@@ -0,0 +1,91 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GoogleBatcherTests {
+
+    private final List<String> urls = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean holdFirst;
+
+    /**
+     * Answers each file request with the file's ID, and rejects batches so their requests are sent one by one.
+     */
+    private final MockHttpTransport transport = new MockHttpTransport() {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    urls.add(url);
+                    if (url.startsWith(GoogleBatcher.DRIVE_BATCH_URL)) {
+                        return new MockLowLevelHttpResponse().setStatusCode(500);
+                    }
+                    if (holdFirst && urls.size() == 1) {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+                    String id = path.substring(path.lastIndexOf('/') + 1);
+                    return new MockLowLevelHttpResponse()
+                            .setContentType("application/json")
+                            .setContent("{\"id\": \"" + id + "\"}");
+                }
+            };
+        }
+    };
+
+    private final Drive drive = new Drive.Builder(transport, GsonFactory.getDefaultInstance(), null)
+            .setApplicationName("test")
+            .build();
+
+    @Test
+    void aLoneRequestIsSentWithoutWaitingForTheLinger() throws IOException {
+        GoogleBatcher batcher = new GoogleBatcher(drive, GoogleBatcher.DRIVE_BATCH_URL, null, QuotaClass.DRIVE_METADATA, Duration.ofMinutes(1));
+
+        File file = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> batcher.execute(drive.files().get("a")));
+
+        assertEquals("a", file.getId());
+        assertEquals(1, urls.size());
+        assertFalse(urls.getFirst().startsWith(GoogleBatcher.DRIVE_BATCH_URL));
+    }
+
+    @Test
+    void requestsArrivingWhileOneIsInFlightAreBatchedAtTheApisEndpoint() throws Exception {
+        GoogleBatcher batcher = new GoogleBatcher(drive, GoogleBatcher.DRIVE_BATCH_URL, null, QuotaClass.DRIVE_METADATA, Duration.ofMillis(10));
+        holdFirst = true;
+
+        CompletableFuture<File> first = batcher.submit(drive.files().get("first"));
+        CompletableFuture<File> second = batcher.submit(drive.files().get("second"));
+        CompletableFuture<File> third = batcher.submit(drive.files().get("third"));
+        release.countDown();
+
+        assertEquals("first", first.get(10, TimeUnit.SECONDS).getId());
+        assertEquals("second", second.get(10, TimeUnit.SECONDS).getId());
+        assertEquals("third", third.get(10, TimeUnit.SECONDS).getId());
+        // The rejected batch was retried one request at a time
+        assertEquals(1, urls.stream().filter(url -> url.startsWith(GoogleBatcher.DRIVE_BATCH_URL)).count());
+        assertEquals(4, urls.size());
+    }
+}
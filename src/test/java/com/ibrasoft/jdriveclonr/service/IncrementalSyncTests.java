@@ -0,0 +1,143 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.Drive;
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalSyncTests {
+
+    @TempDir
+    Path root;
+
+    /**
+     * Stands in for the download pipeline: discovering a folder queues the files listed in it, as the coordinator's
+     * folder walk does.
+     */
+    private static class RecordingActions implements IncrementalSync.Actions {
+        private final SyncManifest manifest;
+        private final List<String> listedChildren;
+        private final List<String> downloads = new ArrayList<>();
+        private final List<String> discovered = new ArrayList<>();
+        private final Set<String> queued = new HashSet<>();
+
+        RecordingActions(SyncManifest manifest, List<String> listedChildren) {
+            this.manifest = manifest;
+            this.listedChildren = listedChildren;
+        }
+
+        @Override
+        public Path outputPathFor(DriveItem file, Path directory) {
+            return directory.resolve(file.getName());
+        }
+
+        @Override
+        public void download(DriveItem file, Path directory, String parentId, boolean trashed) {
+            queue(file.getId(), file.getName(), directory, parentId);
+        }
+
+        @Override
+        public void discover(DriveItem folder, Path directory, String parentId, boolean trashed) {
+            discovered.add(folder.getId());
+            manifest.put(new SyncManifest.Entry(folder.getId(), parentId, manifest.relativize(directory), true, trashed, 0L, true));
+            for (String child : listedChildren) {
+                queue(child, child + ".txt", directory, folder.getId());
+            }
+        }
+
+        @Override
+        public boolean isQueued(String fileId) {
+            return queued.contains(fileId);
+        }
+
+        private void queue(String id, String name, Path directory, String parentId) {
+            downloads.add(id);
+            queued.add(id);
+            manifest.put(new SyncManifest.Entry(id, parentId, manifest.relativize(directory.resolve(name)), false, false, 0L, false));
+        }
+    }
+
+    private DriveAPIService driveReturning(String changeList) {
+        MockHttpTransport transport = new MockHttpTransport.Builder()
+                .setLowLevelHttpResponse(new MockLowLevelHttpResponse()
+                        .setContentType("application/json")
+                        .setContent(changeList))
+                .build();
+        Drive drive = new Drive.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+        return new DriveAPIService(drive, new QuotaLimiters());
+    }
+
+    private SyncManifest clonedRoot() throws Exception {
+        Files.createDirectories(root.resolve("My Drive"));
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.setStartPageToken("1");
+        manifest.put(new SyncManifest.Entry("root", null, "My Drive", true, false, 0L, true));
+        return manifest;
+    }
+
+    @Test
+    void filesInAFolderNewInTheSameBatchAreDownloadedOnce() throws Exception {
+        SyncManifest manifest = clonedRoot();
+        DriveAPIService driveAPI = driveReturning("""
+                {"newStartPageToken": "2", "changes": [
+                  {"fileId": "folder", "file": {"id": "folder", "name": "New", "mimeType": "application/vnd.google-apps.folder", "parents": ["root"]}},
+                  {"fileId": "child", "file": {"id": "child", "name": "child.txt", "mimeType": "text/plain", "parents": ["folder"], "modifiedTime": "2024-01-01T00:00:00Z"}}
+                ]}""");
+        RecordingActions actions = new RecordingActions(manifest, List.of("child"));
+
+        assertEquals("2", new IncrementalSync(driveAPI, manifest, actions).apply());
+
+        assertEquals(List.of("folder"), actions.discovered);
+        assertEquals(List.of("child"), actions.downloads);
+    }
+
+    @Test
+    void aRenamedFileMissingLocallyIsDownloadedAgain() throws Exception {
+        SyncManifest manifest = clonedRoot();
+        long modified = new DateTime("2024-01-01T00:00:00Z").getValue();
+        manifest.put(new SyncManifest.Entry("file", "root", Path.of("My Drive", "old.txt").toString(), false, false, modified, true));
+        DriveAPIService driveAPI = driveReturning("""
+                {"newStartPageToken": "2", "changes": [
+                  {"fileId": "file", "file": {"id": "file", "name": "new.txt", "mimeType": "text/plain", "parents": ["root"], "modifiedTime": "2024-01-01T00:00:00Z"}}
+                ]}""");
+        RecordingActions actions = new RecordingActions(manifest, List.of());
+
+        new IncrementalSync(driveAPI, manifest, actions).apply();
+
+        assertEquals(List.of("file"), actions.downloads);
+        assertEquals(Path.of("My Drive", "new.txt").toString(), manifest.get("file").path());
+    }
+
+    @Test
+    void aFolderRenamedOntoAnExistingNameIsDiscoveredAgain() throws Exception {
+        SyncManifest manifest = clonedRoot();
+        Files.createDirectories(root.resolve("My Drive").resolve("Old"));
+        Files.createDirectories(root.resolve("My Drive").resolve("Taken"));
+        manifest.put(new SyncManifest.Entry("folder", "root", Path.of("My Drive", "Old").toString(), true, false, 0L, true));
+        DriveAPIService driveAPI = driveReturning("""
+                {"newStartPageToken": "2", "changes": [
+                  {"fileId": "folder", "file": {"id": "folder", "name": "Taken", "mimeType": "application/vnd.google-apps.folder", "parents": ["root"]}}
+                ]}""");
+        RecordingActions actions = new RecordingActions(manifest, List.of());
+
+        new IncrementalSync(driveAPI, manifest, actions).apply();
+
+        assertEquals(List.of("folder"), actions.discovered);
+        assertFalse(Files.exists(root.resolve("My Drive").resolve("Old")));
+        assertEquals(Path.of("My Drive", "Taken").toString(), manifest.get("folder").path());
+    }
+}
@@ -0,0 +1,201 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.sheets.v4.Sheets;
+import com.ibrasoft.jdriveclonr.export.GoogleSheetsExporter;
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import com.ibrasoft.jdriveclonr.model.mime.ExportFormat;
+import com.ibrasoft.jdriveclonr.model.mime.GoogleMime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.ibrasoft.jdriveclonr.service.TestDriveItems.file;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MirrorSyncTests {
+
+    @TempDir
+    Path root;
+
+    private SyncManifest.Entry cloned(String id, String path, String md5, long size) throws IOException {
+        return cloned(id, null, path, md5, size);
+    }
+
+    private SyncManifest.Entry cloned(String id, String parentId, String path, String md5, long size) throws IOException {
+        Path local = root.resolve(path);
+        Files.createDirectories(local.getParent());
+        Files.write(local, new byte[(int) size]);
+        return new SyncManifest.Entry(id, parentId, path, false, false, 1_000_000L, true, md5, size, 1L);
+    }
+
+    @Test
+    void unchangedFilesAreSkippedAndChangedOnesAreNot() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(cloned("same", "same.bin", "aaa", 3));
+        manifest.put(cloned("edited", "edited.bin", "bbb", 3));
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        assertTrue(mirror.skipIfUnchanged(file("same", "same.bin", "aaa", 3), root.resolve("same.bin"), null, false));
+        assertFalse(mirror.skipIfUnchanged(file("edited", "edited.bin", "ccc", 3), root.resolve("edited.bin"), null, false));
+        assertFalse(mirror.skipIfUnchanged(file("new", "new.bin", "ddd", 3), root.resolve("new.bin"), null, false));
+        assertEquals(1, mirror.getUnchanged());
+    }
+
+    @Test
+    void renamedFilesAreMovedInsteadOfDownloaded() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(cloned("file", "old.bin", "aaa", 3));
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        Path target = root.resolve("renamed.bin");
+        assertTrue(mirror.skipIfUnchanged(file("file", "renamed.bin", "aaa", 3), target, null, false));
+
+        assertTrue(Files.exists(target));
+        assertFalse(Files.exists(root.resolve("old.bin")));
+        assertEquals("renamed.bin", manifest.get("file").path());
+    }
+
+    @Test
+    void deleteRemovedOnlyDeletesWhatAListedFolderNoLongerHolds() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(new SyncManifest.Entry("folder", "root", "Gone", true, false, 0L, true));
+        manifest.put(cloned("removed", "folder", Path.of("Gone", "a.bin").toString(), "aaa", 3));
+        manifest.put(cloned("kept", "root", "b.bin", "bbb", 3));
+        Files.writeString(root.resolve("Gone").resolve("notes.txt"), "added by hand");
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        mirror.folderListed("root");
+        mirror.skipIfUnchanged(file("kept", "b.bin", "bbb", 3), root.resolve("b.bin"), "root", false);
+        assertEquals(2, mirror.deleteRemoved());
+
+        assertFalse(Files.exists(root.resolve("Gone").resolve("a.bin")));
+        assertTrue(Files.exists(root.resolve("Gone").resolve("notes.txt")));
+        assertTrue(Files.exists(root.resolve("b.bin")));
+        assertNull(manifest.get("removed"));
+        assertNotNull(manifest.get("kept"));
+    }
+
+    @Test
+    void deleteRemovedKeepsWhatIsOutsideTheListedFolders() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(cloned("deselected", "other", Path.of("Other", "a.bin").toString(), "aaa", 3));
+        manifest.put(cloned("unlisted", "partial", Path.of("Partial", "b.bin").toString(), "bbb", 3));
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        // "partial" was reached but not listed in full, e.g. only some of its children were selected
+        mirror.folderSeen("partial", root.resolve("Partial"));
+        assertEquals(0, mirror.deleteRemoved());
+
+        assertTrue(Files.exists(root.resolve("Other").resolve("a.bin")));
+        assertTrue(Files.exists(root.resolve("Partial").resolve("b.bin")));
+        assertNotNull(manifest.get("deselected"));
+        assertNotNull(manifest.get("unlisted"));
+    }
+
+    private static File indexed(String id, String... parents) {
+        return new File().setId(id).setName(id).setMimeType("text/plain").setParents(List.of(parents));
+    }
+
+    /**
+     * Two folders cloned last run, "Left" holding a file and a subfolder with another file, and "Right" one file.
+     */
+    private SyncManifest clonedTree() throws IOException {
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(new SyncManifest.Entry("left", "root", "Left", true, false, 0L, true));
+        manifest.put(new SyncManifest.Entry("sub", "left", Path.of("Left", "Sub").toString(), true, false, 0L, true));
+        manifest.put(new SyncManifest.Entry("right", "root", "Right", true, false, 0L, true));
+        manifest.put(cloned("a", "left", Path.of("Left", "a.bin").toString(), "aaa", 3));
+        manifest.put(cloned("b", "sub", Path.of("Left", "Sub", "b.bin").toString(), "bbb", 3));
+        manifest.put(cloned("c", "right", Path.of("Right", "c.bin").toString(), "ccc", 3));
+        return manifest;
+    }
+
+    private static DriveIndex.Builder indexOfTree() {
+        return DriveIndex.builder()
+                .rootFolderId("root")
+                .add(indexed("left", "root"))
+                .add(indexed("sub", "left"))
+                .add(indexed("right", "root"))
+                .add(indexed("a", "left"))
+                .add(indexed("b", "sub"))
+                .add(indexed("c", "right"));
+    }
+
+    @Test
+    void foldersWithNoChangesAreSkippedWhole() throws IOException {
+        SyncManifest manifest = clonedTree();
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        mirror.useChanges(List.of(), indexOfTree().build());
+
+        assertEquals(List.of("left", "sub"), mirror.skipFolderIfUnchanged("left", root.resolve("Left")));
+        assertEquals(2, mirror.getUnchanged());
+        // Everything in the skipped folder counts as seen, so none of it is deleted
+        mirror.folderListed("root");
+        mirror.folderSeen("right", root.resolve("Right"));
+        mirror.skipIfUnchanged(file("c", "c.bin", "ccc", 3), root.resolve("Right").resolve("c.bin"), "right", false);
+        assertEquals(0, mirror.deleteRemoved());
+        assertTrue(Files.exists(root.resolve("Left").resolve("Sub").resolve("b.bin")));
+    }
+
+    @Test
+    void foldersAboveAChangeOrAnUnclonedChildAreWalked() throws IOException {
+        SyncManifest manifest = clonedTree();
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        // "b" changed, and "right" holds an item the last run did not clone
+        mirror.useChanges(List.of(new Change().setFileId("b").setFile(indexed("b", "sub"))),
+                indexOfTree().add(indexed("d", "right")).build());
+
+        assertNull(mirror.skipFolderIfUnchanged("left", root.resolve("Left")));
+        assertNull(mirror.skipFolderIfUnchanged("sub", root.resolve("Left").resolve("Sub")));
+        assertNull(mirror.skipFolderIfUnchanged("right", root.resolve("Right")));
+        assertEquals(0, mirror.getUnchanged());
+    }
+
+    @Test
+    void nothingIsSkippedWithoutAChangeFeed() throws IOException {
+        MirrorSync mirror = new MirrorSync(clonedTree());
+
+        assertNull(mirror.skipFolderIfUnchanged("left", root.resolve("Left")));
+    }
+
+    @Test
+    void aChangedSheetIsExportedOverItsLastCopy() throws Exception {
+        MockHttpTransport transport = new MockHttpTransport.Builder()
+                .setLowLevelHttpResponse(new MockLowLevelHttpResponse()
+                        .setContentType("application/json")
+                        .setContent("{\"sheets\": []}"))
+                .build();
+        Sheets sheets = new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+        GoogleSheetsExporter exporter = new GoogleSheetsExporter(() -> sheets, null, new QuotaLimiters(), null, DiskWriter.shared());
+        DriveItem sheet = new DriveItem("sheet-0001", "Budget", GoogleMime.SHEETS.getMimeType(), 0, new DateTime(1_000_000L), false, List.of(), null, null);
+        sheet.setVersion(2);
+
+        // Exported by the last run, at an older version
+        Path target = root.resolve(exporter.getOutputName(sheet, ExportFormat.CSV));
+        Files.createDirectories(target);
+        Files.writeString(target.resolve("Old tab.csv"), "a,b");
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(new SyncManifest.Entry(sheet.getId(), null, manifest.relativize(target), false, false, 1_000_000L, true, null, 0, 1L));
+        MirrorSync mirror = new MirrorSync(manifest);
+
+        assertFalse(mirror.skipIfUnchanged(sheet, target, null, false));
+        exporter.exportDocument(sheet, root.toString(), ExportFormat.CSV, (done, total, message) -> { });
+
+        assertTrue(Files.isDirectory(target));
+        assertFalse(Files.exists(target.resolve("Old tab.csv")));
+        assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ".partial")));
+    }
+}
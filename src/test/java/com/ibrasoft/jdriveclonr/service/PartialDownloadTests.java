@@ -0,0 +1,104 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartialDownloadTests {
+
+    @TempDir
+    Path dir;
+
+    private final DiskWriter writer = new DiskWriter(1024, 100);
+
+    private static String md5(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+
+    @Test
+    void anInterruptedDownloadResumesWhereItStopped() throws Exception {
+        Path target = dir.resolve("video.mp4");
+        String md5 = md5(new byte[]{1, 2, 3, 4, 5, 6});
+        try (PartialDownload first = PartialDownload.open(writer, target, md5, 10L, 6, FsyncPolicy.ON_COMPLETE)) {
+            first.write(new byte[]{1, 2, 3, 4});
+        }
+        assertFalse(Files.exists(target));
+
+        try (PartialDownload second = PartialDownload.open(writer, target, md5, 10L, 6, FsyncPolicy.ON_COMPLETE)) {
+            assertEquals(4, second.getResumedFrom());
+            second.write(new byte[]{5, 6});
+            assertTrue(second.isComplete());
+            second.commit();
+        }
+
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, Files.readAllBytes(target));
+        assertFalse(Files.exists(dir.resolve("video.mp4" + PartialDownload.PART_SUFFIX)));
+        assertFalse(Files.exists(dir.resolve("video.mp4" + PartialDownload.SIDECAR_SUFFIX)));
+    }
+
+    @Test
+    void aChangedFileStartsOver() throws Exception {
+        Path target = dir.resolve("notes.txt");
+        try (PartialDownload first = PartialDownload.open(writer, target, md5(new byte[]{1, 2, 3, 4, 5, 6}), 10L, 6, FsyncPolicy.NEVER)) {
+            first.write(new byte[]{1, 2, 3});
+        }
+
+        try (PartialDownload second = PartialDownload.open(writer, target, md5(new byte[]{9}), 20L, 6, FsyncPolicy.NEVER)) {
+            assertEquals(0, second.getResumedFrom());
+            second.write(new byte[]{9});
+            second.commit();
+        }
+
+        assertArrayEquals(new byte[]{9}, Files.readAllBytes(target));
+    }
+
+    @Test
+    void restartDiscardsWhatWasWritten() throws IOException {
+        Path target = dir.resolve("photo.jpg");
+        try (PartialDownload download = PartialDownload.open(writer, target, null, 10L, 3, FsyncPolicy.EVERY_CHECKPOINT)) {
+            download.write(new byte[]{7, 7});
+            assertEquals(2, download.checkpoint());
+            download.restart();
+            download.write(new byte[]{1, 2, 3});
+            download.commit();
+        }
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target));
+    }
+
+    @Test
+    void aDownloadThatDoesNotMatchTheChecksumIsThrownAway() throws Exception {
+        Path target = dir.resolve("archive.zip");
+        try (PartialDownload download = PartialDownload.open(writer, target, md5(new byte[]{1, 2, 3}), 10L, 3, FsyncPolicy.NEVER)) {
+            download.write(new byte[]{1, 2, 4});
+            assertThrows(IOException.class, download::commit);
+        }
+
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(dir.resolve("archive.zip" + PartialDownload.PART_SUFFIX)));
+        assertFalse(Files.exists(dir.resolve("archive.zip" + PartialDownload.SIDECAR_SUFFIX)));
+    }
+
+    @Test
+    void aDiscardedDownloadLeavesNothingBehind() throws IOException {
+        Path target = dir.resolve("report.pdf");
+        try (PartialDownload download = PartialDownload.open(writer, target, null, 10L, 6, FsyncPolicy.NEVER)) {
+            download.write(new byte[]{1, 2});
+            download.checkpoint();
+            download.discard();
+        }
+
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(dir.resolve("report.pdf" + PartialDownload.PART_SUFFIX)));
+        assertFalse(Files.exists(dir.resolve("report.pdf" + PartialDownload.SIDECAR_SUFFIX)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuotaLimitersTests {
+
+    private final List<Long> sleeps = new ArrayList<>();
+
+    private QuotaLimiters limiters() {
+        return new QuotaLimiters(new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(10), sleeps::add));
+    }
+
+    private static HttpResponseException status(int code) {
+        return new HttpResponseException.Builder(code, null, new HttpHeaders()).build();
+    }
+
+    @Test
+    void rateLimitedCallsAreRetriedAndCounted() throws Exception {
+        QuotaLimiters limiters = limiters();
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = limiters.execute(QuotaClass.DRIVE_METADATA, () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw status(429);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, calls.get());
+        assertEquals(1, sleeps.size());
+        assertEquals(1, limiters.getThrottledCalls());
+    }
+
+    @Test
+    void executeOnceDoesNotRetry() {
+        QuotaLimiters limiters = limiters();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(HttpResponseException.class, () -> limiters.executeOnce(QuotaClass.DRIVE_METADATA, 1, () -> {
+            calls.incrementAndGet();
+            throw status(503);
+        }));
+        assertEquals(1, calls.get());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    void slotsAreOnlyHeldWhileACallRuns() throws Exception {
+        QuotaLimiters limiters = limiters();
+        int slots = QuotaClass.SHEETS.getMaxConcurrent();
+        CountDownLatch running = new CountDownLatch(slots);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> holders = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            holders.add(Thread.ofVirtual().start(() -> {
+                try {
+                    limiters.executeOnce(QuotaClass.SHEETS, 1, () -> {
+                        running.countDown();
+                        release.await();
+                        return null;
+                    });
+                } catch (IOException | InterruptedException e) {
+                    fail(e);
+                }
+            }));
+        }
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        // Retrying takes no slot, so it is not held up by the calls in flight
+        assertEquals("ok", assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> limiters.retry(QuotaClass.SHEETS, () -> "ok")));
+
+        CountDownLatch started = new CountDownLatch(1);
+        Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                limiters.executeOnce(QuotaClass.SHEETS, 1, () -> {
+                    started.countDown();
+                    return null;
+                });
+            } catch (IOException | InterruptedException e) {
+                fail(e);
+            }
+        });
+        assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        waiting.join();
+        for (Thread holder : holders) {
+            holder.join();
+        }
+    }
+}
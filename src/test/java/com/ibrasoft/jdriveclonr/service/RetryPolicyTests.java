@@ -0,0 +1,119 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.AccessDeniedException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTests {
+
+    private final List<Long> sleeps = new ArrayList<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    private RetryPolicy policy(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, Duration.ofMillis(100), Duration.ofSeconds(10), sleeps::add);
+    }
+
+    private CircuitBreaker breaker() {
+        return new CircuitBreaker("test", TimeUnit.SECONDS.toNanos(30), clock::get);
+    }
+
+    private static HttpResponseException status(int code, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.setRetryAfter(retryAfter);
+        }
+        return new HttpResponseException.Builder(code, null, headers).build();
+    }
+
+    @Test
+    void transientFailuresAreRetriedUntilTheCallSucceeds() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        String result = policy(5).execute(breaker(), () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw status(503, null);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(2, sleeps.size());
+        assertTrue(sleeps.stream().allMatch(delay -> delay >= 100 && delay <= 10_000));
+    }
+
+    @Test
+    void retryAfterIsHonoured() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        policy(3).execute(breaker(), () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw status(429, "7");
+            }
+            return null;
+        });
+
+        assertEquals(List.of(7000L), sleeps);
+    }
+
+    @Test
+    void permanentFailuresAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(HttpResponseException.class, () -> policy(5).execute(breaker(), () -> {
+            calls.incrementAndGet();
+            throw status(404, null);
+        }));
+        assertEquals(1, calls.get());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    void failuresAreClassified() {
+        assertEquals(RetryPolicy.Failure.RATE_LIMITED, RetryPolicy.classify(status(429, null)));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(status(502, null)));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(new SocketTimeoutException("read timed out")));
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(status(403, null)));
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(new AccessDeniedException("/tmp/x")));
+    }
+
+    @Test
+    void jitteredDelaysStayBetweenBaseAndCap() {
+        RetryPolicy policy = policy(5);
+        long previous = 100;
+        for (int i = 0; i < 50; i++) {
+            long delay = policy.nextJitteredDelay(previous);
+            assertTrue(delay >= 100 && delay <= Math.min(10_000, previous * 3), "delay " + delay);
+            previous = delay;
+        }
+    }
+
+    @Test
+    void breakerOpensWhenMostCallsFailAndClosesAfterASuccessfulTrial() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire() > 0);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertEquals(0, breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire() > 0, "only one trial call at a time");
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.tryAcquire());
+    }
+}
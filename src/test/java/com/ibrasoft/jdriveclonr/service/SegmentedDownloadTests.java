@@ -0,0 +1,144 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.FsyncPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedDownloadTests {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+
+    private static String md5(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+
+    /**
+     * Serves a segment's missing range from {@code data} in small chunks, like a ranged HTTP response.
+     */
+    private static void serve(byte[] data, SegmentedDownload.Segment segment, long stopAt) throws IOException {
+        for (long position = segment.getFirstByte(); position <= segment.getLastByte(); position += 10) {
+            if (position >= stopAt) {
+                throw new IOException("Connection reset");
+            }
+            int length = (int) Math.min(10, segment.getLastByte() + 1 - position);
+            segment.write(data, (int) position, length);
+        }
+    }
+
+    @Test
+    void splitCoversTheWholeFile() {
+        List<long[]> ranges = SegmentedDownload.split(1003, 4);
+        assertEquals(4, ranges.size());
+        assertEquals(0, ranges.getFirst()[0]);
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1)[1], ranges.get(i)[0]);
+        }
+        assertEquals(1003, ranges.getLast()[1]);
+    }
+
+    @Test
+    void segmentsAreWrittenInPlace() throws Exception {
+        byte[] data = randomBytes(1003);
+        Path target = dir.resolve("video.mp4");
+        AtomicLong reported = new AtomicLong();
+
+        try (SegmentedDownload download = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.ON_COMPLETE)) {
+            download.download(segment -> serve(data, segment, Long.MAX_VALUE), reported::addAndGet);
+            download.commit();
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(data.length, reported.get());
+    }
+
+    @Test
+    void aFailedDownloadResumesOnlyTheMissingBytes() throws Exception {
+        byte[] data = randomBytes(1003);
+        Path target = dir.resolve("archive.zip");
+
+        try (SegmentedDownload first = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.NEVER)) {
+            // Everything from byte 600 on fails, so the last segments stop partway or never start
+            assertThrows(IOException.class, () -> first.download(segment -> serve(data, segment, 600), bytes -> {
+            }));
+        }
+        assertFalse(Files.exists(target));
+
+        AtomicLong fetched = new AtomicLong();
+        try (SegmentedDownload second = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.NEVER)) {
+            assertTrue(second.getResumedFrom() > 0);
+            second.download(segment -> serve(data, segment, Long.MAX_VALUE), fetched::addAndGet);
+            assertEquals(data.length, second.getResumedFrom() + fetched.get());
+            second.commit();
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    void aDownloadThatDoesNotMatchTheChecksumIsThrownAway() throws Exception {
+        byte[] data = randomBytes(1003);
+        byte[] corrupted = data.clone();
+        corrupted[700] ^= 1;
+        Path target = dir.resolve("disk.img");
+
+        try (SegmentedDownload download = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.NEVER)) {
+            download.download(segment -> serve(corrupted, segment, Long.MAX_VALUE), bytes -> {
+            });
+            assertThrows(IOException.class, download::commit);
+        }
+
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(dir.resolve("disk.img" + PartialDownload.PART_SUFFIX)));
+        assertFalse(Files.exists(dir.resolve("disk.img" + PartialDownload.SIDECAR_SUFFIX)));
+    }
+
+    @Test
+    void aFailingSegmentInterruptsTheOthers() throws Exception {
+        byte[] data = randomBytes(1003);
+        Path target = dir.resolve("movie.mkv");
+
+        try (SegmentedDownload first = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.NEVER)) {
+            IOException failure = assertThrows(IOException.class, () -> assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> first.download(segment -> {
+                        if (segment.getFirstByte() == 0) {
+                            // Fails once the other segments are stuck, e.g. waiting on a stalled connection
+                            serve(data, segment, 100);
+                        } else {
+                            segment.write(data, (int) segment.getFirstByte(), 50);
+                            Thread.sleep(Duration.ofMinutes(1));
+                        }
+                    }, bytes -> {
+                    })));
+            assertEquals("Connection reset", failure.getMessage());
+        }
+
+        // What the interrupted segments had received was written, and the next attempt carries on from it
+        try (SegmentedDownload second = SegmentedDownload.open(target, md5(data), 10L, data.length, FsyncPolicy.NEVER)) {
+            assertTrue(second.getResumedFrom() >= 100);
+            second.download(segment -> serve(data, segment, Long.MAX_VALUE), bytes -> {
+            });
+            second.commit();
+        }
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+}
@@ -0,0 +1,62 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.ibrasoft.jdriveclonr.model.SyncManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.ibrasoft.jdriveclonr.service.TestDriveItems.file;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotLinkerTests {
+
+    @TempDir
+    Path destination;
+
+    private void snapshot(String name, String id, String md5) throws IOException {
+        Path root = destination.resolve(SnapshotLinker.SNAPSHOT_PREFIX + name);
+        Files.createDirectories(root);
+        Files.write(root.resolve(id + ".bin"), new byte[]{1, 2, 3});
+        SyncManifest manifest = new SyncManifest(root);
+        manifest.put(new SyncManifest.Entry(id, null, id + ".bin", false, false, 1_000_000L, true, md5, 3, 1));
+        manifest.save();
+    }
+
+    @Test
+    void linksUnchangedFilesFromTheLatestSnapshot() throws IOException {
+        snapshot("2025-01-01 10-00-00", "file", "old");
+        snapshot("2025-01-02 10-00-00", "file", "aaa");
+        Path root = Files.createDirectories(destination.resolve(SnapshotLinker.SNAPSHOT_PREFIX + "2025-01-03 10-00-00"));
+        SyncManifest manifest = new SyncManifest(root);
+
+        SnapshotLinker linker = SnapshotLinker.forLatest(manifest);
+        assertNotNull(linker);
+
+        Path target = root.resolve("file.bin");
+        assertTrue(linker.linkIfUnchanged(file("file", "aaa"), target, null, false));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target));
+        assertTrue(manifest.get("file").complete());
+        assertEquals(1, linker.getReused());
+    }
+
+    @Test
+    void changedAndNewFilesAreLeftToDownload() throws IOException {
+        snapshot("2025-01-01 10-00-00", "file", "aaa");
+        Path root = Files.createDirectories(destination.resolve(SnapshotLinker.SNAPSHOT_PREFIX + "2025-01-02 10-00-00"));
+        SnapshotLinker linker = SnapshotLinker.forLatest(new SyncManifest(root));
+        assertNotNull(linker);
+
+        assertFalse(linker.linkIfUnchanged(file("file", "bbb"), root.resolve("file.bin"), null, false));
+        assertFalse(linker.linkIfUnchanged(file("new", "ccc"), root.resolve("new.bin"), null, false));
+        assertFalse(Files.exists(root.resolve("file.bin")));
+    }
+
+    @Test
+    void noLinkerWithoutAnEarlierSnapshot() throws IOException {
+        Path root = Files.createDirectories(destination.resolve(SnapshotLinker.SNAPSHOT_PREFIX + "2025-01-01 10-00-00"));
+        assertNull(SnapshotLinker.forLatest(new SyncManifest(root)));
+    }
+}
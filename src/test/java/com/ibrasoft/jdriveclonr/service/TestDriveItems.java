@@ -0,0 +1,28 @@
+package com.ibrasoft.jdriveclonr.service;
+
+import com.google.api.client.util.DateTime;
+import com.ibrasoft.jdriveclonr.model.DriveItem;
+
+import java.util.List;
+
+/**
+ * Drive items for tests that only care about a file's identity and content.
+ */
+final class TestDriveItems {
+
+    private TestDriveItems() {
+    }
+
+    /**
+     * @return A three-byte binary file named after its ID
+     */
+    static DriveItem file(String id, String md5) {
+        return file(id, id + ".bin", md5, 3);
+    }
+
+    static DriveItem file(String id, String name, String md5, long size) {
+        DriveItem item = new DriveItem(id, name, "application/octet-stream", size, new DateTime(1_000_000L), false, List.of(), null, null);
+        item.setMd5Checksum(md5);
+        return item;
+    }
+}
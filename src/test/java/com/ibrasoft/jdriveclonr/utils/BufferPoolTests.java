@@ -0,0 +1,54 @@
+package com.ibrasoft.jdriveclonr.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTests {
+
+    @Test
+    void releasedBuffersAreReusedEmpty() {
+        BufferPool pool = new BufferPool(64, 2, true);
+        ByteBuffer first = pool.acquire();
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(64, second.remaining());
+        assertEquals(1, pool.getAllocated());
+    }
+
+    @Test
+    void onlyMaxPooledBuffersAreKept() {
+        BufferPool pool = new BufferPool(64, 1, false);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        pool.release(ByteBuffer.allocate(32));
+
+        assertSame(first, pool.acquire());
+        pool.acquire();
+        assertEquals(3, pool.getAllocated());
+    }
+
+    @Test
+    void transfersCopyEverythingAndReportProgress() throws IOException {
+        byte[] data = new byte[200_000];
+        new Random(3).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] reported = {0};
+
+        assertEquals(data.length, Transfers.copy(new ByteArrayInputStream(data), out, bytes -> reported[0] += bytes));
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(data.length, reported[0]);
+    }
+}